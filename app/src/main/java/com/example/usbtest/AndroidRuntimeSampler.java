@@ -0,0 +1,56 @@
+package com.example.usbtest;
+
+import android.os.Build;
+import android.os.Debug;
+
+import com.example.usbtest.pipeline.RuntimeSampler;
+
+import java.io.File;
+
+/**
+ * {@link RuntimeSampler} for ART. GC counters need API 23, threads are counted in
+ * /proc/self/task so binder and native threads are included.
+ */
+class AndroidRuntimeSampler implements RuntimeSampler {
+
+    private final File tasks = new File("/proc/self/task");
+
+    @Override
+    public long heapUsedBytes() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @Override
+    public long nativeHeapBytes() {
+        return Debug.getNativeHeapAllocatedSize();
+    }
+
+    @Override
+    public long gcCount() {
+        return runtimeStat("art.gc.gc-count");
+    }
+
+    @Override
+    public long gcTimeMillis() {
+        return runtimeStat("art.gc.gc-time");
+    }
+
+    @Override
+    public int threadCount() {
+        String[] names = tasks.list();
+        return names != null ? names.length : Thread.activeCount();
+    }
+
+    private static long runtimeStat(String name) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return UNKNOWN;
+        }
+        String value = Debug.getRuntimeStat(name);
+        try {
+            return value != null ? Long.parseLong(value) : UNKNOWN;
+        } catch (NumberFormatException e) {
+            return UNKNOWN;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.usbtest;
+
+import android.os.Debug;
+
+import com.example.usbtest.pipeline.StageProfiler;
+
+/**
+ * {@link StageProfiler.Meter} on ART: thread CPU time from Debug.threadCpuTimeNanos, allocated
+ * bytes from the per-thread allocation counters, which are enabled on construction and
+ * process wide, so {@link #stop()} when done.
+ */
+@SuppressWarnings("deprecation")
+class AndroidStageMeter implements StageProfiler.Meter {
+
+    AndroidStageMeter() {
+        Debug.startAllocCounting();
+    }
+
+    /**
+     * disable the allocation counters again, they slow down every allocation in the process
+     */
+    void stop() {
+        Debug.stopAllocCounting();
+    }
+
+    @Override
+    public long threadCpuNanos() {
+        return Debug.threadCpuTimeNanos();
+    }
+
+    @Override
+    public long threadAllocatedBytes() {
+        return Debug.getThreadAllocSize();
+    }
+}
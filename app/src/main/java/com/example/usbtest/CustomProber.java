@@ -3,8 +3,12 @@ package com.example.usbtest;
 import com.hoho.android.usbserial.driver.CdcAcmSerialDriver;
 import com.hoho.android.usbserial.driver.Ch34xSerialDriver;
 import com.hoho.android.usbserial.driver.ProbeTable;
+import com.hoho.android.usbserial.driver.UsbSerialDriver;
 import com.hoho.android.usbserial.driver.UsbSerialProber;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * add devices here, that are not known to DefaultProber
  *
@@ -13,12 +17,34 @@ import com.hoho.android.usbserial.driver.UsbSerialProber;
  */
 class CustomProber {
 
-    static UsbSerialProber getCustomProber() {
+    private static final class Product {
+        final int vendorId;
+        final int productId;
+        final Class<? extends UsbSerialDriver> driverClass;
+
+        Product(int vendorId, int productId, Class<? extends UsbSerialDriver> driverClass) {
+            this.vendorId = vendorId;
+            this.productId = productId;
+            this.driverClass = driverClass;
+        }
+    }
+
+    // added at runtime, e.g. the in-memory loopback driver of the unit tests
+    private static final List<Product> registered = new ArrayList<>();
+
+    static synchronized void addProduct(int vendorId, int productId, Class<? extends UsbSerialDriver> driverClass) {
+        registered.add(new Product(vendorId, productId, driverClass));
+    }
+
+    static synchronized UsbSerialProber getCustomProber() {
         ProbeTable customTable = new ProbeTable();
         customTable.addProduct(0x16d0, 0x087e, CdcAcmSerialDriver.class); // e.g. Digispark CDC
         customTable.addProduct(0x16d0, 0x087e, CdcAcmSerialDriver.class); // e.g. Digispark CDC
         customTable.addProduct(0x04d8, 0x00df, CdcAcmSerialDriver.class); // MCP2200
         customTable.addProduct(0x1a86, 0x5523, Ch34xSerialDriver.class); // CH341 - Qiio
+        for (Product product : registered) {
+            customTable.addProduct(product.vendorId, product.productId, product.driverClass);
+        }
         return new UsbSerialProber(customTable);
     }
 
@@ -0,0 +1,72 @@
+package com.example.usbtest;
+
+import com.example.usbtest.pipeline.ReadStrategy;
+import com.hoho.android.usbserial.driver.UsbSerialPort;
+import com.hoho.android.usbserial.util.SerialInputOutputManager;
+
+/**
+ * SerialInputOutputManager callbacks with a configurable read buffer size.
+ * The manager allocates a fresh array per chunk, the sink gets that array.
+ */
+class IoManagerReadStrategy implements ReadStrategy, SerialInputOutputManager.Listener {
+
+    static final String NAME = "iomanager";
+
+    private final UsbSerialPort port;
+    private final int bufferSize;
+    private final int readTimeoutMillis;
+    private SerialInputOutputManager ioManager;
+    private volatile Sink sink;
+
+    /**
+     * @param bufferSize 0 keeps the manager default
+     */
+    IoManagerReadStrategy(UsbSerialPort port, int bufferSize, int readTimeoutMillis) {
+        this.port = port;
+        this.bufferSize = bufferSize;
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public synchronized void start(Sink sink) {
+        this.sink = sink;
+        ioManager = new SerialInputOutputManager(port, this);
+        if (bufferSize > 0) {
+            ioManager.setReadBufferSize(bufferSize);
+        }
+        ioManager.setReadTimeout(readTimeoutMillis);
+        ioManager.setThreadPriority(-20);
+        ioManager.start();
+    }
+
+    @Override
+    public synchronized void stop() {
+        sink = null;
+        if (ioManager != null) {
+            ioManager.setListener(null);
+            ioManager.stop();
+        }
+        ioManager = null;
+    }
+
+    @Override
+    public void onNewData(byte[] data) {
+        Sink s = sink;
+        if (s != null) {
+            s.onData(data, data.length);
+        }
+    }
+
+    @Override
+    public void onRunError(Exception e) {
+        Sink s = sink;
+        if (s != null) {
+            s.onRunError(e);
+        }
+    }
+}
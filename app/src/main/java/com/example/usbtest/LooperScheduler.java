@@ -0,0 +1,54 @@
+package com.example.usbtest;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import com.example.usbtest.pipeline.PipelineScheduler;
+import com.example.usbtest.pipeline.Schedulers;
+import com.example.usbtest.pipeline.ThreadTuner;
+
+/**
+ * {@link PipelineScheduler} on a HandlerThread, the model MainActivity started with.
+ */
+class LooperScheduler implements PipelineScheduler {
+
+    static final String LOOPER = "looper";
+
+    static final ThreadTuner ANDROID_TUNER = Process::setThreadPriority;
+
+    private final HandlerThread thread;
+    private final Handler handler;
+
+    LooperScheduler(String name, int priority) {
+        thread = new HandlerThread(name, priority);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * looper plus the JVM kinds, with Android thread priorities
+     */
+    static PipelineScheduler.Factory factory() {
+        PipelineScheduler.Factory jvm = Schedulers.factory(ANDROID_TUNER);
+        return (kind, name, priority) -> LOOPER.equals(kind)
+                ? new LooperScheduler(name, priority)
+                : jvm.create(kind, name, priority);
+    }
+
+    @Override
+    public void post(Runnable task) {
+        handler.post(task);
+    }
+
+    @Override
+    public void postDelayed(Runnable task, long delayMillis) {
+        handler.postDelayed(task, delayMillis);
+    }
+
+    @Override
+    public void shutdown() {
+        handler.removeCallbacksAndMessages(null);
+        thread.quit();
+    }
+}
@@ -1,5 +1,6 @@
 package com.example.usbtest;
 
+import android.app.PendingIntent;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
@@ -7,53 +8,281 @@ import android.content.IntentFilter;
 import android.hardware.usb.UsbDevice;
 import android.hardware.usb.UsbDeviceConnection;
 import android.hardware.usb.UsbManager;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.Trace;
 import android.util.Log;
 
 import androidx.appcompat.app.AppCompatActivity;
 
+import com.example.usbtest.pipeline.AsyncWriteEngine;
+import com.example.usbtest.pipeline.AutoTuner;
+import com.example.usbtest.pipeline.BenchmarkConfig;
+import com.example.usbtest.pipeline.BenchmarkReport;
+import com.example.usbtest.pipeline.BenchmarkResult;
+import com.example.usbtest.pipeline.BenchmarkRunner;
+import com.example.usbtest.pipeline.CobsCodec;
+import com.example.usbtest.pipeline.ExecutorScheduler;
+import com.example.usbtest.pipeline.FlowControlLink;
+import com.example.usbtest.pipeline.FrameLedger;
+import com.example.usbtest.pipeline.InMemorySerialLink;
+import com.example.usbtest.pipeline.JsonPayloadGenerator;
+import com.example.usbtest.pipeline.LatencyHistogram;
+import com.example.usbtest.pipeline.LatencyProbe;
+import com.example.usbtest.pipeline.MetricsExporter;
+import com.example.usbtest.pipeline.PayloadVerifier;
+import com.example.usbtest.pipeline.PipelineMetrics;
+import com.example.usbtest.pipeline.PersistenceSink;
+import com.example.usbtest.pipeline.PipelineScheduler;
+import com.example.usbtest.pipeline.ReadStrategy;
+import com.example.usbtest.pipeline.RecoverySupervisor;
+import com.example.usbtest.pipeline.SampleStore;
+import com.example.usbtest.pipeline.SendQueue;
+import com.example.usbtest.pipeline.SensorFrameParser;
+import com.example.usbtest.pipeline.SoakMonitor;
+import com.example.usbtest.pipeline.StageProfiler;
+import com.example.usbtest.pipeline.StartupTimeline;
+import com.example.usbtest.pipeline.TraceRecorder;
+import com.example.usbtest.pipeline.TracingSerialLink;
+import com.example.usbtest.pipeline.SerialLink;
+import com.example.usbtest.pipeline.SweepDefinition;
+import com.example.usbtest.pipeline.TuningProfile;
+import com.example.util.HexDump;
 import com.hoho.android.usbserial.driver.UsbSerialDriver;
 import com.hoho.android.usbserial.driver.UsbSerialPort;
 import com.hoho.android.usbserial.driver.UsbSerialProber;
 import com.hoho.android.usbserial.util.SerialInputOutputManager;
 
-import org.apache.commons.codec.binary.Hex;
-import org.json.JSONException;
-import org.json.JSONObject;
-
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
-import java.util.Random;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
-public class MainActivity extends AppCompatActivity implements SerialInputOutputManager.Listener,
-        UsbListener {
+public class MainActivity extends AppCompatActivity implements ReadStrategy.Sink, UsbListener {
 
     private static final String TAG = "SERIAL";
     private static final long WRITE_INTERVAL = 1;
     private static final int WRITE_WAIT_MILLIS = 2500;
     private static final int READ_WAIT_MILLIS = 2500;
 
+    // adb shell am start -n com.example.usbtest/.MainActivity --es mode latency --ez fakePort true
+    static final String EXTRA_MODE = "mode";
+    static final String EXTRA_FAKE_PORT = "fakePort";
+    static final String MODE_LATENCY = "latency";
+    // --es mode benchmark [--es sweep /sdcard/Android/data/com.example.usbtest/files/sweep.properties]
+    static final String MODE_BENCHMARK = "benchmark";
+    static final String EXTRA_SWEEP = "sweep";
+    // --es mode autotune, best profile is stored per VID/PID and applied on the next connect
+    static final String MODE_AUTOTUNE = "autotune";
+    // --es mode soak [--ei soakMinutes 240 (0 = until stopped) --ei soakSampleSeconds 10]
+    static final String MODE_SOAK = "soak";
+    static final String EXTRA_SOAK_MINUTES = "soakMinutes";
+    static final String EXTRA_SOAK_SAMPLE_SECONDS = "soakSampleSeconds";
+    private static final int SOAK_MAX_SAMPLES = 8640;
+    private static final int SOAK_WINDOW_SAMPLES = 30;
+    // --ez profileStages true: log CPU time and allocations per stage and MB every metrics interval
+    static final String EXTRA_PROFILE_STAGES = "profileStages";
+    private static final int STAGE_ENCODE = 0;
+    private static final int STAGE_WRITE = 1;
+    private static final int STAGE_RECEIVE = 2;
+    private static final int STAGE_POST = 3;
+    private static final int STAGE_LOG = 4;
+    // --ez trace true records spans (also as android.os.Trace sections),
+    // adb shell am broadcast -a com.example.usbtest.DUMP_TRACE writes trace-*.json
+    static final String EXTRA_TRACE = "trace";
+    static final String ACTION_DUMP_TRACE = "com.example.usbtest.DUMP_TRACE";
+    private static final int TRACE_SPANS_PER_THREAD = 32768;
+    // --es read iomanager|blocking|queued, also a sweep dimension of the benchmark
+    static final String EXTRA_READ_STRATEGY = "read";
+    // --es scheduler looper|dedicated|pool --ei writePriority -19 (same for read)
+    static final String EXTRA_SCHEDULER = "scheduler";
+    static final String EXTRA_WRITE_PRIORITY = "writePriority";
+    static final String EXTRA_READ_PRIORITY = "readPriority";
+    // --ei asyncWrites 4: bulk OUT transfers kept in flight, 0 writes synchronously
+    static final String EXTRA_ASYNC_WRITES = "asyncWrites";
+    private static final int ASYNC_WRITE_BUFFER_SIZE = 16384;
+    private static final int SEND_QUEUE_BUFFERS = 32;
+    // --ei controlWeight 4: probe (control lane) writes sent in a row before a waiting payload write
+    static final String EXTRA_CONTROL_WEIGHT = "controlWeight";
+    // --es flowControl xonxoff|rtscts: hold writes back while the device asks us to pause
+    static final String EXTRA_FLOW_CONTROL = "flowControl";
+    // coalesce at most this much link time into one write, control waits behind no more
+    private static final int MAX_COALESCE_MILLIS = 10;
+    // --ez verify true: regenerate and compare every echoed payload, track frames in flight
+    static final String EXTRA_VERIFY = "verify";
+    private static final int LEDGER_CAPACITY = 8192;
+    private static final long FRAME_TIMEOUT_MILLIS = 2 * WRITE_WAIT_MILLIS;
+    private static final long PAYLOAD_STREAM_ID = 1;
+    // --es framing cobs: binary safe COBS frames ending in 0x00 instead of the payload terminator
+    static final String EXTRA_FRAMING = "framing";
+    static final String FRAMING_COBS = "cobs";
+    private static final int MAX_ENCODED_FRAME = CobsCodec.maxEncodedLength(JsonPayloadGenerator.MAX_FRAME_LENGTH);
+    // --ei storeMegabytes 64: keep received value0..value19 in memory, oldest evicted first
+    static final String EXTRA_STORE_MEGABYTES = "storeMegabytes";
+    private static final int STORE_CHUNK_SAMPLES = 4096;
+    private static final long STORE_REPORT_NANOS = 10_000_000_000L;
+    // --ez persist true: write received value0..value19 to samples.db in batched WAL transactions
+    static final String EXTRA_PERSIST = "persist";
+    private static final int PERSIST_CAPACITY = 16384;
+    private static final int PERSIST_BATCH_ROWS = 2048;
+    private static final long PERSIST_MAX_DELAY_NANOS = 500_000_000L;
+    // hold back the read thread this long for a free row, the device waits with it, then drop
+    private static final long PERSIST_BLOCK_NANOS = 20_000_000L;
+    // adb shell am broadcast -a com.example.usbtest.DUMP_METRICS: write and log a metrics snapshot now;
+    // a broadcast, an intent to the activity would pause it and with that disconnect
+    static final String ACTION_DUMP_METRICS = "com.example.usbtest.DUMP_METRICS";
+    private static final String METRICS_FILE = "metrics.prom";
+    private static final long METRICS_INTERVAL_MILLIS = 10_000;
+    private static final long GRAPH_SAMPLE_MILLIS = 250;
+    private static final long RECOVERY_INITIAL_DELAY_MILLIS = 100;
+    private static final long RECOVERY_MAX_DELAY_MILLIS = 10_000;
+    private static final long PROBE_INTERVAL_NANOS = 10_000_000L;
+    private static final long PROBE_PHASE_NANOS = 10_000_000_000L;
+    private static final String ACTION_USB_PERMISSION = "com.example.usbtest.USB_PERMISSION";
+    // time to first byte, logged with the first echo and exported as serial_startup_*_millis
+    private static final int STARTUP_CREATE = 0;
+    private static final int STARTUP_UI = 1;
+    private static final int STARTUP_DEVICE = 2;
+    private static final int STARTUP_PORT_OPEN = 3;
+    private static final int STARTUP_PIPELINE = 4;
+    private static final int STARTUP_FIRST_WRITE = 5;
+    private static final int STARTUP_FIRST_READ = 6;
+    // the first onCreate of the process measures from process start, a recreated activity from onCreate
+    private static boolean processStartMeasured;
+
     private int portNum;
-    private final int baudRate = 115200;
+    private int baudRate = 115200;
+    private int readBufferSize = 0; // 0 = SerialInputOutputManager default
+    private int writeBatchSize = 1;
 
     private BroadcastReceiver broadcastReceiver;
+    // onCreate to onDestroy: the permission dialog pauses the activity, its answer must still arrive,
+    // and dump requests must not pause it
+    private BroadcastReceiver activityReceiver;
 
     private Handler mainLooper;
-    private SerialInputOutputManager usbIoManager;
     private UsbSerialPort usbSerialPort;
+    private SerialLink serialLink;
+    private SendQueue.Producer writeLink;
+    private AsyncWriteEngine asyncWriter;
+    // payload and probe writers share the port through one writer thread
+    private SendQueue sendQueue;
+    private SendQueue.Producer probeWriteLink;
+    private int controlWeight;
+    private String flowControlMode;
+    // read by the receive thread, replaced per connection
+    private volatile FlowControlLink flowControl;
+    private int asyncWriteDepth;
+    private ReadStrategy.Factory readStrategyFactory;
+    private ReadStrategy readStrategy;
+    private String readStrategyName;
     private boolean connected = false;
+    private boolean useFakePort;
+    private RecoverySupervisor recovery;
+    private int openFailure = RecoverySupervisor.TRANSIENT;
+    private final Runnable recoveryAttempt = this::initialize;
+    // bumped to stop the running write loop
+    private volatile int writeSession;
+
+    private LatencyProbe latencyProbe;
+    private final byte[] probeBuffer = new byte[64];
+    private long probePhaseStart;
+    private long lastProbeSent;
+
+    private final JsonPayloadGenerator payloadGenerator = new JsonPayloadGenerator(PAYLOAD_STREAM_ID);
+    private byte[] batchBuffer = new byte[MAX_ENCODED_FRAME];
+    private boolean cobsFraming;
+    private CobsCodec.Decoder cobsDecoder;
+    private PayloadVerifier payloadVerifier;
+    private FrameLedger frameLedger;
+    private SampleStore sampleStore;
+    private PersistenceSink persistSink;
+    private SensorFrameParser sensorParser;
 
-    private HandlerThread writeThread;
-    private HandlerThread readThread;
-    private Handler writeHandler;
-    private Handler readHandler;
+    private SweepDefinition sweep;
+    private boolean autoTune;
+    private TuningStore tuningStore;
+
+    private PipelineScheduler writeScheduler;
+    private PipelineScheduler readScheduler;
+    private final LatencyHistogram writeLateness = new LatencyHistogram();
+    private final PipelineMetrics pipelineMetrics = new PipelineMetrics();
+    private StageProfiler stageProfiler;
+    // null unless EXTRA_PROFILE_STAGES, its allocation counting runs until onDestroy
+    private AndroidStageMeter stageMeter;
+    private TraceRecorder tracer;
+    private int spanWriteLoop;
+    private int spanPortWrite;
+    private int spanOnData;
+    private int spanConsume;
+    private final MetricsExporter metricsExporter = new MetricsExporter();
+    private PipelineScheduler metricsScheduler;
+    private ThroughputGraphView throughputGraph;
+    private final Runnable graphSampler = new Runnable() {
+        private long lastNanos;
+        private long lastRead, lastWritten, lastLatencySum, lastLatencyCount;
+
+        @Override
+        public void run() {
+            // deltas of counters the pipeline keeps anyway, the graph adds nothing to the hot paths
+            long now = System.nanoTime();
+            long read = pipelineMetrics.bytesRead();
+            long written = pipelineMetrics.bytesWritten();
+            long latencySum = 0, latencyCount = 0;
+            if (frameLedger != null) {
+                latencySum = frameLedger.matchLatency().sum();
+                latencyCount = frameLedger.matchLatency().count();
+            } else if (latencyProbe != null) {
+                latencySum = latencyProbe.idle().sum() + latencyProbe.loaded().sum();
+                latencyCount = latencyProbe.idle().count() + latencyProbe.loaded().count();
+            }
+            if (lastNanos != 0) {
+                float seconds = (now - lastNanos) / 1e9f;
+                long samples = latencyCount - lastLatencyCount;
+                throughputGraph.addSample((read - lastRead) / seconds, (written - lastWritten) / seconds,
+                        samples == 0 ? 0 : (latencySum - lastLatencySum) / samples / 1e3f);
+            }
+            lastNanos = now;
+            lastRead = read;
+            lastWritten = written;
+            lastLatencySum = latencySum;
+            lastLatencyCount = latencyCount;
+            mainLooper.postDelayed(this, GRAPH_SAMPLE_MILLIS);
+        }
+    };
 
     private UsbManager usbManager;
     private UsbDevice curDevice;
+    private StartupTimeline startup;
+    // enumerated and opened off the main thread while onCreate inflates the UI
+    private FutureTask<PreparedPort> portPreparation;
+    private PreparedPort preparedPort;
+    private boolean permissionRequested;
+
+    /**
+     * result of prepareSerialPort(), connection is null unless the port was opened
+     */
+    private static final class PreparedPort {
+        UsbSerialPort port;
+        UsbDeviceConnection connection;
+    }
 
     private void registerReceiver() {
+        if (broadcastReceiver != null) {
+            // onCreate and onResume both register, a second receiver would leak and double-handle attach
+            return;
+        }
         broadcastReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
@@ -86,26 +315,403 @@ public class MainActivity extends AppCompatActivity implements SerialInputOutput
         getApplicationContext().registerReceiver(broadcastReceiver, usbDeviceStateFilter);
     }
 
+    private void registerActivityReceiver() {
+        activityReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                String action = intent.getAction();
+                if (action == null || "".equals(action)) return;
+                switch (action) {
+                    case ACTION_USB_PERMISSION:
+                        permissionRequested = false;
+                        if (intent.getBooleanExtra(UsbManager.EXTRA_PERMISSION_GRANTED, false) && !connected) {
+                            status("permission granted");
+                            initialize();
+                        } else if (!connected) {
+                            status("permission denied");
+                        }
+                        break;
+                    case ACTION_DUMP_METRICS:
+                        metricsScheduler.post(() -> exportMetrics(true));
+                        break;
+                    case ACTION_DUMP_TRACE:
+                        metricsScheduler.post(MainActivity.this::writeTrace);
+                        break;
+                }
+            }
+        };
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(ACTION_USB_PERMISSION);
+        filter.addAction(ACTION_DUMP_METRICS);
+        filter.addAction(ACTION_DUMP_TRACE);
+        getApplicationContext().registerReceiver(activityReceiver, filter);
+    }
+
     public void removeUsb(UsbDevice device) {
-        disconnect();
+        if (connected) {
+            disconnect();
+            recover(RecoverySupervisor.DETACHED);
+        }
     }
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        startup = new StartupTimeline(startupOrigin(), "onCreate", "ui", "deviceVisible", "portOpen",
+                "pipeline", "firstWrite", "firstRead");
+        startup.mark(STARTUP_CREATE);
+        Intent intent = getIntent();
+        useFakePort = intent.getBooleanExtra(EXTRA_FAKE_PORT, false);
+        if (!useFakePort) {
+            prepareSerialPort();
+        }
+
         setContentView(R.layout.activity_main);
+        throughputGraph = findViewById(R.id.throughput_graph);
+        startup.mark(STARTUP_UI);
         SerialInputOutputManager.DEBUG = true;
 
         mainLooper = new Handler(Looper.getMainLooper());
 
-        writeThread = new HandlerThread("SerialWriteThread");
-        writeThread.start();
-        writeHandler = new Handler(writeThread.getLooper());
+        createSchedulers(intent);
 
-        readThread = new HandlerThread("SerialReadThread");
-        readThread.start();
-        readHandler = new Handler(readThread.getLooper());
+        readStrategyFactory = UsbReadStrategies.factory(READ_WAIT_MILLIS);
+        asyncWriteDepth = intent.getIntExtra(EXTRA_ASYNC_WRITES, 0);
+        createTracer(intent.getBooleanExtra(EXTRA_TRACE, false));
+        if (intent.getBooleanExtra(EXTRA_PROFILE_STAGES, false)) {
+            stageMeter = new AndroidStageMeter();
+        }
+        stageProfiler = new StageProfiler(stageMeter, "encode", "write", "receive", "post", "log");
+        controlWeight = intent.getIntExtra(EXTRA_CONTROL_WEIGHT, SendQueue.DEFAULT_CONTROL_WEIGHT);
+        flowControlMode = intent.getStringExtra(EXTRA_FLOW_CONTROL);
+        cobsFraming = FRAMING_COBS.equals(intent.getStringExtra(EXTRA_FRAMING));
+        if (cobsFraming) {
+            // one decoder for the activity, after a reconnect it resyncs at the first delimiter
+            cobsDecoder = new CobsCodec.Decoder(JsonPayloadGenerator.MAX_FRAME_LENGTH, this::checkReceived);
+        }
+        if (intent.getBooleanExtra(EXTRA_VERIFY, false)) {
+            payloadVerifier = new PayloadVerifier();
+            frameLedger = new FrameLedger(LEDGER_CAPACITY, FRAME_TIMEOUT_MILLIS);
+            payloadVerifier.setListener(frameLedger);
+        }
+        int storeMegabytes = intent.getIntExtra(EXTRA_STORE_MEGABYTES, 0);
+        if (storeMegabytes > 0) {
+            sampleStore = new SampleStore(JsonPayloadGenerator.VALUE_COUNT, STORE_CHUNK_SAMPLES, storeMegabytes * 1_000_000L);
+        }
+        if (intent.getBooleanExtra(EXTRA_PERSIST, false)) {
+            persistSink = new PersistenceSink(new SqliteSampleBackend(this, JsonPayloadGenerator.VALUE_COUNT),
+                    JsonPayloadGenerator.VALUE_COUNT, PERSIST_CAPACITY, PERSIST_BATCH_ROWS, PERSIST_MAX_DELAY_NANOS,
+                    PERSIST_BLOCK_NANOS);
+            persistSink.start();
+        }
+        if (sampleStore != null || persistSink != null) {
+            sensorParser = new SensorFrameParser(JsonPayloadGenerator.VALUE_COUNT, this::onSample);
+        }
+        readStrategyName = intent.getStringExtra(EXTRA_READ_STRATEGY);
+        if (readStrategyName == null) {
+            readStrategyName = useFakePort ? ReadStrategy.BLOCKING : IoManagerReadStrategy.NAME;
+        }
+        if (MODE_LATENCY.equals(intent.getStringExtra(EXTRA_MODE))) {
+            latencyProbe = new LatencyProbe();
+        } else if (MODE_BENCHMARK.equals(intent.getStringExtra(EXTRA_MODE))) {
+            sweep = loadSweep(intent.getStringExtra(EXTRA_SWEEP));
+        } else if (MODE_AUTOTUNE.equals(intent.getStringExtra(EXTRA_MODE))) {
+            autoTune = true;
+        }
+        tuningStore = new TuningStore(this);
+        recovery = new RecoverySupervisor(RECOVERY_INITIAL_DELAY_MILLIS, RECOVERY_MAX_DELAY_MILLIS,
+                System.nanoTime(), System.nanoTime());
+        startMetricsExport();
+        if (MODE_SOAK.equals(intent.getStringExtra(EXTRA_MODE))) {
+            startSoak(intent.getIntExtra(EXTRA_SOAK_MINUTES, 240), intent.getIntExtra(EXTRA_SOAK_SAMPLE_SECONDS, 10));
+        }
+        registerActivityReceiver();
         registerReceiver();
+        if (useFakePort) {
+            initialize();
+        } else {
+            startPreparedPort();
+        }
+    }
+
+    /**
+     * process start on API 24+, where the platform reports it, else now
+     */
+    private static long startupOrigin() {
+        long now = System.nanoTime();
+        if (!processStartMeasured && Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            processStartMeasured = true;
+            return now - (SystemClock.uptimeMillis() - Process.getStartUptimeMillis()) * 1_000_000L;
+        }
+        return now;
+    }
+
+    /**
+     * Enumerate, check permission and open the port on a thread of its own, so it overlaps
+     * with inflating the UI and starting the pipeline threads. A port that fails to open
+     * here is opened again by initialize().
+     */
+    private void prepareSerialPort() {
+        usbManager = (UsbManager) getSystemService(Context.USB_SERVICE);
+        final UsbManager manager = usbManager;
+        portPreparation = new FutureTask<>(() -> {
+            PreparedPort prepared = new PreparedPort();
+            prepared.port = findSerialPort();
+            if (prepared.port == null || !manager.hasPermission(prepared.port.getDevice())) {
+                return prepared;
+            }
+            startup.mark(STARTUP_DEVICE);
+            UsbDeviceConnection connection = manager.openDevice(prepared.port.getDevice());
+            if (connection != null) {
+                try {
+                    prepared.port.open(connection);
+                    prepared.connection = connection;
+                    startup.mark(STARTUP_PORT_OPEN);
+                } catch (IOException e) {
+                    status("early open failed, retrying: " + e.getMessage());
+                    connection.close();
+                }
+            }
+            return prepared;
+        });
+        new Thread(portPreparation, "SerialPrepare").start();
+    }
+
+    /**
+     * Connect a device that was attached before launch right away, no attach broadcast
+     * comes for it; ask for permission first if we don't have it.
+     */
+    private void startPreparedPort() {
+        PreparedPort prepared;
+        try {
+            // at worst as long as opening on the main thread used to take
+            prepared = portPreparation.get();
+        } catch (ExecutionException | InterruptedException e) {
+            status("port preparation failed: " + e);
+            prepared = null;
+        }
+        portPreparation = null;
+        if (prepared == null || prepared.port == null) {
+            // nothing attached yet, wait for the broadcast
+            return;
+        }
+        curDevice = prepared.port.getDevice();
+        if (!usbManager.hasPermission(curDevice)) {
+            requestPermission(curDevice);
+            return;
+        }
+        preparedPort = prepared;
+        initialize();
+    }
+
+    private void requestPermission(UsbDevice device) {
+        if (permissionRequested) {
+            return;
+        }
+        permissionRequested = true;
+        int flags = Build.VERSION.SDK_INT >= Build.VERSION_CODES.S ? PendingIntent.FLAG_MUTABLE : 0;
+        Intent intent = new Intent(ACTION_USB_PERMISSION).setPackage(getPackageName());
+        usbManager.requestPermission(device, PendingIntent.getBroadcast(this, 0, intent, flags));
+        status("requesting permission for " + device.getDeviceName());
+    }
+
+    private void createSchedulers(Intent intent) {
+        String kind = intent.getStringExtra(EXTRA_SCHEDULER);
+        if (kind == null) {
+            kind = LooperScheduler.LOOPER;
+        }
+        PipelineScheduler.Factory factory = LooperScheduler.factory();
+        writeScheduler = factory.create(kind, "SerialWriteThread",
+                intent.getIntExtra(EXTRA_WRITE_PRIORITY, Process.THREAD_PRIORITY_DEFAULT));
+        readScheduler = factory.create(kind, "SerialReadThread",
+                intent.getIntExtra(EXTRA_READ_PRIORITY, Process.THREAD_PRIORITY_DEFAULT));
+        if (writeScheduler == null || readScheduler == null) {
+            status("scheduler " + kind + " not available, using " + LooperScheduler.LOOPER);
+            writeScheduler = new LooperScheduler("SerialWriteThread", Process.THREAD_PRIORITY_DEFAULT);
+            readScheduler = new LooperScheduler("SerialReadThread", Process.THREAD_PRIORITY_DEFAULT);
+        }
+    }
+
+    /**
+     * export to METRICS_FILE every METRICS_INTERVAL_MILLIS on a background thread of its own
+     */
+    private void startMetricsExport() {
+        pipelineMetrics.exportTo(metricsExporter);
+        metricsExporter.addCounter("serial_recovery_incidents", "times the link went down", recovery::incidents);
+        metricsExporter.addHistogram("serial_downtime_seconds", "downtime per incident", recovery.downtime());
+        metricsExporter.addHistogram("serial_write_lateness_seconds", "write loop scheduling lateness", writeLateness);
+        metricsExporter.addGauge("serial_startup_first_write_millis", "launch to first payload write, -1 before",
+                () -> startupMillis(STARTUP_FIRST_WRITE));
+        metricsExporter.addGauge("serial_startup_first_read_millis", "launch to first byte read, -1 before",
+                () -> startupMillis(STARTUP_FIRST_READ));
+        if (latencyProbe != null) {
+            metricsExporter.addHistogram("serial_probe_idle_latency_seconds", "probe round trip without load", latencyProbe.idle());
+            metricsExporter.addHistogram("serial_probe_loaded_latency_seconds", "probe round trip under bulk load", latencyProbe.loaded());
+            metricsExporter.addCounter("serial_probe_corrupt", "corrupt probe frames", latencyProbe::corrupt);
+        }
+        if (payloadVerifier != null) {
+            metricsExporter.addCounter("serial_payload_corrupt", "payload frames that did not verify", payloadVerifier::corrupt);
+            metricsExporter.addCounter("serial_payload_missing", "payload frames never received", payloadVerifier::missing);
+            metricsExporter.addGauge("serial_frames_in_flight", "payload frames sent and not yet echoed", frameLedger::inFlight);
+            metricsExporter.addCounter("serial_frame_timeouts", "payload frames not echoed in time", frameLedger::timeouts);
+            metricsExporter.addHistogram("serial_frame_latency_seconds", "payload frame round trip", frameLedger.matchLatency());
+        }
+        if (cobsDecoder != null) {
+            metricsExporter.addCounter("serial_cobs_frames", "COBS frames decoded", cobsDecoder::frames);
+            metricsExporter.addCounter("serial_cobs_errors", "COBS frames dropped as truncated, malformed or too long", cobsDecoder::errors);
+        }
+        if (sampleStore != null) {
+            metricsExporter.addGauge("serial_store_samples", "received samples held in memory", sampleStore::size);
+            metricsExporter.addGauge("serial_store_bytes", "memory of the sample store", sampleStore::memoryBytes);
+            metricsExporter.addCounter("serial_store_evicted", "samples evicted for newer ones", sampleStore::startIndex);
+        }
+        if (persistSink != null) {
+            metricsExporter.addCounter("serial_persist_rows", "samples written to samples.db", persistSink::rows);
+            metricsExporter.addCounter("serial_persist_dropped", "samples dropped while the disk fell behind", persistSink::dropped);
+            metricsExporter.addCounter("serial_persist_failed", "samples lost to failed transactions", persistSink::failed);
+            metricsExporter.addHistogram("serial_persist_commit_seconds", "batch insert and commit", persistSink.commitLatency());
+        }
+        if (flowControlMode != null && !FlowControlLink.NONE.equals(flowControlMode)) {
+            metricsExporter.addCounter("serial_flow_pauses", "writes held back by flow control",
+                    () -> flowControl != null ? flowControl.pauses().count() : 0);
+            metricsExporter.addCounter("serial_flow_paused_millis", "time writes were held back by flow control",
+                    () -> flowControl != null ? flowControl.pausedNanos() / 1_000_000 : 0);
+            metricsExporter.addCounter("serial_flow_held_back_bytes", "bytes of the writes held back by flow control",
+                    () -> flowControl != null ? flowControl.heldBackBytes() : 0);
+        }
+        metricsScheduler = ExecutorScheduler.dedicated("MetricsExport", Process.THREAD_PRIORITY_BACKGROUND,
+                LooperScheduler.ANDROID_TUNER);
+        metricsScheduler.postDelayed(new Runnable() {
+            private long lastBytes;
+
+            @Override
+            public void run() {
+                exportMetrics(false);
+                if (stageProfiler.isEnabled()) {
+                    long bytes = pipelineMetrics.bytesRead() + pipelineMetrics.bytesWritten();
+                    status(stageProfiler.report(bytes - lastBytes));
+                    lastBytes = bytes;
+                }
+                metricsScheduler.postDelayed(this, METRICS_INTERVAL_MILLIS);
+            }
+        }, METRICS_INTERVAL_MILLIS);
+    }
+
+    /**
+     * launch to milestone, -1 before it is reached
+     */
+    private long startupMillis(int milestone) {
+        long nanos = startup.sinceOrigin(milestone);
+        return nanos < 0 ? -1 : nanos / 1_000_000;
+    }
+
+    /**
+     * sample resources next to the normal pipeline, log the report every window and write it at the end
+     */
+    private void startSoak(int minutes, int sampleSeconds) {
+        final SoakMonitor soak = new SoakMonitor(new AndroidRuntimeSampler(), SOAK_MAX_SAMPLES, SOAK_WINDOW_SAMPLES);
+        final long end = minutes > 0 ? System.nanoTime() + minutes * 60_000_000_000L : Long.MAX_VALUE;
+        status("soak for " + (minutes > 0 ? minutes + " min" : "ever") + ", sampling every " + sampleSeconds + " s");
+        metricsScheduler.post(new Runnable() {
+            private int samples;
+
+            @Override
+            public void run() {
+                long now = System.nanoTime();
+                soak.sample(now, pipelineMetrics.bytesRead());
+                if (++samples % SOAK_WINDOW_SAMPLES == 0) {
+                    status(soak.report());
+                }
+                if (minutes > 0 && now - end >= 0) {
+                    writeSoakReport(soak.report());
+                    mainLooper.post(() -> {
+                        status("soak finished");
+                        if (connected) {
+                            disconnect();
+                        }
+                    });
+                    return;
+                }
+                metricsScheduler.postDelayed(this, sampleSeconds * 1000L);
+            }
+        });
+    }
+
+    private void writeSoakReport(String report) {
+        File file = new File(getExternalFilesDir(null), "soak-" + System.currentTimeMillis() + ".txt");
+        try (Writer writer = new FileWriter(file)) {
+            writer.write(report);
+            writer.write('\n');
+            status(report);
+            status("soak report written to " + file);
+        } catch (IOException e) {
+            status("soak report failed: " + e.getMessage());
+        }
+    }
+
+    private void exportMetrics(boolean log) {
+        File file = new File(getExternalFilesDir(null), METRICS_FILE);
+        try {
+            metricsExporter.writeTo(file);
+            if (log) {
+                Log.i(TAG + "_METRICS", metricsExporter.render());
+                status("metrics written to " + file);
+            }
+        } catch (IOException e) {
+            status("metrics export failed: " + e.getMessage());
+        }
+    }
+
+    private void createTracer(boolean enabled) {
+        tracer = new TraceRecorder(enabled ? TRACE_SPANS_PER_THREAD : 0);
+        spanWriteLoop = tracer.register("writeLoop");
+        spanPortWrite = tracer.register("port.write");
+        spanOnData = tracer.register("onData");
+        spanConsume = tracer.register("consume");
+        if (enabled && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            tracer.setHook(new TraceRecorder.Hook() {
+                @Override
+                public void begin(String name) {
+                    Trace.beginSection(name);
+                }
+
+                @Override
+                public void end() {
+                    Trace.endSection();
+                }
+            });
+        }
+    }
+
+    private void writeTrace() {
+        if (!tracer.isEnabled()) {
+            status("tracing is off, start with --ez " + EXTRA_TRACE + " true");
+            return;
+        }
+        File file = new File(getExternalFilesDir(null), "trace-" + System.currentTimeMillis() + ".json");
+        try (Writer writer = new FileWriter(file)) {
+            tracer.writeChromeJson(writer);
+            status("trace written to " + file + ", open it in ui.perfetto.dev");
+        } catch (IOException e) {
+            status("trace failed: " + e.getMessage());
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        writeScheduler.shutdown();
+        readScheduler.shutdown();
+        metricsScheduler.shutdown();
+        getApplicationContext().unregisterReceiver(activityReceiver);
+        if (persistSink != null) {
+            // up to PERSIST_CAPACITY rows may still be committed, not on the main thread
+            persistSink.requestStop();
+        }
+        if (stageMeter != null) {
+            stageMeter.stop();
+        }
+        super.onDestroy();
     }
 
     @Override
@@ -118,34 +724,69 @@ public class MainActivity extends AppCompatActivity implements SerialInputOutput
     public void onResume() {
         super.onResume();
         registerReceiver();
+        mainLooper.post(graphSampler);
     }
 
     @Override
     public void onPause() {
+        mainLooper.removeCallbacks(graphSampler);
+        mainLooper.removeCallbacks(recoveryAttempt);
         if (connected) {
             status("disconnected");
             disconnect();
         }
         if (broadcastReceiver != null) {
-            unregisterReceiver(broadcastReceiver);
+            getApplicationContext().unregisterReceiver(broadcastReceiver);
             broadcastReceiver = null;
         }
         super.onPause();
     }
 
     public void initialize() {
-        // Initialize USB Manager
-        usbManager = (UsbManager) getSystemService(Context.USB_SERVICE);
+        if (useFakePort) {
+            if (!runsBenchmark()) {
+                applyTuningProfile(TuningStore.FAKE_PORT_KEY);
+                openFakePort();
+            } else {
+                // the benchmark creates one paced link per configuration
+                connected = true;
+            }
+        } else {
+            // Initialize USB Manager
+            usbManager = (UsbManager) getSystemService(Context.USB_SERVICE);
 
-        // Find and open the serial port
-        usbSerialPort = findSerialPort();
-        status("Opening");
-        openSerialPort(usbSerialPort);
+            // Find and open the serial port, unless prepareSerialPort() already did
+            PreparedPort prepared = preparedPort;
+            preparedPort = null;
+            usbSerialPort = prepared != null ? prepared.port : findSerialPort();
+            if (usbSerialPort != null) {
+                startup.mark(STARTUP_DEVICE);
+                status("Opening");
+                openSerialPort(usbSerialPort, prepared != null ? prepared.connection : null);
+            } else {
+                openFailure = RecoverySupervisor.DETACHED;
+            }
+        }
 
-        if (connected) {
+        if (!connected) {
+            recover(openFailure);
+            return;
+        }
+        if (recovery.isDown()) {
+            long downNanos = recovery.recovered(System.nanoTime());
+            status(String.format(Locale.US, "recovered after %.1f s, %s", downNanos / 1e9,
+                    recovery.report(System.nanoTime())));
+        }
+
+        if (connected && autoTune) {
+            startAutoTune();
+        } else if (connected && sweep != null) {
+            startBenchmark();
+        } else if (connected) {
             // Create dedicated threads for write and read actions
             // Start writing and reading data
             startWriting();
+            startup.mark(STARTUP_PIPELINE);
         }
     }
 
@@ -176,20 +817,32 @@ public class MainActivity extends AppCompatActivity implements SerialInputOutput
         return driver.getPorts().get(0);
     }
 
-    private void openSerialPort(UsbSerialPort port) {
+    /**
+     * @param opened connection the port was already opened with, null to open it here
+     */
+    private void openSerialPort(UsbSerialPort port, UsbDeviceConnection opened) {
         // Open the connection and set the parameters
-        UsbDeviceConnection connection = usbManager.openDevice(port.getDriver().getDevice());
+        UsbDeviceConnection connection = opened != null ? opened : usbManager.openDevice(port.getDriver().getDevice());
+        openFailure = RecoverySupervisor.TRANSIENT;
         if (connection != null) {
             try {
-                port.open(connection);
+                if (opened == null) {
+                    port.open(connection);
+                    startup.mark(STARTUP_PORT_OPEN);
+                }
+                if (!runsBenchmark()) {
+                    applyTuningProfile(TuningStore.key(port.getDevice()));
+                }
                 port.setParameters(baudRate, 8, UsbSerialPort.STOPBITS_1, UsbSerialPort.PARITY_NONE);
-                usbIoManager = new SerialInputOutputManager(port, this);
-                usbIoManager.setReadTimeout(READ_WAIT_MILLIS);
-                usbIoManager.setWriteTimeout(WRITE_WAIT_MILLIS);
-                usbIoManager.setThreadPriority(-20);
-                usbIoManager.start();
+                serialLink = new UsbSerialLink(port, connection);
+                if (!runsBenchmark()) {
+                    // the benchmark starts its own read strategy and writer per run
+                    startReading();
+                    prepareWriting();
+                }
                 status("connected");
                 connected = true;
+                pipelineMetrics.connected();
             } catch (IOException e) {
                 e.printStackTrace();
                 status("connection failed: " + e.getMessage());
@@ -197,7 +850,9 @@ public class MainActivity extends AppCompatActivity implements SerialInputOutput
             }
         } else {
             if (!usbManager.hasPermission(port.getDevice())) {
+                openFailure = RecoverySupervisor.PERMISSION;
                 status("permission denied");
+                requestPermission(port.getDevice());
             } else {
                 status("open failed");
             }
@@ -205,87 +860,473 @@ public class MainActivity extends AppCompatActivity implements SerialInputOutput
     }
 
 
+    /**
+     * echo link in memory, paced at baudRate, in place of a USB device
+     */
+    private void openFakePort() {
+        serialLink = new InMemorySerialLink(baudRate);
+        try {
+            startReading();
+            prepareWriting();
+        } catch (IOException e) {
+            status("connection failed: " + e.getMessage());
+            return;
+        }
+        status("connected to in-memory port");
+        connected = true;
+        pipelineMetrics.connected();
+    }
+
+    /**
+     * writes go through the async engine when EXTRA_ASYNC_WRITES is set, else straight to the link
+     */
+    private void prepareWriting() throws IOException {
+        SerialLink port = serialLink;
+        boolean flowControlled = FlowControlLink.XON_XOFF.equals(flowControlMode)
+                || FlowControlLink.RTS_CTS.equals(flowControlMode);
+        if (asyncWriteDepth > 0 && flowControlled) {
+            // transfers already handed to the driver can't be held back by a pause
+            status("async writes off under flow control");
+        } else if (asyncWriteDepth > 0) {
+            asyncWriter = new AsyncWriteEngine(serialLink, UsbRequestBulkOutTransport.FACTORY.create(serialLink),
+                    asyncWriteDepth, ASYNC_WRITE_BUFFER_SIZE);
+            port = asyncWriter;
+            status("async writes, " + asyncWriteDepth + " transfers in flight");
+        }
+        if (tracer.isEnabled()) {
+            port = new TracingSerialLink(port, tracer, spanPortWrite);
+        }
+        flowControl = createFlowControl(port);
+        if (flowControl != null) {
+            // a pause request stops us within a frame, also in the middle of a batch
+            flowControl.setMaxChunk(MAX_ENCODED_FRAME);
+            port = flowControl;
+        }
+        sendQueue = new SendQueue(port, SEND_QUEUE_BUFFERS,
+                Math.max(ASYNC_WRITE_BUFFER_SIZE, writeBatchSize * MAX_ENCODED_FRAME));
+        sendQueue.setControlWeight(controlWeight);
+        // 10 bits per byte on the wire
+        sendQueue.setMaxCoalesce(Math.max(MAX_ENCODED_FRAME, baudRate / 10 * MAX_COALESCE_MILLIS / 1000));
+        probeWriteLink = sendQueue.producer("probe", SendQueue.CONTROL);
+        writeLink = sendQueue.producer("payload", SendQueue.BULK);
+    }
+
+    /**
+     * @return null without EXTRA_FLOW_CONTROL, or if the adapter does not report CTS
+     */
+    private FlowControlLink createFlowControl(SerialLink port) throws IOException {
+        if (FlowControlLink.XON_XOFF.equals(flowControlMode)) {
+            if (latencyProbe != null || cobsFraming) {
+                status("binary probe or COBS frames may contain XON/XOFF bytes, prefer " + FlowControlLink.RTS_CTS);
+            }
+            status("flow control " + FlowControlLink.XON_XOFF);
+            return FlowControlLink.software(port);
+        }
+        if (FlowControlLink.RTS_CTS.equals(flowControlMode)) {
+            final UsbSerialPort usbPort = usbSerialPort;
+            if (usbPort == null || !usbPort.getSupportedControlLines().contains(UsbSerialPort.ControlLine.CTS)) {
+                status("flow control " + FlowControlLink.RTS_CTS + " needs an adapter reporting CTS, writing without");
+                return null;
+            }
+            usbPort.setRTS(true); // we can always take data
+            status("flow control " + FlowControlLink.RTS_CTS);
+            return FlowControlLink.hardware(port, usbPort::getCTS);
+        }
+        if (flowControlMode != null && !FlowControlLink.NONE.equals(flowControlMode)) {
+            status("unknown flow control " + flowControlMode + ", writing without");
+        }
+        return null;
+    }
+
+    private void startReading() throws IOException {
+        readStrategy = readStrategyFactory.create(readStrategyName, serialLink, readBufferSize);
+        if (readStrategy == null) {
+            status("read strategy " + readStrategyName + " not available, using " + ReadStrategy.BLOCKING);
+            readStrategy = readStrategyFactory.create(ReadStrategy.BLOCKING, serialLink, readBufferSize);
+        }
+        readStrategy.start(this);
+        status("reading with " + readStrategy.name());
+    }
+
     /*
      * Serial
      */
     @Override
-    public void onNewData(byte[] data) {
-        readHandler.post(new Runnable() {
+    public void onData(byte[] buffer, int length) {
+        tracer.begin(spanOnData);
+        pipelineMetrics.read(length);
+        if (!startup.isReached(STARTUP_FIRST_READ)) {
+            startup.mark(STARTUP_FIRST_READ);
+            status(startup.report());
+        }
+        FlowControlLink flow = flowControl;
+        if (flow != null) {
+            length = flow.onReceived(buffer, length);
+        }
+        stageProfiler.start(STAGE_RECEIVE);
+        if (cobsDecoder != null) {
+            cobsDecoder.onReceived(buffer, length);
+        } else {
+            checkReceived(buffer, length);
+        }
+        stageProfiler.end(STAGE_RECEIVE);
+        stageProfiler.start(STAGE_POST);
+        // the read strategy may reuse its buffer
+        final byte[] data = Arrays.copyOf(buffer, length);
+        readScheduler.post(new Runnable() {
             @Override
             public void run() {
+                tracer.begin(spanConsume);
+                stageProfiler.start(STAGE_LOG);
                 if (data.length > 0) {
-                    byte[] hexData = new Hex().encode(data);
-                    Log.d(TAG + "_RCV", hexData.toString());
+                    Log.d(TAG + "_RCV", HexDump.toHexString(data));
                 }
+                stageProfiler.end(STAGE_LOG);
+                tracer.end();
             }
         });
+        stageProfiler.end(STAGE_POST);
+        tracer.end();
+    }
+
+    /**
+     * probe and payload checks on received bytes, or on one decoded frame with COBS framing
+     */
+    private void checkReceived(byte[] data, int length) {
+        if (latencyProbe != null) {
+            // record on arrival, the scheduler hop below is not part of the link latency
+            latencyProbe.onReceived(data, length);
+        }
+        if (payloadVerifier != null) {
+            payloadVerifier.onReceived(data, length);
+        }
+        if (sensorParser != null) {
+            sensorParser.onReceived(data, length);
+        }
+    }
+
+    private void onSample(long timestampNanos, double[] values) {
+        if (sampleStore != null) {
+            sampleStore.append(timestampNanos, values);
+        }
+        if (persistSink != null) {
+            persistSink.offer(timestampNanos, values);
+        }
     }
 
     @Override
     public void onRunError(Exception e) {
+        pipelineMetrics.readError();
         mainLooper.post(() -> {
+            if (!connected) {
+                return;
+            }
             status("connection lost: " + e.getMessage());
+            int kind = classify(e);
             disconnect();
+            recover(kind);
         });
     }
 
+    private int classify(Exception e) {
+        if (e instanceof SecurityException) {
+            return RecoverySupervisor.PERMISSION;
+        }
+        if (!useFakePort && (usbSerialPort == null
+                || !usbManager.getDeviceList().containsKey(usbSerialPort.getDevice().getDeviceName()))) {
+            return RecoverySupervisor.DETACHED;
+        }
+        return RecoverySupervisor.TRANSIENT;
+    }
+
+    /**
+     * retry initialize() after the supervisor's backoff, a detached device is retried on attach
+     */
+    private void recover(int kind) {
+        if (runsBenchmark() || autoTune) {
+            return;
+        }
+        mainLooper.removeCallbacks(recoveryAttempt);
+        long delay = recovery.failed(kind, System.nanoTime());
+        if (delay == RecoverySupervisor.WAIT_FOR_DEVICE) {
+            status("link down (" + RecoverySupervisor.kindName(kind) + "), waiting for the device");
+            return;
+        }
+        status("link down (" + RecoverySupervisor.kindName(kind) + "), reopening in " + delay + " ms");
+        mainLooper.postDelayed(recoveryAttempt, delay);
+    }
+
     private void startWriting() {
-        writeHandler.postDelayed(new Runnable() {
+        final int session = ++writeSession;
+        writeScheduler.postDelayed(new Runnable() {
+            private long due = System.nanoTime() + WRITE_INTERVAL * 1_000_000L;
+
             @Override
             public void run() {
-                // Generate random JSON data
-                JSONObject jsonData = generateRandomJsonData();
-
-                // Write the JSON data to the serial port
+                if (session != writeSession) {
+                    // disconnected, or a newer loop took over after recovery
+                    return;
+                }
+                tracer.begin(spanWriteLoop);
+                // how late the scheduler ran us, compare across EXTRA_SCHEDULER kinds
+                writeLateness.record(System.nanoTime() - due);
+                SendQueue.Producer link = writeLink;
                 try {
-                    if (usbSerialPort != null) {
-                        synchronized (usbSerialPort) {
-                            String someString = jsonData.toString().concat("\\n");
-                            usbSerialPort.write(someString.getBytes(), WRITE_WAIT_MILLIS);
+                    if (link != null) {
+                        SendQueue.Producer probeLink = probeWriteLink;
+                        if (latencyProbe != null && probeLink != null) {
+                            writeProbe(probeLink);
+                        }
+                        if (latencyProbe == null || latencyProbe.isUnderLoad()) {
+                            // Generate writeBatchSize JSON frames and write them to the serial port at once
+                            if (batchBuffer.length < writeBatchSize * MAX_ENCODED_FRAME) {
+                                batchBuffer = new byte[writeBatchSize * MAX_ENCODED_FRAME];
+                            }
+                            int length = 0;
+                            long now = System.nanoTime();
+                            stageProfiler.start(STAGE_ENCODE);
+                            for (int i = 0; i < writeBatchSize; i++) {
+                                if (frameLedger != null) {
+                                    frameLedger.sent(FrameLedger.key(PAYLOAD_STREAM_ID, payloadGenerator.nextSequence()), now);
+                                }
+                                if (cobsFraming) {
+                                    int frame = payloadGenerator.encodeNext(batchBuffer, length + CobsCodec.HEADROOM);
+                                    length += CobsCodec.encode(batchBuffer, length, frame);
+                                } else {
+                                    length += payloadGenerator.encodeNext(batchBuffer, length);
+                                }
+                            }
+                            stageProfiler.end(STAGE_ENCODE);
+                            stageProfiler.start(STAGE_WRITE);
+                            link.write(batchBuffer, length, WRITE_WAIT_MILLIS);
+                            startup.mark(STARTUP_FIRST_WRITE);
+                            stageProfiler.end(STAGE_WRITE);
+                            pipelineMetrics.wrote(length, writeBatchSize);
+                        }
+                        // an earlier batch the send queue failed to write to the port
+                        IOException failed = link.takeFailure();
+                        if (failed != null) {
+                            throw failed;
                         }
                     }
                 } catch (IOException e) {
                     e.printStackTrace();
+                    pipelineMetrics.writeError();
                     status("noWrite");
                 }
 
+                tracer.end();
+
                 // Schedule the next write action
-                writeHandler.postDelayed(this, WRITE_INTERVAL);
+                due = System.nanoTime() + WRITE_INTERVAL * 1_000_000L;
+                writeScheduler.postDelayed(this, WRITE_INTERVAL);
             }
         }, WRITE_INTERVAL);
     }
 
-    private JSONObject generateRandomJsonData() {
-        Random random = new Random();
-        JSONObject jsonData = new JSONObject();
-        try {
-            jsonData.put("sensor", "temperature");
-            for (int i = 0; i < 20; i++) {
-                jsonData.put("value" + i, random.nextDouble() * 100);
+    /**
+     * send a probe every PROBE_INTERVAL_NANOS, alternating idle and bulk load phases
+     */
+    private void writeProbe(SerialLink link) throws IOException {
+        long now = System.nanoTime();
+        if (probePhaseStart == 0) {
+            probePhaseStart = now;
+        }
+        if (now - probePhaseStart >= PROBE_PHASE_NANOS) {
+            status(latencyProbe.report());
+            latencyProbe.setUnderLoad(!latencyProbe.isUnderLoad());
+            probePhaseStart = now;
+        }
+        if (now - lastProbeSent >= PROBE_INTERVAL_NANOS) {
+            lastProbeSent = now;
+            int len = latencyProbe.nextFrame(probeBuffer, cobsFraming ? CobsCodec.HEADROOM : 0);
+            if (cobsFraming) {
+                len = CobsCodec.encode(probeBuffer, 0, len);
             }
-        } catch (JSONException e) {
-            e.printStackTrace();
+            link.write(probeBuffer, len, WRITE_WAIT_MILLIS);
+            pipelineMetrics.wrote(len, 0);
+        }
+    }
+
+    private SweepDefinition loadSweep(String path) {
+        if (path == null) {
+            return new SweepDefinition();
+        }
+        try (Reader reader = new FileReader(path)) {
+            return SweepDefinition.parse(reader);
+        } catch (IOException | NumberFormatException e) {
+            status("sweep " + path + " unreadable, using defaults: " + e.getMessage());
+            return new SweepDefinition();
+        }
+    }
+
+    private boolean runsBenchmark() {
+        return sweep != null || autoTune;
+    }
+
+    private void applyTuningProfile(String key) {
+        TuningProfile profile = tuningStore.load(key);
+        if (profile != null) {
+            baudRate = profile.baudRate;
+            readBufferSize = profile.readBufferSize;
+            writeBatchSize = profile.batchSize;
+            status("using tuned profile for " + key + ": " + profile);
+        }
+    }
+
+    /**
+     * search the fastest loss-free settings on the write thread and store them for the next connect
+     */
+    private void startAutoTune() {
+        final String key = TuningStore.key(useFakePort ? null : usbSerialPort.getDevice());
+        final BenchmarkRunner.LinkFactory linkFactory = benchmarkLinkFactory();
+        status("auto-tune " + key + ": loopback required");
+        writeScheduler.post(() -> {
+            AutoTuner tuner = new AutoTuner(new BenchmarkRunner(linkFactory, Process::setThreadPriority,
+                    readStrategyFactory));
+            try {
+                TuningProfile profile = tuner.tune((result, lossFree) ->
+                        status("auto-tune " + (lossFree ? "" : "LOSSY ") + result));
+                if (profile == null) {
+                    status("auto-tune " + key + ": no loss-free setting found");
+                } else {
+                    tuningStore.save(key, profile);
+                    status("auto-tune " + key + ": " + profile);
+                }
+            } catch (InterruptedException e) {
+                status("auto-tune interrupted");
+            }
+        });
+    }
+
+    /**
+     * run every sweep combination on the write thread, then write csv + json next to the app files
+     */
+    private void startBenchmark() {
+        final BenchmarkRunner.LinkFactory linkFactory = benchmarkLinkFactory();
+        final List<BenchmarkConfig> configs = sweep.combinations();
+        status("benchmark: " + configs.size() + " configurations");
+        writeScheduler.post(() -> {
+            BenchmarkRunner runner = new BenchmarkRunner(linkFactory, Process::setThreadPriority, readStrategyFactory)
+                    .setTransportFactory(UsbRequestBulkOutTransport.FACTORY);
+            try {
+                List<BenchmarkResult> results = runner.runAll(configs, result -> status("benchmark " + result));
+                writeBenchmarkReport(results);
+            } catch (InterruptedException e) {
+                status("benchmark interrupted");
+            }
+        });
+    }
+
+    /**
+     * the opened USB port reconfigured per run, or a fresh paced in-memory link
+     */
+    private BenchmarkRunner.LinkFactory benchmarkLinkFactory() {
+        final SerialLink usbLink = serialLink;
+        return new BenchmarkRunner.LinkFactory() {
+            @Override
+            public SerialLink open(BenchmarkConfig config) throws IOException {
+                if (usbLink == null) {
+                    return new InMemorySerialLink(config.baudRate);
+                }
+                usbSerialPort.setParameters(config.baudRate, 8, UsbSerialPort.STOPBITS_1, UsbSerialPort.PARITY_NONE);
+                return usbLink;
+            }
+
+            @Override
+            public void release(SerialLink link) throws IOException {
+                if (link != usbLink) {
+                    link.close();
+                }
+            }
+        };
+    }
+
+    private void writeBenchmarkReport(List<BenchmarkResult> results) {
+        File dir = getExternalFilesDir(null);
+        String name = "benchmark-" + System.currentTimeMillis();
+        try (Writer csv = new FileWriter(new File(dir, name + ".csv"));
+             Writer json = new FileWriter(new File(dir, name + ".json"))) {
+            BenchmarkReport.writeCsv(results, csv);
+            BenchmarkReport.writeJson(results, json);
+            status("benchmark report written to " + new File(dir, name) + ".csv/.json");
+        } catch (IOException e) {
+            status("benchmark report failed: " + e.getMessage());
         }
-        return jsonData;
     }
 
 
     private void disconnect() {
         status("disconnecting");
         connected = false;
-        if (usbIoManager != null) {
-            usbIoManager.setListener(null);
-            usbIoManager.stop();
+        if (readStrategy != null) {
+            readStrategy.stop();
+        }
+        readStrategy = null;
+        if (sendQueue != null) {
+            status(sendQueue.stats());
+            sendQueue.close();
+        }
+        sendQueue = null;
+        probeWriteLink = null;
+        if (asyncWriter != null) {
+            status(asyncWriter.stats());
+            asyncWriter.close();
         }
-        usbIoManager = null;
+        asyncWriter = null;
+        writeLink = null;
+        writeSession++;
         try {
-            usbSerialPort.close();
+            if (serialLink != null) {
+                serialLink.close();
+            } else if (usbSerialPort != null) {
+                usbSerialPort.close();
+            }
         } catch (IOException ignored) {
         }
+        serialLink = null;
         usbSerialPort = null;
+        if (latencyProbe != null) {
+            status(latencyProbe.report());
+        }
+        status("write scheduling lateness " + writeLateness.summary());
+        if (payloadVerifier != null) {
+            status(payloadVerifier.report());
+            status(frameLedger.report());
+        }
+        if (cobsDecoder != null) {
+            status("cobs frames " + cobsDecoder.frames() + ", errors " + cobsDecoder.errors());
+        }
+        if (flowControl != null) {
+            status(flowControl.report());
+        }
+        if (sampleStore != null) {
+            status(sampleStore.report());
+            SampleStore.Rollup rollup = sampleStore.rollup(System.nanoTime() - STORE_REPORT_NANOS, Long.MAX_VALUE,
+                    0, new SampleStore.Rollup());
+            status("value0 over the last 10 s: " + rollup);
+        }
+        if (persistSink != null) {
+            status(persistSink.report());
+        }
     }
 
     void status(String str) {
         Log.d(TAG + "_STATUS", str);
     }
+
+    /*
+     * for the throughput regression tests
+     */
+    PipelineMetrics getPipelineMetrics() {
+        return pipelineMetrics;
+    }
+
+    PayloadVerifier getPayloadVerifier() {
+        return payloadVerifier;
+    }
+
+    FrameLedger getFrameLedger() {
+        return frameLedger;
+    }
 }
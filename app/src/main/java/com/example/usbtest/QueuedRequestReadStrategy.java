@@ -0,0 +1,128 @@
+package com.example.usbtest;
+
+import android.hardware.usb.UsbEndpoint;
+import android.hardware.usb.UsbRequest;
+
+import com.example.usbtest.pipeline.ReadStrategy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Keeps several bulk IN UsbRequests queued, so the endpoint always has a transfer to fill
+ * while the previous chunk is being delivered. Each request owns a direct buffer that is
+ * re-queued right after its data was handed to the sink. Completions arrive on the
+ * connection's {@link UsbRequestDispatcher} thread, which also serves queued writes.
+ *
+ * Bypasses the driver's read(), so it is only valid for adapters whose bulk IN data is the
+ * raw serial stream (CDC-ACM, CH34x, CP210x). FTDI prepends status bytes to every packet.
+ */
+class QueuedRequestReadStrategy implements ReadStrategy, UsbRequestDispatcher.Callback {
+
+    static final String NAME = "queued";
+    static final int DEFAULT_DEPTH = 4;
+
+    private final UsbRequestDispatcher dispatcher;
+    private final UsbEndpoint endpoint;
+    private final int depth;
+    private final int requestSize;
+    private final UsbRequest[] requests;
+    private final ByteBuffer[] buffers;
+    private final byte[] chunk;
+    private volatile Sink sink;
+    private volatile boolean running;
+
+    QueuedRequestReadStrategy(UsbRequestDispatcher dispatcher, UsbEndpoint endpoint, int depth, int bufferSize) {
+        this.dispatcher = dispatcher;
+        this.endpoint = endpoint;
+        this.depth = depth;
+        int packet = endpoint.getMaxPacketSize();
+        // 0 is "driver default" for the other strategies, here the largest transfer queue() takes
+        int size = bufferSize > 0 ? Math.min(bufferSize, UsbRequestBulkOutTransport.MAX_TRANSFER_SIZE)
+                : UsbRequestBulkOutTransport.MAX_TRANSFER_SIZE;
+        // whole packets only, a short last packet would otherwise end the transfer early
+        this.requestSize = Math.max(packet, size / packet * packet);
+        this.requests = new UsbRequest[depth];
+        this.buffers = new ByteBuffer[depth];
+        this.chunk = new byte[requestSize];
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public synchronized void start(Sink sink) throws IOException {
+        this.sink = sink;
+        running = true;
+        for (int i = 0; i < depth; i++) {
+            requests[i] = dispatcher.newRequest(endpoint, this);
+            buffers[i] = ByteBuffer.allocateDirect(requestSize);
+            if (requests[i] == null || !queue(i)) {
+                stop();
+                throw new IOException("UsbRequest initialize/queue failed");
+            }
+        }
+        dispatcher.start();
+    }
+
+    @Override
+    public synchronized void stop() {
+        running = false;
+        sink = null;
+        dispatcher.unregister(this);
+        for (int i = 0; i < depth; i++) {
+            if (requests[i] != null) {
+                requests[i].cancel();
+                requests[i].close();
+            }
+            requests[i] = null;
+        }
+    }
+
+    @Override
+    public void onComplete(UsbRequest request) {
+        if (!running) {
+            return;
+        }
+        int index = indexOf(request);
+        if (index < 0) {
+            return;
+        }
+        ByteBuffer buffer = buffers[index];
+        int len = buffer.position();
+        Sink s = sink;
+        if (len > 0 && s != null) {
+            buffer.flip();
+            buffer.get(chunk, 0, len);
+            s.onData(chunk, len);
+        }
+        if (running && !queue(index) && s != null) {
+            s.onRunError(new IOException("UsbRequest.queue failed"));
+        }
+    }
+
+    @Override
+    public void onDispatchError() {
+        Sink s = sink;
+        if (running && s != null) {
+            s.onRunError(new IOException("requestWait failed, device detached?"));
+        }
+    }
+
+    private int indexOf(UsbRequest request) {
+        for (int i = 0; i < depth; i++) {
+            if (requests[i] == request) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @SuppressWarnings("deprecation")
+    private boolean queue(int index) {
+        buffers[index].clear();
+        return requests[index].queue(buffers[index], requestSize);
+    }
+}
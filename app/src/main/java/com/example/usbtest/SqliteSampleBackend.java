@@ -0,0 +1,105 @@
+package com.example.usbtest;
+
+import android.content.Context;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.usbtest.pipeline.PersistenceSink;
+
+import java.io.IOException;
+
+/**
+ * stores samples in the samples table of samples.db, WAL mode, one prepared insert
+ */
+class SqliteSampleBackend implements PersistenceSink.Backend {
+
+    static final String DATABASE = "samples.db";
+
+    private final Context context;
+    private final int fields;
+    // receive timestamps are System.nanoTime(), rows get wall clock time so they outlive the process
+    private final long epochOffsetNanos = System.currentTimeMillis() * 1_000_000L - System.nanoTime();
+    private SQLiteDatabase database;
+    private SQLiteStatement insert;
+
+    SqliteSampleBackend(Context context, int fields) {
+        this.context = context.getApplicationContext();
+        this.fields = fields;
+    }
+
+    /**
+     * opened on the sink thread with the first transaction, not during startup
+     */
+    private void open() {
+        database = context.openOrCreateDatabase(DATABASE, Context.MODE_PRIVATE, null);
+        // readers don't block the writer, and a commit appends to the log instead of rewriting pages
+        database.enableWriteAheadLogging();
+        // in WAL mode only an OS crash can lose the last commits, an app crash cannot
+        database.execSQL("PRAGMA synchronous = NORMAL");
+        StringBuilder columns = new StringBuilder("time_us INTEGER NOT NULL");
+        StringBuilder parameters = new StringBuilder("?");
+        for (int i = 0; i < fields; i++) {
+            columns.append(", value").append(i).append(" REAL");
+            parameters.append(", ?");
+        }
+        database.execSQL("CREATE TABLE IF NOT EXISTS samples (" + columns + ")");
+        insert = database.compileStatement("INSERT INTO samples VALUES (" + parameters + ")");
+    }
+
+    @Override
+    public void begin() throws IOException {
+        try {
+            if (database == null) {
+                open();
+            }
+            database.beginTransactionNonExclusive();
+        } catch (SQLException e) {
+            throw new IOException("begin failed", e);
+        }
+    }
+
+    @Override
+    public void insert(long timestampNanos, double[] values) throws IOException {
+        try {
+            insert.bindLong(1, (timestampNanos + epochOffsetNanos) / 1000);
+            for (int i = 0; i < fields; i++) {
+                if (Double.isNaN(values[i])) {
+                    insert.bindNull(i + 2);
+                } else {
+                    insert.bindDouble(i + 2, values[i]);
+                }
+            }
+            insert.executeInsert();
+        } catch (SQLException e) {
+            throw new IOException("insert failed", e);
+        }
+    }
+
+    @Override
+    public void commit() throws IOException {
+        try {
+            database.setTransactionSuccessful();
+            database.endTransaction();
+        } catch (SQLException e) {
+            throw new IOException("commit failed", e);
+        }
+    }
+
+    @Override
+    public void abort() {
+        if (database != null && database.inTransaction()) {
+            database.endTransaction();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (insert != null) {
+            insert.close();
+        }
+        if (database != null) {
+            database.close();
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.example.usbtest;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.os.SystemClock;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * Live bytes/sec in and out and latency, drawn from primitive ring buffers.
+ *
+ * Samples are added on the UI thread. onDraw reuses one Path and one Paint and formats its
+ * labels into a char buffer, so drawing allocates nothing, and redraws are capped to
+ * MIN_REDRAW_MILLIS however often samples arrive.
+ */
+public class ThroughputGraphView extends View {
+
+    static final int CAPACITY = 240;
+    private static final long MIN_REDRAW_MILLIS = 100;
+
+    private final float[] bytesIn = new float[CAPACITY];
+    private final float[] bytesOut = new float[CAPACITY];
+    private final float[] latencyMicros = new float[CAPACITY];
+    private int head; // next slot to write
+    private int size;
+
+    private final Path path = new Path();
+    private final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final char[] label = new char[64];
+    private final int inColor;
+    private final int outColor;
+    private final int latencyColor;
+    private long lastRedraw;
+    private boolean redrawPending;
+
+    private final Runnable redraw = new Runnable() {
+        @Override
+        public void run() {
+            redrawPending = false;
+            lastRedraw = SystemClock.uptimeMillis();
+            invalidate();
+        }
+    };
+
+    public ThroughputGraphView(Context context) {
+        this(context, null);
+    }
+
+    public ThroughputGraphView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        inColor = context.getResources().getColor(R.color.colorRecieveText);
+        outColor = context.getResources().getColor(R.color.colorSendText);
+        latencyColor = context.getResources().getColor(R.color.colorStatusText);
+        paint.setStrokeWidth(2 * context.getResources().getDisplayMetrics().density);
+        paint.setTextSize(12 * context.getResources().getDisplayMetrics().scaledDensity);
+    }
+
+    /**
+     * append one sample, UI thread only
+     */
+    public void addSample(float inBytesPerSecond, float outBytesPerSecond, float latencyMicroseconds) {
+        bytesIn[head] = inBytesPerSecond;
+        bytesOut[head] = outBytesPerSecond;
+        latencyMicros[head] = latencyMicroseconds;
+        head = (head + 1) % CAPACITY;
+        if (size < CAPACITY) {
+            size++;
+        }
+        if (redrawPending) {
+            return;
+        }
+        long wait = lastRedraw + MIN_REDRAW_MILLIS - SystemClock.uptimeMillis();
+        redrawPending = true;
+        if (wait <= 0) {
+            post(redraw);
+        } else {
+            postDelayed(redraw, wait);
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        removeCallbacks(redraw);
+        redrawPending = false;
+        super.onDetachedFromWindow();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (size < 2) {
+            return;
+        }
+        float rateMax = Math.max(max(bytesIn), max(bytesOut));
+        float latencyMax = max(latencyMicros);
+        float top = paint.getTextSize() * 1.5f;
+
+        paint.setStyle(Paint.Style.STROKE);
+        drawSeries(canvas, bytesIn, rateMax, top, inColor);
+        drawSeries(canvas, bytesOut, rateMax, top, outColor);
+        drawSeries(canvas, latencyMicros, latencyMax, top, latencyColor);
+
+        paint.setStyle(Paint.Style.FILL);
+        int newest = (head + CAPACITY - 1) % CAPACITY;
+        float x = 0;
+        x = drawLabel(canvas, x, top, inColor, "in ", bytesIn[newest] / 1024, " KB/s  ");
+        x = drawLabel(canvas, x, top, outColor, "out ", bytesOut[newest] / 1024, " KB/s  ");
+        drawLabel(canvas, x, top, latencyColor, "latency ", latencyMicros[newest], " us");
+    }
+
+    private void drawSeries(Canvas canvas, float[] values, float max, float top, int color) {
+        if (max <= 0) {
+            return;
+        }
+        float step = getWidth() / (float) (CAPACITY - 1);
+        float height = getHeight() - top;
+        path.rewind();
+        int start = (head + CAPACITY - size) % CAPACITY;
+        for (int i = 0; i < size; i++) {
+            float x = (CAPACITY - size + i) * step;
+            float y = getHeight() - values[(start + i) % CAPACITY] / max * height;
+            if (i == 0) {
+                path.moveTo(x, y);
+            } else {
+                path.lineTo(x, y);
+            }
+        }
+        paint.setColor(color);
+        canvas.drawPath(path, paint);
+    }
+
+    private float max(float[] values) {
+        float max = 0;
+        for (int i = 0; i < CAPACITY; i++) {
+            max = Math.max(max, values[i]);
+        }
+        return max;
+    }
+
+    /**
+     * draw prefix, value rounded to a whole number and suffix without creating Strings
+     */
+    private float drawLabel(Canvas canvas, float x, float y, int color, String prefix, float value, String suffix) {
+        int length = 0;
+        for (int i = 0; i < prefix.length(); i++) {
+            label[length++] = prefix.charAt(i);
+        }
+        long number = Math.round(value);
+        int digitsStart = length;
+        do {
+            label[length++] = (char) ('0' + number % 10);
+            number /= 10;
+        } while (number > 0 && length < label.length - suffix.length());
+        for (int i = digitsStart, j = length - 1; i < j; i++, j--) {
+            char c = label[i];
+            label[i] = label[j];
+            label[j] = c;
+        }
+        for (int i = 0; i < suffix.length(); i++) {
+            label[length++] = suffix.charAt(i);
+        }
+        paint.setColor(color);
+        canvas.drawText(label, 0, length, x, y, paint);
+        return x + paint.measureText(label, 0, length);
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.usbtest;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.hardware.usb.UsbDevice;
+
+import com.example.usbtest.pipeline.TuningProfile;
+
+/**
+ * persists auto-tuned profiles per adapter, keyed by VID/PID
+ */
+class TuningStore {
+
+    private static final String PREFERENCES = "tuning";
+    static final String FAKE_PORT_KEY = "in-memory";
+
+    private final SharedPreferences preferences;
+
+    TuningStore(Context context) {
+        preferences = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+    }
+
+    static String key(UsbDevice device) {
+        return device == null ? FAKE_PORT_KEY : TuningProfile.key(device.getVendorId(), device.getProductId());
+    }
+
+    TuningProfile load(String key) {
+        return TuningProfile.parse(preferences.getString(key, null));
+    }
+
+    void save(String key, TuningProfile profile) {
+        preferences.edit().putString(key, profile.serialize()).apply();
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.usbtest;
+
+import com.example.usbtest.pipeline.ReadStrategy;
+import com.hoho.android.usbserial.driver.FtdiSerialDriver;
+import com.hoho.android.usbserial.driver.UsbSerialPort;
+
+/**
+ * read strategies available on a USB port, in addition to the pure JVM ones
+ */
+final class UsbReadStrategies {
+
+    private UsbReadStrategies() {
+    }
+
+    static ReadStrategy.Factory factory(int readTimeoutMillis) {
+        return (name, link, bufferSize) -> {
+            if (link instanceof UsbSerialLink) {
+                UsbSerialLink usbLink = (UsbSerialLink) link;
+                UsbSerialPort port = usbLink.getPort();
+                if (IoManagerReadStrategy.NAME.equals(name)) {
+                    return new IoManagerReadStrategy(port, bufferSize, readTimeoutMillis);
+                }
+                if (QueuedRequestReadStrategy.NAME.equals(name) && !(port.getDriver() instanceof FtdiSerialDriver)) {
+                    return new QueuedRequestReadStrategy(usbLink.getDispatcher(), port.getReadEndpoint(),
+                            QueuedRequestReadStrategy.DEFAULT_DEPTH, bufferSize);
+                }
+            }
+            return ReadStrategy.DEFAULT_FACTORY.create(name, link, bufferSize);
+        };
+    }
+}
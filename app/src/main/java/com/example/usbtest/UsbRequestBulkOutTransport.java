@@ -0,0 +1,115 @@
+package com.example.usbtest;
+
+import android.hardware.usb.UsbEndpoint;
+import android.hardware.usb.UsbRequest;
+
+import com.example.usbtest.pipeline.BulkOutTransport;
+import com.example.usbtest.pipeline.InMemoryBulkOutTransport;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link BulkOutTransport} on queued UsbRequests, one request per slot, completions come
+ * from the connection's {@link UsbRequestDispatcher}.
+ */
+class UsbRequestBulkOutTransport implements BulkOutTransport, UsbRequestDispatcher.Callback {
+
+    private static final int MAX_SLOTS = 64;
+    static final int MAX_TRANSFER_SIZE = 16384; // queue(ByteBuffer, int) limit before API 28
+    private static final int FAILED = -2;
+
+    private final UsbRequestDispatcher dispatcher;
+    private final UsbEndpoint endpoint;
+    private final UsbRequest[] requests = new UsbRequest[MAX_SLOTS];
+    private final BlockingQueue<Integer> completed = new ArrayBlockingQueue<>(MAX_SLOTS + 1);
+    private volatile boolean closed;
+
+    /**
+     * queued UsbRequests on a USB link, the in-memory emulation otherwise
+     */
+    static final Factory FACTORY = link -> {
+        if (!(link instanceof UsbSerialLink)) {
+            return InMemoryBulkOutTransport.FACTORY.create(link);
+        }
+        UsbSerialLink usbLink = (UsbSerialLink) link;
+        return new UsbRequestBulkOutTransport(usbLink.getDispatcher(), usbLink.getPort().getWriteEndpoint());
+    };
+
+    UsbRequestBulkOutTransport(UsbRequestDispatcher dispatcher, UsbEndpoint endpoint) {
+        this.dispatcher = dispatcher;
+        this.endpoint = endpoint;
+        dispatcher.start();
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public void submit(int slot, ByteBuffer buffer) throws IOException {
+        if (closed) {
+            throw new IOException("transport closed");
+        }
+        if (buffer.position() != 0 || buffer.remaining() > MAX_TRANSFER_SIZE) {
+            // the pre-API 26 queue() sends from the start of the buffer
+            throw new IOException("transfer must start at 0 and be at most " + MAX_TRANSFER_SIZE + " bytes");
+        }
+        if (requests[slot] == null) {
+            requests[slot] = dispatcher.newRequest(endpoint, this);
+            if (requests[slot] == null) {
+                throw new IOException("UsbRequest.initialize failed");
+            }
+        }
+        if (!requests[slot].queue(buffer, buffer.remaining())) {
+            throw new IOException("UsbRequest.queue failed");
+        }
+    }
+
+    @Override
+    public int awaitCompletion(int timeoutMillis) throws IOException {
+        Integer slot;
+        try {
+            slot = completed.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted");
+        }
+        if (slot == null) {
+            return -1;
+        }
+        if (slot == FAILED) {
+            throw new IOException("bulk OUT transfer failed, device detached?");
+        }
+        return slot;
+    }
+
+    @Override
+    public void onComplete(UsbRequest request) {
+        for (int i = 0; i < MAX_SLOTS; i++) {
+            if (requests[i] == request) {
+                completed.offer(i);
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void onDispatchError() {
+        completed.offer(FAILED);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        dispatcher.unregister(this);
+        for (int i = 0; i < MAX_SLOTS; i++) {
+            if (requests[i] != null) {
+                requests[i].cancel();
+                requests[i].close();
+                requests[i] = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.usbtest;
+
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+import android.hardware.usb.UsbRequest;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Single requestWait() loop per connection.
+ *
+ * requestWait() returns whichever request on the connection completed first, so with
+ * queued reads and queued writes on the same device only one thread may call it. Requests
+ * carry their {@link Callback} as client data and are routed to it from here.
+ */
+class UsbRequestDispatcher implements Runnable {
+
+    interface Callback {
+        void onComplete(UsbRequest request);
+
+        /**
+         * requestWait failed, typically the device is gone
+         */
+        void onDispatchError();
+    }
+
+    private final UsbDeviceConnection connection;
+    private final List<Callback> callbacks = new CopyOnWriteArrayList<>();
+    private volatile boolean running;
+    private Thread thread;
+
+    UsbRequestDispatcher(UsbDeviceConnection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * initialize a request on the connection, routed to callback once queued
+     */
+    UsbRequest newRequest(UsbEndpoint endpoint, Callback callback) {
+        UsbRequest request = new UsbRequest();
+        if (!request.initialize(connection, endpoint)) {
+            return null;
+        }
+        request.setClientData(callback);
+        if (!callbacks.contains(callback)) {
+            callbacks.add(callback);
+        }
+        return request;
+    }
+
+    void unregister(Callback callback) {
+        callbacks.remove(callback);
+    }
+
+    synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this, "UsbRequestDispatcher");
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * call after cancelling all queued requests, else requestWait() may not return
+     */
+    synchronized void stop() {
+        running = false;
+        thread = null;
+        callbacks.clear();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            UsbRequest request = connection.requestWait();
+            if (!running) {
+                break;
+            }
+            if (request == null) {
+                for (Callback callback : callbacks) {
+                    callback.onDispatchError();
+                }
+                running = false;
+                break;
+            }
+            Object clientData = request.getClientData();
+            if (clientData instanceof Callback) {
+                ((Callback) clientData).onComplete(request);
+            }
+        }
+    }
+}
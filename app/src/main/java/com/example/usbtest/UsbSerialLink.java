@@ -0,0 +1,97 @@
+package com.example.usbtest;
+
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+import android.os.Build;
+
+import com.example.usbtest.pipeline.SerialLink;
+import com.hoho.android.usbserial.driver.UsbSerialPort;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * {@link SerialLink} on top of an opened UsbSerialPort
+ */
+class UsbSerialLink implements SerialLink {
+
+    private final UsbSerialPort port;
+    private final UsbDeviceConnection connection;
+    private UsbRequestDispatcher dispatcher;
+    // written by the SendQueue writer thread only
+    private UsbEndpoint writeEndpoint;
+    private byte[] scratch;
+
+    UsbSerialLink(UsbSerialPort port, UsbDeviceConnection connection) {
+        this.port = port;
+        this.connection = connection;
+    }
+
+    UsbSerialPort getPort() {
+        return port;
+    }
+
+    /**
+     * shared by everything that queues UsbRequests on this connection
+     */
+    synchronized UsbRequestDispatcher getDispatcher() {
+        if (dispatcher == null) {
+            dispatcher = new UsbRequestDispatcher(connection);
+        }
+        return dispatcher;
+    }
+
+    /**
+     * Not synchronized, MainActivity writes from the SendQueue writer thread only.
+     *
+     * port.write() of usb-serial-for-android 3.5 sends a whole array, and callers pass
+     * larger buffers, so bulk OUT transfers go to the port's write endpoint directly, like
+     * the library does, with the length given and without a copy. A port without an
+     * endpoint gets a copy.
+     */
+    @Override
+    public void write(byte[] src, int length, int timeoutMillis) throws IOException {
+        if (writeEndpoint == null) {
+            writeEndpoint = port.getWriteEndpoint();
+        }
+        if (writeEndpoint == null || connection == null) {
+            port.write(length == src.length ? src : Arrays.copyOf(src, length), timeoutMillis);
+            return;
+        }
+        int offset = 0;
+        while (offset < length) {
+            int n = Math.min(length - offset, UsbRequestBulkOutTransport.MAX_TRANSFER_SIZE);
+            int sent;
+            if (offset == 0) {
+                sent = connection.bulkTransfer(writeEndpoint, src, n, timeoutMillis);
+            } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+                sent = connection.bulkTransfer(writeEndpoint, src, offset, n, timeoutMillis);
+            } else {
+                if (scratch == null) {
+                    scratch = new byte[UsbRequestBulkOutTransport.MAX_TRANSFER_SIZE];
+                }
+                System.arraycopy(src, offset, scratch, 0, n);
+                sent = connection.bulkTransfer(writeEndpoint, scratch, n, timeoutMillis);
+            }
+            if (sent <= 0) {
+                throw new IOException("Error writing " + n + " bytes at offset " + offset + " of total " + length);
+            }
+            offset += sent;
+        }
+    }
+
+    @Override
+    public int read(byte[] dest, int timeoutMillis) throws IOException {
+        return port.read(dest, timeoutMillis);
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (dispatcher != null) {
+                dispatcher.stop();
+            }
+        }
+        port.close(); // closing the connection ends a pending requestWait()
+    }
+}
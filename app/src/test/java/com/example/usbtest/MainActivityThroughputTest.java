@@ -0,0 +1,260 @@
+package com.example.usbtest;
+
+import android.content.Context;
+import android.content.Intent;
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbManager;
+import android.os.Looper;
+
+import com.example.usbtest.pipeline.FrameLedger;
+import com.example.usbtest.pipeline.InMemorySerialLink;
+import com.example.usbtest.pipeline.PayloadVerifier;
+import com.example.usbtest.pipeline.PipelineMetrics;
+import com.example.usbtest.pipeline.PipelineScheduler;
+import com.example.usbtest.pipeline.ReadStrategy;
+import com.hoho.android.usbserial.driver.UsbSerialDriver;
+import com.hoho.android.usbserial.driver.UsbSerialPort;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.android.controller.ActivityController;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.shadows.ShadowUsbManager;
+import org.robolectric.util.ReflectionHelpers;
+import org.robolectric.util.ReflectionHelpers.ClassParameter;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Runs MainActivity against an attached "device" whose port is an in-memory echo link.
+ * The real scheduler, send queue and reader threads move the data, so a regression in
+ * any of them shows up here before it reaches the rigs.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28, shadows = MainActivityThroughputTest.ShadowLoopbackUsbManager.class)
+public class MainActivityThroughputTest {
+
+    private static final int VENDOR_ID = 0x1209; // pid.codes, test ids
+    private static final int PRODUCT_ID = 0x0001;
+    private static final long WARMUP_MILLIS = 1000;
+    private static final long RUN_MILLIS = 5000;
+    // the write loop sends one frame per millisecond, the rest is headroom for slow build machines
+    private static final double MIN_FRAMES_PER_SECOND = 200;
+    // ~3.8 kB per frame measured on a JVM for the same write and read path: onData copies
+    // ~0.5 kB, the consumer logs it as ~2.5 kB of hex (HostBenchmarks "hexdump"), the writer
+    // threads below ~0.6 kB, posts and ticks the rest; the bound leaves room for Robolectric
+    private static final long MAX_ALLOCATED_BYTES_PER_FRAME = 6 * 1024;
+    // ~590 B per frame measured: encoding and queueing allocate nothing, but the proxy port has
+    // no write endpoint, so UsbSerialLink copies the frame for port.write() (~430 B) and the
+    // proxy boxes its arguments (~30 B), and each scheduled tick is a new task (~130 B)
+    private static final long MAX_WRITER_BYTES_PER_FRAME = 1024;
+    private static final String[] WRITER_THREADS = {"SerialWriteThread", "SerialPortWriter"};
+
+    private static volatile InMemorySerialLink loopback;
+
+    private ActivityController<MainActivity> controller;
+
+    /**
+     * opens the shared loopback link, whatever device it is created for
+     */
+    public static class LoopbackDriver implements UsbSerialDriver {
+        private final UsbDevice device;
+        private final List<UsbSerialPort> ports;
+
+        public LoopbackDriver(UsbDevice device) {
+            this.device = device;
+            ports = Collections.singletonList(loopbackPort(this));
+        }
+
+        @Override
+        public UsbDevice getDevice() {
+            return device;
+        }
+
+        @Override
+        public List<UsbSerialPort> getPorts() {
+            return ports;
+        }
+    }
+
+    /**
+     * grants every device and hands out connections, the loopback port never touches them
+     */
+    @Implements(UsbManager.class)
+    public static class ShadowLoopbackUsbManager extends ShadowUsbManager {
+        @Implementation
+        protected UsbDeviceConnection openDevice(UsbDevice device) {
+            if (!hasPermission(device)) {
+                return null;
+            }
+            return ReflectionHelpers.callConstructor(UsbDeviceConnection.class,
+                    ClassParameter.from(UsbDevice.class, device));
+        }
+    }
+
+    @BeforeClass
+    public static void registerDriver() {
+        CustomProber.addProduct(VENDOR_ID, PRODUCT_ID, LoopbackDriver.class);
+    }
+
+    @After
+    public void tearDown() {
+        if (controller != null) {
+            controller.pause().stop().destroy();
+        }
+        if (loopback != null) {
+            loopback.close();
+        }
+    }
+
+    @Test
+    public void echoesFramesWithoutLossAtBoundedAllocation() throws Exception {
+        loopback = new InMemorySerialLink();
+        Context context = RuntimeEnvironment.getApplication();
+        UsbDevice device = newDevice();
+        UsbManager usbManager = (UsbManager) context.getSystemService(Context.USB_SERVICE);
+        shadowOf(usbManager).addOrUpdateUsbDevice(device, true);
+
+        Intent intent = new Intent(context, MainActivity.class)
+                .putExtra(MainActivity.EXTRA_VERIFY, true)
+                .putExtra(MainActivity.EXTRA_READ_STRATEGY, ReadStrategy.BLOCKING)
+                // executor threads run on wall clock time, Robolectric's loopers do not
+                .putExtra(MainActivity.EXTRA_SCHEDULER, PipelineScheduler.DEDICATED);
+        controller = Robolectric.buildActivity(MainActivity.class, intent).setup();
+        MainActivity activity = controller.get();
+
+        context.sendBroadcast(new Intent(UsbManager.ACTION_USB_DEVICE_ATTACHED)
+                .putExtra(UsbManager.EXTRA_DEVICE, device));
+        shadowOf(Looper.getMainLooper()).idle();
+
+        PipelineMetrics metrics = activity.getPipelineMetrics();
+        PayloadVerifier verifier = activity.getPayloadVerifier();
+        FrameLedger ledger = activity.getFrameLedger();
+        Thread.sleep(WARMUP_MILLIS);
+        assertTrue("no frames written after warmup", metrics.framesWritten() > 0);
+
+        long startNanos = System.nanoTime();
+        long startFrames = metrics.framesWritten();
+        long startVerified = verifier.verified();
+        long startAllocated = allocatedBytes();
+        long startWriterAllocated = allocatedBytes(WRITER_THREADS);
+        Thread.sleep(RUN_MILLIS);
+        long allocated = allocatedBytes() - startAllocated;
+        long writerAllocated = allocatedBytes(WRITER_THREADS) - startWriterAllocated;
+        long frames = metrics.framesWritten() - startFrames;
+        long verified = verifier.verified() - startVerified;
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+
+        String summary = String.format(Locale.US, "%d frames, %.0f/s, %d verified, %d B/frame, %d B/frame writing, %s, %s",
+                frames, frames / seconds, verified, allocated / Math.max(frames, 1), writerAllocated / Math.max(frames, 1),
+                verifier.report(), ledger.report());
+        assertTrue(summary, frames / seconds >= MIN_FRAMES_PER_SECOND);
+        assertTrue(summary, verified / seconds >= MIN_FRAMES_PER_SECOND);
+        assertEquals(summary, 0, verifier.corrupt());
+        assertEquals(summary, 0, verifier.missing());
+        assertEquals(summary, 0, ledger.timeouts());
+        assertEquals(summary, 0, metrics.writeErrors());
+        assertEquals(summary, 0, metrics.readErrors());
+        assertTrue(summary, allocated / frames <= MAX_ALLOCATED_BYTES_PER_FRAME);
+        assertTrue(summary, writerAllocated / frames <= MAX_WRITER_BYTES_PER_FRAME);
+    }
+
+    /**
+     * a CDC class device as UsbService would report it on API 28
+     */
+    private static UsbDevice newDevice() {
+        return ReflectionHelpers.callConstructor(UsbDevice.class,
+                ClassParameter.from(String.class, "/dev/bus/usb/001/002"),
+                ClassParameter.from(int.class, VENDOR_ID),
+                ClassParameter.from(int.class, PRODUCT_ID),
+                ClassParameter.from(int.class, 2),
+                ClassParameter.from(int.class, 0),
+                ClassParameter.from(int.class, 0),
+                ClassParameter.from(String.class, "usb-test"),
+                ClassParameter.from(String.class, "loopback"),
+                ClassParameter.from(String.class, "1.0"),
+                ClassParameter.from(String.class, "0001"));
+    }
+
+    /**
+     * UsbSerialPort on the loopback link; control lines, parameters and purges do nothing
+     */
+    private static UsbSerialPort loopbackPort(UsbSerialDriver driver) {
+        return (UsbSerialPort) Proxy.newProxyInstance(UsbSerialPort.class.getClassLoader(),
+                new Class<?>[]{UsbSerialPort.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getDriver":
+                            return driver;
+                        case "getDevice":
+                            return driver.getDevice();
+                        case "read":
+                            return loopback.read((byte[]) args[0], (Integer) args[args.length - 1]);
+                        case "write":
+                            byte[] src = (byte[]) args[0];
+                            int length = args.length == 3 ? (Integer) args[1] : src.length;
+                            loopback.write(src, length, (Integer) args[args.length - 1]);
+                            return null;
+                        case "close":
+                            loopback.close();
+                            return null;
+                        case "isOpen":
+                            return true;
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "toString":
+                            return "loopback port";
+                    }
+                    Class<?> type = method.getReturnType();
+                    if (type == boolean.class) {
+                        return false;
+                    }
+                    return type == int.class ? 0 : null;
+                });
+    }
+
+    /**
+     * bytes allocated so far by all live threads, the pipeline threads live through the run
+     */
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            total += Math.max(bytes, 0);
+        }
+        return total;
+    }
+
+    /**
+     * bytes allocated so far by the live threads with one of the names
+     */
+    private static long allocatedBytes(String... names) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        List<String> wanted = Arrays.asList(names);
+        long total = 0;
+        for (ThreadInfo info : threads.getThreadInfo(threads.getAllThreadIds())) {
+            if (info != null && wanted.contains(info.getThreadName())) {
+                total += Math.max(threads.getThreadAllocatedBytes(info.getThreadId()), 0);
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.usbtest.pipeline;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pipelined writes: up to depth bulk OUT transfers stay queued on the transport, so the
+ * link does not idle between writes. write() copies into a free direct buffer, submits it
+ * and returns; a completion thread recycles buffers as transfers finish.
+ *
+ * Reads go straight to the underlying link. close() stops the engine and its transport
+ * only, the link stays open for whoever opened it.
+ */
+public class AsyncWriteEngine implements SerialLink, Runnable {
+
+    private static final int COMPLETION_POLL_MILLIS = 100;
+
+    private final SerialLink link;
+    private final BulkOutTransport transport;
+    private final ByteBuffer[] buffers;
+    private final BlockingQueue<Integer> free;
+    private final Thread completions;
+    private volatile boolean running = true;
+    private volatile IOException failure;
+
+    private final AtomicLong transfers = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong bufferWaits = new AtomicLong();
+
+    public AsyncWriteEngine(SerialLink link, BulkOutTransport transport, int depth, int bufferSize) {
+        this.link = link;
+        this.transport = transport;
+        buffers = new ByteBuffer[depth];
+        free = new ArrayBlockingQueue<>(depth);
+        for (int i = 0; i < depth; i++) {
+            buffers[i] = ByteBuffer.allocateDirect(bufferSize);
+            free.add(i);
+        }
+        completions = new Thread(this, "AsyncWriteCompletions");
+        completions.setDaemon(true);
+        completions.start();
+    }
+
+    @Override
+    public void write(byte[] src, int length, int timeoutMillis) throws IOException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis > 0 ? timeoutMillis : Integer.MAX_VALUE);
+        int offset = 0;
+        while (offset < length) {
+            checkFailure();
+            Integer slot = free.poll();
+            if (slot == null) {
+                bufferWaits.incrementAndGet();
+                try {
+                    slot = free.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted");
+                }
+                if (slot == null)
+                    throw new InterruptedIOException("write timeout, " + buffers.length + " transfers outstanding");
+                checkFailure();
+            }
+            ByteBuffer buffer = buffers[slot];
+            buffer.clear();
+            int n = Math.min(buffer.capacity(), length - offset);
+            buffer.put(src, offset, n);
+            buffer.flip();
+            try {
+                transport.submit(slot, buffer);
+            } catch (IOException | RuntimeException e) {
+                free.offer(slot); // never queued, no completion will return it
+                throw e;
+            }
+            offset += n;
+        }
+    }
+
+    /**
+     * wait until every submitted transfer completed
+     */
+    public void flush(int timeoutMillis) throws IOException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (free.size() < buffers.length) {
+            checkFailure();
+            if (System.nanoTime() - deadline > 0)
+                throw new InterruptedIOException("flush timeout");
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted");
+            }
+        }
+    }
+
+    @Override
+    public int read(byte[] dest, int timeoutMillis) throws IOException {
+        return link.read(dest, timeoutMillis);
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        completions.interrupt();
+        transport.close();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                int slot = transport.awaitCompletion(COMPLETION_POLL_MILLIS);
+                if (slot < 0)
+                    continue;
+                transfers.incrementAndGet();
+                bytes.addAndGet(buffers[slot].limit());
+                free.offer(slot);
+            }
+        } catch (IOException e) {
+            if (running)
+                failure = e;
+        }
+    }
+
+    public int outstanding() {
+        return buffers.length - free.size();
+    }
+
+    public String stats() {
+        return "async writes: transfers=" + transfers.get() + " bytes=" + bytes.get()
+                + " outstanding=" + outstanding() + "/" + buffers.length + " bufferWaits=" + bufferWaits.get();
+    }
+
+    private void checkFailure() throws IOException {
+        IOException e = failure;
+        if (e != null)
+            throw new IOException("async write failed: " + e.getMessage(), e);
+        if (!running)
+            throw new IOException("async writer closed");
+    }
+}
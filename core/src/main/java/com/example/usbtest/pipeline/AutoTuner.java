@@ -0,0 +1,112 @@
+package com.example.usbtest.pipeline;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds the fastest loss-free baud rate, read buffer size and write batch size on a loopback link.
+ *
+ * Coordinate search: baud rates are tried in ascending order until one loses data, then
+ * batch size and read buffer size are tuned one at a time at the best baud rate. A trial
+ * only counts when every byte came back without errors. Trials that would not finish
+ * before the time budget are skipped, so the search converges in well under a minute.
+ */
+public class AutoTuner {
+
+    public static final int[] DEFAULT_BAUD_RATES = {115200, 230400, 460800, 921600, 1000000, 2000000};
+    public static final int[] DEFAULT_BATCH_SIZES = {1, 4, 16};
+    public static final int[] DEFAULT_READ_BUFFER_SIZES = {512, 4096, 16384};
+
+    private static final int PAYLOAD_SIZE = 256;
+    private static final long DRAIN_ALLOWANCE_MILLIS = 2000;
+
+    public interface Progress {
+        void onTrial(BenchmarkResult result, boolean lossFree);
+    }
+
+    private final BenchmarkRunner runner;
+    private int[] baudRates = DEFAULT_BAUD_RATES;
+    private int[] batchSizes = DEFAULT_BATCH_SIZES;
+    private int[] readBufferSizes = DEFAULT_READ_BUFFER_SIZES;
+    private long trialMillis = 1500;
+    private long budgetMillis = 50_000;
+    private int threadPriority;
+
+    public AutoTuner(BenchmarkRunner runner) {
+        this.runner = runner;
+    }
+
+    public AutoTuner setCandidates(int[] baudRates, int[] batchSizes, int[] readBufferSizes) {
+        this.baudRates = baudRates;
+        this.batchSizes = batchSizes;
+        this.readBufferSizes = readBufferSizes;
+        return this;
+    }
+
+    public AutoTuner setTiming(long trialMillis, long budgetMillis) {
+        this.trialMillis = trialMillis;
+        this.budgetMillis = budgetMillis;
+        return this;
+    }
+
+    public AutoTuner setThreadPriority(int threadPriority) {
+        this.threadPriority = threadPriority;
+        return this;
+    }
+
+    /**
+     * @return best profile, null if no candidate was loss-free
+     */
+    public TuningProfile tune(Progress progress) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+        int batch = batchSizes[0];
+        int readBuffer = readBufferSizes[readBufferSizes.length / 2];
+        TuningProfile best = null;
+
+        for (int baud : baudRates) {
+            BenchmarkResult result = trial(baud, batch, readBuffer, deadline, progress);
+            if (result == null || !lossFree(result))
+                break;
+            best = better(best, result);
+        }
+        if (best == null)
+            return null;
+        for (int candidate : batchSizes) {
+            if (candidate == best.batchSize)
+                continue;
+            BenchmarkResult result = trial(best.baudRate, candidate, best.readBufferSize, deadline, progress);
+            if (result != null && lossFree(result))
+                best = better(best, result);
+        }
+        for (int candidate : readBufferSizes) {
+            if (candidate == best.readBufferSize)
+                continue;
+            BenchmarkResult result = trial(best.baudRate, best.batchSize, candidate, deadline, progress);
+            if (result != null && lossFree(result))
+                best = better(best, result);
+        }
+        return best;
+    }
+
+    private BenchmarkResult trial(int baud, int batch, int readBuffer, long deadline, Progress progress)
+            throws InterruptedException {
+        long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        if (remaining < trialMillis + DRAIN_ALLOWANCE_MILLIS)
+            return null;
+        BenchmarkConfig config = new BenchmarkConfig(baud, PAYLOAD_SIZE, batch, readBuffer, threadPriority, trialMillis);
+        BenchmarkResult result = runner.run(config);
+        if (progress != null)
+            progress.onTrial(result, lossFree(result));
+        return result;
+    }
+
+    private static boolean lossFree(BenchmarkResult result) {
+        return result.errors == 0 && result.bytesSent > 0 && result.bytesLost() == 0;
+    }
+
+    private static TuningProfile better(TuningProfile best, BenchmarkResult result) {
+        if (best != null && best.bytesPerSecond >= result.bytesPerSecond())
+            return best;
+        BenchmarkConfig c = result.config;
+        return new TuningProfile(c.baudRate, c.readBufferSize, c.batchSize, result.bytesPerSecond());
+    }
+}
@@ -0,0 +1,165 @@
+package com.example.usbtest.pipeline;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Committed {@link HostBenchmarks} numbers and the comparison of a run against them.
+ *
+ * A benchmark regresses when its ops/s fall more than the tolerance below the baseline, or
+ * its allocation per op rises more than {@link #ALLOCATION_TOLERANCE} above it; allocation
+ * hardly varies between runs, so it keeps the tighter bound and also gets
+ * {@link #ALLOCATION_SLACK_BYTES} of absolute slack so a zero-allocation path stays
+ * comparable. Benchmarks missing from the baseline are reported, not failed.
+ *
+ * The baseline records the machine it was measured on, see {@link #thisMachine()};
+ * throughput is only comparable on that machine, allocation per op anywhere.
+ */
+public class BenchmarkBaseline {
+
+    public static final double DEFAULT_TOLERANCE = 0.3;
+    public static final double ALLOCATION_TOLERANCE = 0.2;
+    public static final double ALLOCATION_SLACK_BYTES = 8;
+
+    private static final Pattern ENTRY = Pattern.compile(
+            "\"([\\w-]+)\"\\s*:\\s*\\{\\s*\"opsPerSecond\"\\s*:\\s*([-0-9.eE+]+)\\s*,"
+                    + "\\s*\"allocatedBytesPerOp\"\\s*:\\s*([-0-9.eE+]+)\\s*}");
+    private static final Pattern MACHINE = Pattern.compile("\"machine\"\\s*:\\s*\"([^\"]*)\"");
+
+    private final Map<String, double[]> entries = new LinkedHashMap<>();
+    private String machine;
+
+    public static final class Comparison {
+        private final StringBuilder report = new StringBuilder(String.format(Locale.US,
+                "%-12s %12s %12s %8s %10s %10s %8s", "benchmark", "base ops/s", "ops/s", "delta",
+                "base B/op", "B/op", "delta"));
+        private int regressions;
+        private int allocationRegressions;
+        private final List<String> slower = new ArrayList<>();
+
+        public int regressions() {
+            return regressions;
+        }
+
+        /**
+         * benchmarks whose allocation per op regressed, slower or not
+         */
+        public int allocationRegressions() {
+            return allocationRegressions;
+        }
+
+        /**
+         * names of the benchmarks whose ops/s regressed
+         */
+        public List<String> slower() {
+            return slower;
+        }
+
+        public String report() {
+            return report.toString();
+        }
+    }
+
+    /**
+     * reads what {@link #write} wrote, entries that do not match are ignored
+     */
+    public static BenchmarkBaseline parse(Reader in) throws IOException {
+        StringBuilder text = new StringBuilder();
+        BufferedReader reader = new BufferedReader(in);
+        for (String line; (line = reader.readLine()) != null; )
+            text.append(line).append('\n');
+        BenchmarkBaseline baseline = new BenchmarkBaseline();
+        Matcher machine = MACHINE.matcher(text);
+        if (machine.find())
+            baseline.machine = machine.group(1);
+        Matcher m = ENTRY.matcher(text);
+        while (m.find())
+            baseline.entries.put(m.group(1), new double[]{Double.parseDouble(m.group(2)), Double.parseDouble(m.group(3))});
+        return baseline;
+    }
+
+    public static void write(List<HostBenchmarks.Result> results, Writer out) throws IOException {
+        out.write("{\n");
+        out.write("  \"machine\": \"" + thisMachine() + "\",\n");
+        for (int i = 0; i < results.size(); i++) {
+            HostBenchmarks.Result r = results.get(i);
+            out.write(String.format(Locale.US, "  \"%s\": {\"opsPerSecond\": %.0f, \"allocatedBytesPerOp\": %.1f}%s\n",
+                    r.name, r.opsPerSecond, r.allocatedBytesPerOp, i < results.size() - 1 ? "," : ""));
+        }
+        out.write("}\n");
+        out.flush();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * the recorded numbers, without bytes per second
+     */
+    public List<HostBenchmarks.Result> results() {
+        List<HostBenchmarks.Result> results = new ArrayList<>();
+        for (Map.Entry<String, double[]> e : entries.entrySet())
+            results.add(new HostBenchmarks.Result(e.getKey(), e.getValue()[0], e.getValue()[1], 0));
+        return results;
+    }
+
+    /**
+     * the machine the baseline was measured on, null if not recorded
+     */
+    public String machine() {
+        return machine;
+    }
+
+    /**
+     * OS, architecture, processor count and JVM of this run, the things that move ops/s most
+     */
+    public static String thisMachine() {
+        return String.format(Locale.US, "%s %s, %d cpus, %s %s", System.getProperty("os.name"),
+                System.getProperty("os.arch"), Runtime.getRuntime().availableProcessors(),
+                System.getProperty("java.vm.name"), System.getProperty("java.version")).replace('"', '\'');
+    }
+
+    /**
+     * @param tolerance allowed relative drop in ops/s, e.g. 0.3
+     */
+    public Comparison compare(List<HostBenchmarks.Result> results, double tolerance) {
+        Comparison comparison = new Comparison();
+        for (HostBenchmarks.Result r : results) {
+            double[] base = entries.get(r.name);
+            if (base == null) {
+                comparison.report.append(String.format(Locale.US, "\n%-12s %12s %12.0f %8s %10s %10.1f %8s  not in baseline",
+                        r.name, "-", r.opsPerSecond, "", "-", r.allocatedBytesPerOp, ""));
+                continue;
+            }
+            boolean slower = r.opsPerSecond < base[0] * (1 - tolerance);
+            boolean allocates = r.allocatedBytesPerOp > base[1] * (1 + ALLOCATION_TOLERANCE) + ALLOCATION_SLACK_BYTES;
+            if (slower || allocates)
+                comparison.regressions++;
+            if (allocates)
+                comparison.allocationRegressions++;
+            if (slower)
+                comparison.slower.add(r.name);
+            comparison.report.append(String.format(Locale.US, "\n%-12s %12.0f %12.0f %8s %10.1f %10.1f %8s  %s",
+                    r.name, base[0], r.opsPerSecond, percent(r.opsPerSecond, base[0]),
+                    base[1], r.allocatedBytesPerOp, percent(r.allocatedBytesPerOp, base[1]),
+                    slower && allocates ? "SLOWER, ALLOCATES MORE" : slower ? "SLOWER" : allocates ? "ALLOCATES MORE" : "ok"));
+        }
+        return comparison;
+    }
+
+    private static String percent(double value, double base) {
+        if (base == 0)
+            return value == 0 ? "+0.0%" : "new";
+        return String.format(Locale.US, "%+.1f%%", (value - base) * 100 / base);
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.usbtest.pipeline;
+
+/**
+ * One point of a {@link SweepDefinition}
+ */
+public class BenchmarkConfig {
+
+    public final int baudRate;
+    public final int payloadSize;
+    public final int batchSize;
+    public final int readBufferSize;
+    public final int threadPriority;
+    public final long durationMillis;
+    public final String readStrategy;
+    public final int asyncDepth;
+
+    public BenchmarkConfig(int baudRate, int payloadSize, int batchSize, int readBufferSize,
+                           int threadPriority, long durationMillis) {
+        this(baudRate, payloadSize, batchSize, readBufferSize, threadPriority, durationMillis, ReadStrategy.BLOCKING);
+    }
+
+    public BenchmarkConfig(int baudRate, int payloadSize, int batchSize, int readBufferSize,
+                           int threadPriority, long durationMillis, String readStrategy) {
+        this(baudRate, payloadSize, batchSize, readBufferSize, threadPriority, durationMillis, readStrategy, 0);
+    }
+
+    /**
+     * @param asyncDepth outstanding bulk OUT transfers, 0 for synchronous writes
+     */
+    public BenchmarkConfig(int baudRate, int payloadSize, int batchSize, int readBufferSize,
+                           int threadPriority, long durationMillis, String readStrategy, int asyncDepth) {
+        this.baudRate = baudRate;
+        this.payloadSize = Math.max(payloadSize, ProbeFrame.LENGTH);
+        this.batchSize = Math.max(batchSize, 1);
+        this.readBufferSize = readBufferSize;
+        this.threadPriority = threadPriority;
+        this.durationMillis = durationMillis;
+        this.readStrategy = readStrategy;
+        this.asyncDepth = asyncDepth;
+    }
+
+    @Override
+    public String toString() {
+        return "baud=" + baudRate + " payload=" + payloadSize + " batch=" + batchSize
+                + " readBuffer=" + readBufferSize + " priority=" + threadPriority + " read=" + readStrategy
+                + " asyncDepth=" + asyncDepth;
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.usbtest.pipeline;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * CSV and JSON output of {@link BenchmarkRunner} results, latencies in microseconds
+ */
+public final class BenchmarkReport {
+
+    private static final String[] COLUMNS = {
+            "baud", "payload", "batch", "readBuffer", "priority", "read", "asyncDepth", "durationMillis",
+            "bytesPerSecond", "framesPerSecond", "p50us", "p99us", "p999us", "maxus", "errors", "bytesLost"
+    };
+
+    private BenchmarkReport() {
+    }
+
+    public static void writeCsv(List<BenchmarkResult> results, Writer out) throws IOException {
+        for (int i = 0; i < COLUMNS.length; i++)
+            out.write((i > 0 ? "," : "") + COLUMNS[i]);
+        out.write("\n");
+        for (BenchmarkResult result : results) {
+            Object[] values = values(result);
+            for (int i = 0; i < values.length; i++)
+                out.write((i > 0 ? "," : "") + format(values[i]));
+            out.write("\n");
+        }
+        out.flush();
+    }
+
+    public static void writeJson(List<BenchmarkResult> results, Writer out) throws IOException {
+        out.write("[\n");
+        for (int r = 0; r < results.size(); r++) {
+            Object[] values = values(results.get(r));
+            out.write("  {");
+            for (int i = 0; i < values.length; i++)
+                out.write((i > 0 ? ", " : "") + "\"" + COLUMNS[i] + "\": " + format(values[i]));
+            out.write(r < results.size() - 1 ? "},\n" : "}\n");
+        }
+        out.write("]\n");
+        out.flush();
+    }
+
+    private static Object[] values(BenchmarkResult result) {
+        BenchmarkConfig c = result.config;
+        LatencyHistogram l = result.latency;
+        return new Object[]{
+                c.baudRate, c.payloadSize, c.batchSize, c.readBufferSize, c.threadPriority, c.readStrategy, c.asyncDepth,
+                c.durationMillis,
+                result.bytesPerSecond(), result.framesPerSecond(),
+                l.percentile(50) / 1e3, l.percentile(99) / 1e3, l.percentile(99.9) / 1e3, l.max() / 1e3,
+                result.errors, result.bytesLost()
+        };
+    }
+
+    private static String format(Object value) {
+        if (value instanceof Double)
+            return String.format(Locale.US, "%.1f", (Double) value);
+        if (value instanceof String)
+            return "\"" + value + "\"";
+        return String.valueOf(value);
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.usbtest.pipeline;
+
+/**
+ * Measured outcome of one {@link BenchmarkConfig}
+ */
+public class BenchmarkResult {
+
+    public final BenchmarkConfig config;
+    public final long bytesSent;
+    public final long bytesReceived;
+    public final long framesReceived;
+    public final long elapsedNanos;
+    public final long errors;
+    public final LatencyHistogram latency;
+
+    public BenchmarkResult(BenchmarkConfig config, long bytesSent, long bytesReceived, long framesReceived,
+                           long elapsedNanos, long errors, LatencyHistogram latency) {
+        this.config = config;
+        this.bytesSent = bytesSent;
+        this.bytesReceived = bytesReceived;
+        this.framesReceived = framesReceived;
+        this.elapsedNanos = elapsedNanos;
+        this.errors = errors;
+        this.latency = latency;
+    }
+
+    public double bytesPerSecond() {
+        return elapsedNanos == 0 ? 0 : bytesReceived * 1e9 / elapsedNanos;
+    }
+
+    public double framesPerSecond() {
+        return elapsedNanos == 0 ? 0 : framesReceived * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * bytes written but never echoed back
+     */
+    public long bytesLost() {
+        return Math.max(0, bytesSent - bytesReceived);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(java.util.Locale.US, "%s: %.1f kB/s %.0f frames/s errors=%d lost=%d %s",
+                config, bytesPerSecond() / 1e3, framesPerSecond(), errors, bytesLost(), latency.summary());
+    }
+}
@@ -0,0 +1,181 @@
+package com.example.usbtest.pipeline;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs each {@link BenchmarkConfig} for its duration against a freshly prepared link.
+ *
+ * Every frame starts with a {@link ProbeFrame} followed by ASCII filler, so the echoed
+ * stream yields one latency sample per frame. Frames are written batchSize at a time
+ * from a buffer built once per config. Reader and writer (the calling thread) both get
+ * the configured thread priority, so call it from a dedicated thread.
+ */
+public class BenchmarkRunner {
+
+    private static final int WRITE_TIMEOUT_MILLIS = 2500;
+    private static final long DRAIN_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    /**
+     * prepares the link for a config, e.g. sets the baud rate on a real port
+     */
+    public interface LinkFactory {
+        SerialLink open(BenchmarkConfig config) throws IOException;
+
+        void release(SerialLink link) throws IOException;
+    }
+
+    /**
+     * applies BenchmarkConfig.threadPriority (Android nice value) to the calling thread
+     */
+    public interface PriorityApplier {
+        void apply(int priority);
+    }
+
+    /**
+     * maps nice -20..19 onto Thread priorities 10..1
+     */
+    public static final PriorityApplier JAVA_PRIORITY = priority -> {
+        int javaPriority = Thread.NORM_PRIORITY - priority * 4 / 19;
+        Thread.currentThread().setPriority(Math.max(Thread.MIN_PRIORITY, Math.min(Thread.MAX_PRIORITY, javaPriority)));
+    };
+
+    public interface Progress {
+        void onResult(BenchmarkResult result);
+    }
+
+    private final LinkFactory linkFactory;
+    private final PriorityApplier priorityApplier;
+    private final ReadStrategy.Factory readStrategyFactory;
+    private BulkOutTransport.Factory transportFactory = InMemoryBulkOutTransport.FACTORY;
+
+    public BenchmarkRunner(LinkFactory linkFactory, PriorityApplier priorityApplier) {
+        this(linkFactory, priorityApplier, ReadStrategy.DEFAULT_FACTORY);
+    }
+
+    public BenchmarkRunner(LinkFactory linkFactory, PriorityApplier priorityApplier,
+                           ReadStrategy.Factory readStrategyFactory) {
+        this.linkFactory = linkFactory;
+        this.priorityApplier = priorityApplier;
+        this.readStrategyFactory = readStrategyFactory;
+    }
+
+    /**
+     * transport for configs with asyncDepth > 0, default emulates one in memory
+     */
+    public BenchmarkRunner setTransportFactory(BulkOutTransport.Factory transportFactory) {
+        this.transportFactory = transportFactory;
+        return this;
+    }
+
+    public List<BenchmarkResult> runAll(List<BenchmarkConfig> configs, Progress progress) throws InterruptedException {
+        List<BenchmarkResult> results = new ArrayList<>();
+        for (BenchmarkConfig config : configs) {
+            BenchmarkResult result = run(config);
+            results.add(result);
+            if (progress != null)
+                progress.onResult(result);
+        }
+        return results;
+    }
+
+    public BenchmarkResult run(BenchmarkConfig config) throws InterruptedException {
+        SerialLink link;
+        try {
+            link = linkFactory.open(config);
+        } catch (IOException e) {
+            return new BenchmarkResult(config, 0, 0, 0, 0, 1, new LatencyHistogram());
+        }
+        priorityApplier.apply(config.threadPriority);
+        Reader reader = new Reader(config.threadPriority);
+        ReadStrategy readStrategy = readStrategyFactory.create(config.readStrategy, link, config.readBufferSize);
+        try {
+            if (readStrategy == null)
+                throw new IOException("read strategy " + config.readStrategy + " not available");
+            readStrategy.start(reader);
+        } catch (IOException e) {
+            release(link);
+            return new BenchmarkResult(config, 0, 0, 0, 0, 1, new LatencyHistogram());
+        }
+
+        AsyncWriteEngine asyncWriter = null;
+        SerialLink writeLink = link;
+        byte[] batch = new byte[config.payloadSize * config.batchSize];
+        if (config.asyncDepth > 0) {
+            try {
+                asyncWriter = new AsyncWriteEngine(link, transportFactory.create(link), config.asyncDepth, batch.length);
+                writeLink = asyncWriter;
+            } catch (IOException e) {
+                readStrategy.stop();
+                release(link);
+                return new BenchmarkResult(config, 0, 0, 0, 0, 1, new LatencyHistogram());
+            }
+        }
+        for (int i = 0; i < batch.length; i++)
+            batch[i] = (byte) ('a' + i % 26);
+        long bytesSent = 0, writeErrors = 0, id = 0;
+        long start = System.nanoTime();
+        long end = start + TimeUnit.MILLISECONDS.toNanos(config.durationMillis);
+        while (System.nanoTime() - end < 0 && reader.running) {
+            long stamp = System.nanoTime();
+            for (int offset = 0; offset < batch.length; offset += config.payloadSize)
+                ProbeFrame.encode(batch, offset, ++id << 1, stamp); // even ids count as idle samples
+            try {
+                writeLink.write(batch, batch.length, WRITE_TIMEOUT_MILLIS);
+                bytesSent += batch.length;
+            } catch (IOException e) {
+                writeErrors++;
+            }
+        }
+
+        long drainEnd = System.nanoTime() + DRAIN_NANOS;
+        while (reader.bytesReceived < bytesSent && System.nanoTime() - drainEnd < 0 && reader.running)
+            Thread.sleep(1);
+        long elapsed = System.nanoTime() - start;
+        readStrategy.stop();
+        if (asyncWriter != null)
+            asyncWriter.close();
+        release(link);
+        LatencyProbe probe = reader.probe;
+        return new BenchmarkResult(config, bytesSent, reader.bytesReceived, probe.idle().count(), elapsed,
+                writeErrors + reader.readErrors + probe.corrupt(), probe.idle());
+    }
+
+    private void release(SerialLink link) {
+        try {
+            linkFactory.release(link);
+        } catch (IOException ignored) {
+        }
+    }
+
+    private class Reader implements ReadStrategy.Sink {
+        final int priority;
+        final LatencyProbe probe = new LatencyProbe();
+        Thread readThread;
+        volatile boolean running = true;
+        volatile long bytesReceived;
+        volatile long readErrors;
+
+        Reader(int priority) {
+            this.priority = priority;
+        }
+
+        @Override
+        public void onData(byte[] data, int length) {
+            if (readThread != Thread.currentThread()) {
+                readThread = Thread.currentThread();
+                priorityApplier.apply(priority);
+            }
+            probe.onReceived(data, length);
+            bytesReceived += length;
+        }
+
+        @Override
+        public void onRunError(Exception e) {
+            readErrors++;
+            running = false;
+        }
+    }
+}
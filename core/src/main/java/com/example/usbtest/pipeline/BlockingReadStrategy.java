@@ -0,0 +1,68 @@
+package com.example.usbtest.pipeline;
+
+import java.io.IOException;
+
+/**
+ * Dedicated thread looping over blocking reads into one reused buffer, no allocation per chunk
+ */
+public class BlockingReadStrategy implements ReadStrategy, Runnable {
+
+    private static final int READ_TIMEOUT_MILLIS = 100;
+    private static final int DEFAULT_BUFFER_SIZE = 4096;
+
+    private final SerialLink link;
+    private final byte[] buffer;
+    private volatile Sink sink;
+    private volatile boolean running;
+    private Thread thread;
+
+    /**
+     * @param bufferSize 0 for the default of 4096
+     */
+    public BlockingReadStrategy(SerialLink link, int bufferSize) {
+        this.link = link;
+        this.buffer = new byte[bufferSize > 0 ? bufferSize : DEFAULT_BUFFER_SIZE];
+    }
+
+    @Override
+    public String name() {
+        return BLOCKING;
+    }
+
+    @Override
+    public synchronized void start(Sink sink) {
+        if (running)
+            throw new IllegalStateException("already started");
+        this.sink = sink;
+        running = true;
+        thread = new Thread(this, "SerialBlockingRead");
+        thread.start();
+    }
+
+    @Override
+    public synchronized void stop() {
+        running = false;
+        sink = null;
+        if (thread != null)
+            thread.interrupt();
+        thread = null;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                int len = link.read(buffer, READ_TIMEOUT_MILLIS);
+                Sink s = sink;
+                if (len > 0 && s != null)
+                    s.onData(buffer, len);
+            }
+        } catch (IOException e) {
+            Sink s = sink;
+            if (running && s != null)
+                s.onRunError(e);
+        } finally {
+            running = false;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.example.usbtest.pipeline;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Asynchronous bulk OUT transfers, as UsbRequest.queue() provides them.
+ *
+ * Transfers complete in submission order. A slot identifies a transfer and its buffer
+ * until {@link #awaitCompletion} returns it.
+ */
+public interface BulkOutTransport {
+
+    interface Factory {
+        BulkOutTransport create(SerialLink link) throws IOException;
+    }
+
+    /**
+     * start sending the buffer's remaining bytes, the buffer must not be touched until completion
+     */
+    void submit(int slot, ByteBuffer buffer) throws IOException;
+
+    /**
+     * @return slot of the next completed transfer, -1 on timeout
+     * @throws IOException if the transfer failed
+     */
+    int awaitCompletion(int timeoutMillis) throws IOException;
+
+    void close();
+}
@@ -0,0 +1,174 @@
+package com.example.usbtest.pipeline;
+
+/**
+ * Consistent Overhead Byte Stuffing. An encoded frame contains no zero byte except the
+ * {@link #DELIMITER} that ends it, so any binary payload can be framed, and a receiver
+ * that lost bytes or saw garbage is back in sync at the next zero. Overhead is one byte
+ * per 254 payload bytes, at least one, plus the delimiter.
+ *
+ * {@link #encode} works in place: the payload sits {@link #HEADROOM} bytes after the frame
+ * start, each zero is overwritten by the length of the block before it, and only a run of
+ * 254 non-zero bytes shifts the rest of the frame by one. {@link Decoder} decodes a byte
+ * stream into one reused frame buffer.
+ */
+public final class CobsCodec {
+
+    public static final int HEADROOM = 1;
+    public static final byte DELIMITER = 0;
+
+    private static final int MAX_CODE = 0xFF; // 254 data bytes and no zero after them
+
+    private CobsCodec() {
+    }
+
+    /**
+     * encoded size of a payload of length bytes, including the delimiter
+     */
+    public static int maxEncodedLength(int length) {
+        return length + length / (MAX_CODE - 1) + 2;
+    }
+
+    /**
+     * Encode the payload at buf[start + HEADROOM, start + HEADROOM + length) in place,
+     * buf needs room for {@link #maxEncodedLength} bytes from start.
+     *
+     * @return frame length from start, delimiter included
+     */
+    public static int encode(byte[] buf, int start, int length) {
+        int code = start; // where the length of the current block goes
+        int end = start + HEADROOM + length;
+        int i = start + HEADROOM;
+        while (i < end) {
+            if (i - code == MAX_CODE) {
+                // 254 bytes without a zero, open a new block here
+                System.arraycopy(buf, i, buf, i + 1, end - i);
+                buf[code] = (byte) MAX_CODE;
+                code = i++;
+                end++;
+            } else if (buf[i] == 0) {
+                buf[code] = (byte) (i - code);
+                code = i++;
+            } else {
+                i++;
+            }
+        }
+        buf[code] = (byte) (i - code);
+        buf[end] = DELIMITER;
+        return end + 1 - start;
+    }
+
+    /**
+     * decode one frame, delimiter excluded, in place; the payload then starts at start
+     *
+     * @return payload length, -1 if the frame is malformed
+     */
+    public static int decode(byte[] buf, int start, int length) {
+        int end = start + length;
+        int in = start;
+        int out = start;
+        while (in < end) {
+            int code = buf[in] & 0xFF;
+            if (code == 0 || in + code > end)
+                return -1;
+            System.arraycopy(buf, in + 1, buf, out, code - 1);
+            out += code - 1;
+            in += code;
+            if (code < MAX_CODE && in < end)
+                buf[out++] = 0;
+        }
+        return out - start;
+    }
+
+    /**
+     * Decodes frames from a byte stream as it arrives, chunks may split frames anywhere.
+     * A frame that is truncated, malformed or longer than the buffer counts as an error
+     * and decoding resumes after the next delimiter. Feed from one thread only.
+     */
+    public static class Decoder {
+
+        public interface Listener {
+            /**
+             * a complete frame, frame is reused once this returns
+             */
+            void onFrame(byte[] frame, int length);
+        }
+
+        private final byte[] frame;
+        private final Listener listener;
+        private int fill;
+        private int remaining; // data bytes left in the current block, 0 = a code byte is next
+        private boolean zeroPending;
+        private boolean started;
+        private boolean discarding;
+        private long frames;
+        private long errors;
+
+        public Decoder(int maxFrameLength, Listener listener) {
+            frame = new byte[maxFrameLength];
+            this.listener = listener;
+        }
+
+        public void onReceived(byte[] data, int length) {
+            for (int i = 0; i < length; i++) {
+                int b = data[i] & 0xFF;
+                if (b == DELIMITER) {
+                    if (started && !discarding) {
+                        if (remaining == 0) {
+                            frames++;
+                            listener.onFrame(frame, fill);
+                        } else {
+                            errors++; // block cut short
+                        }
+                    }
+                    fill = 0;
+                    remaining = 0;
+                    zeroPending = false;
+                    started = false;
+                    discarding = false;
+                } else if (discarding) {
+                    continue;
+                } else if (remaining == 0) {
+                    started = true;
+                    if (zeroPending && !append((byte) 0))
+                        continue;
+                    remaining = b - 1;
+                    zeroPending = b != MAX_CODE;
+                } else {
+                    // the rest of the block in one go, a zero in it ends the frame above
+                    int n = Math.min(remaining, length - i);
+                    if (n > frame.length - fill) {
+                        errors++;
+                        discarding = true;
+                        continue;
+                    }
+                    int k = 0;
+                    while (k < n && data[i + k] != DELIMITER) {
+                        frame[fill + k] = data[i + k];
+                        k++;
+                    }
+                    fill += k;
+                    remaining -= k;
+                    i += k - 1;
+                }
+            }
+        }
+
+        private boolean append(byte b) {
+            if (fill == frame.length) {
+                errors++;
+                discarding = true;
+                return false;
+            }
+            frame[fill++] = b;
+            return true;
+        }
+
+        public long frames() {
+            return frames;
+        }
+
+        public long errors() {
+            return errors;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.usbtest.pipeline;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link PipelineScheduler} on a ScheduledThreadPoolExecutor, either one dedicated thread
+ * (tasks run in order, like a HandlerThread) or a pool (tasks may run concurrently).
+ */
+public class ExecutorScheduler implements PipelineScheduler {
+
+    private final ScheduledThreadPoolExecutor executor;
+
+    public static ExecutorScheduler dedicated(String name, int priority, ThreadTuner tuner) {
+        return new ExecutorScheduler(name, 1, priority, tuner);
+    }
+
+    public static ExecutorScheduler pool(String name, int threads, int priority, ThreadTuner tuner) {
+        return new ExecutorScheduler(name, threads, priority, tuner);
+    }
+
+    private ExecutorScheduler(String name, int threads, int priority, ThreadTuner tuner) {
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = runnable -> {
+            Thread thread = new Thread(() -> {
+                tuner.tune(priority);
+                runnable.run();
+            }, threads == 1 ? name : name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        executor = new ScheduledThreadPoolExecutor(threads, factory);
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        executor.setRemoveOnCancelPolicy(true);
+    }
+
+    @Override
+    public void post(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException ignored) {
+            // shut down, like posting to a quit Looper
+        }
+    }
+
+    @Override
+    public void postDelayed(Runnable task, long delayMillis) {
+        try {
+            executor.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ignored) {
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
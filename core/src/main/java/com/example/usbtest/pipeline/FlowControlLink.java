@@ -0,0 +1,196 @@
+package com.example.usbtest.pipeline;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Holds writes back while the device asks us to pause.
+ *
+ * Software mode watches the received stream for XOFF / XON, fed through
+ * {@link #onReceived} by whoever reads the link, and removes those bytes from it; the
+ * payload must then not contain them itself, which holds for the JSON frames but not for
+ * latency probes or COBS. Hardware mode reads CTS before a write, at most every
+ * {@link #CTS_POLL_NANOS}, since every reading is a USB control transfer.
+ *
+ * The check happens before every piece of at most {@link #setMaxChunk} bytes a write is
+ * split into, so a pause takes effect within one piece; set it to about a frame, and
+ * don't queue writes below this link where they can't be held back. A pause longer than
+ * the write's timeout fails the write, possibly after some of its pieces went out.
+ * Writes must come from one thread, reads pass through unfiltered.
+ */
+public class FlowControlLink implements SerialLink {
+
+    public static final String NONE = "none";
+    public static final String XON_XOFF = "xonxoff";
+    public static final String RTS_CTS = "rtscts";
+    public static final byte XON = 0x11;
+    public static final byte XOFF = 0x13;
+
+    static final long CTS_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long PAUSE_PARK_NANOS = 50_000;
+
+    public interface ClearToSend {
+        boolean get() throws IOException;
+    }
+
+    private final SerialLink link;
+    private final ClearToSend cts;
+    private final String mode;
+    private volatile int maxChunk = Integer.MAX_VALUE;
+    private volatile boolean xoff;
+    private volatile Thread waiting;
+    private byte[] chunkBuffer;
+    private long ctsCheckedAt;
+    private boolean ctsClear = true;
+
+    private final LatencyHistogram pauses = new LatencyHistogram();
+    private volatile long heldBackBytes;
+    private volatile long xoffReceived;
+    private volatile long xonReceived;
+
+    private FlowControlLink(SerialLink link, ClearToSend cts, String mode) {
+        this.link = link;
+        this.cts = cts;
+        this.mode = mode;
+    }
+
+    public static FlowControlLink software(SerialLink link) {
+        return new FlowControlLink(link, null, XON_XOFF);
+    }
+
+    public static FlowControlLink hardware(SerialLink link, ClearToSend cts) {
+        return new FlowControlLink(link, cts, RTS_CTS);
+    }
+
+    /**
+     * largest piece written without checking for a pause, writes are split to fit
+     */
+    public void setMaxChunk(int bytes) {
+        maxChunk = Math.max(1, bytes);
+    }
+
+    /**
+     * Act on XON / XOFF in received bytes and remove them in place, call from the receive
+     * thread. Hardware mode leaves data alone.
+     *
+     * @return length of the remaining data
+     */
+    public int onReceived(byte[] data, int length) {
+        if (cts != null)
+            return length;
+        int out = 0;
+        for (int i = 0; i < length; i++) {
+            byte b = data[i];
+            if (b == XOFF) {
+                xoff = true;
+                xoffReceived++;
+            } else if (b == XON) {
+                xoff = false;
+                xonReceived++;
+                Thread writer = waiting;
+                if (writer != null)
+                    LockSupport.unpark(writer);
+            } else {
+                data[out++] = b;
+            }
+        }
+        return out;
+    }
+
+    @Override
+    public void write(byte[] src, int length, int timeoutMillis) throws IOException {
+        int chunk = maxChunk;
+        if (length <= chunk) {
+            if (!clear(false))
+                awaitClear(length, timeoutMillis);
+            link.write(src, length, timeoutMillis);
+            return;
+        }
+        byte[] piece = chunkBuffer;
+        if (piece == null || piece.length < chunk)
+            piece = chunkBuffer = new byte[chunk];
+        for (int offset = 0; offset < length; offset += chunk) {
+            int n = Math.min(chunk, length - offset);
+            if (!clear(false))
+                awaitClear(length - offset, timeoutMillis);
+            System.arraycopy(src, offset, piece, 0, n);
+            link.write(piece, n, timeoutMillis);
+        }
+    }
+
+    private boolean clear(boolean poll) throws IOException {
+        if (cts == null)
+            return !xoff;
+        long now = System.nanoTime();
+        if (poll || now - ctsCheckedAt >= CTS_POLL_NANOS) {
+            ctsClear = cts.get();
+            ctsCheckedAt = now;
+        }
+        return ctsClear;
+    }
+
+    private void awaitClear(int length, int timeoutMillis) throws IOException {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis > 0 ? timeoutMillis : Integer.MAX_VALUE);
+        heldBackBytes += length;
+        waiting = Thread.currentThread();
+        try {
+            while (true) {
+                LockSupport.parkNanos(this, cts != null ? CTS_POLL_NANOS : PAUSE_PARK_NANOS);
+                if (clear(true))
+                    break;
+                if (Thread.interrupted()) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted");
+                }
+                if (System.nanoTime() - deadline > 0)
+                    throw new InterruptedIOException("write timeout, device paused by " + mode + " for "
+                            + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+            }
+        } finally {
+            waiting = null;
+            pauses.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public int read(byte[] dest, int timeoutMillis) throws IOException {
+        return link.read(dest, timeoutMillis);
+    }
+
+    @Override
+    public void close() throws IOException {
+        link.close();
+    }
+
+    public String mode() {
+        return mode;
+    }
+
+    /**
+     * writes that had to wait, and for how long
+     */
+    public LatencyHistogram pauses() {
+        return pauses;
+    }
+
+    public long pausedNanos() {
+        return pauses.sum();
+    }
+
+    /**
+     * bytes of the writes that had to wait
+     */
+    public long heldBackBytes() {
+        return heldBackBytes;
+    }
+
+    public String report() {
+        return String.format(Locale.US, "flow control %s: %d pauses, %.1f ms paused, %d bytes held back%s, pause %s",
+                mode, pauses.count(), pausedNanos() / 1e6, heldBackBytes,
+                cts == null ? ", xoff=" + xoffReceived + " xon=" + xonReceived : "", pauses.summary());
+    }
+}
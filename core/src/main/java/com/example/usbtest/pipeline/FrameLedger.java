@@ -0,0 +1,219 @@
+package com.example.usbtest.pipeline;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Frames sent but not yet answered, with timeouts and match latency.
+ *
+ * A primitive long-keyed open addressing map (linear probing, backward shift delete, so no
+ * tombstones) points into a node pool. Nodes are also linked into a hashed timer wheel by
+ * deadline, so a match unlinks in O(1) and expiry only visits the slots of elapsed ticks.
+ * Everything is sized at construction; sending, matching and expiring never allocate.
+ *
+ * The writer calls {@link #sent}, the receive path {@link #matched} (directly or as
+ * {@link PayloadVerifier.Listener}); the short critical sections are guarded by this.
+ */
+public class FrameLedger implements PayloadVerifier.Listener {
+
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final int NONE = -1;
+    private static final int SEQUENCE_BITS = 40;
+
+    private final long timeoutNanos;
+    private final long tickNanos;
+
+    // map: key -> node
+    private final long[] keys;
+    private final int[] values;
+    private final int mask;
+
+    // node pool, free nodes are chained through next
+    private final long[] nodeKey;
+    private final long[] nodeSent;
+    private final long[] nodeDeadline;
+    private final int[] prev;
+    private final int[] next;
+    private int freeHead;
+
+    // timer wheel of node lists
+    private final int[] wheel;
+    private long tick = Long.MIN_VALUE;
+
+    private int inFlight;
+    private long matchedCount;
+    private long timeouts;
+    private long unknown;
+    private long overflows;
+    private final LatencyHistogram matchLatency = new LatencyHistogram();
+
+    /**
+     * @param capacity max frames in flight, more are counted as overflow and not tracked
+     */
+    public FrameLedger(int capacity, long timeoutMillis) {
+        this(capacity, timeoutMillis, 512);
+    }
+
+    public FrameLedger(int capacity, long timeoutMillis, int wheelSlots) {
+        timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        tickNanos = Math.max(1, timeoutNanos / (wheelSlots / 2));
+        int tableSize = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) << 1; // load factor <= 0.5
+        keys = new long[tableSize];
+        values = new int[tableSize];
+        mask = tableSize - 1;
+        java.util.Arrays.fill(keys, EMPTY);
+        nodeKey = new long[capacity];
+        nodeSent = new long[capacity];
+        nodeDeadline = new long[capacity];
+        prev = new int[capacity];
+        next = new int[capacity];
+        for (int i = 0; i < capacity; i++)
+            next[i] = i + 1 < capacity ? i + 1 : NONE;
+        freeHead = capacity > 0 ? 0 : NONE;
+        wheel = new int[Integer.highestOneBit(Math.max(2, wheelSlots) * 2 - 1)];
+        java.util.Arrays.fill(wheel, NONE);
+    }
+
+    public static long key(long streamId, long sequence) {
+        return (streamId << SEQUENCE_BITS) | (sequence & ((1L << SEQUENCE_BITS) - 1));
+    }
+
+    /**
+     * record a frame as sent at nowNanos, expires frames whose timeout passed
+     *
+     * @return false if the ledger is full or key is already in flight
+     */
+    public synchronized boolean sent(long key, long nowNanos) {
+        expire(nowNanos);
+        if (freeHead == NONE) {
+            overflows++;
+            return false;
+        }
+        int slot = find(key);
+        if (keys[slot] != EMPTY)
+            return false;
+        int node = freeHead;
+        freeHead = next[node];
+        nodeKey[node] = key;
+        nodeSent[node] = nowNanos;
+        nodeDeadline[node] = nowNanos + timeoutNanos;
+        link(node);
+        keys[slot] = key;
+        values[slot] = node;
+        inFlight++;
+        return true;
+    }
+
+    /**
+     * @return round trip in nanos, -1 if key was not in flight (late, duplicate or never sent)
+     */
+    public synchronized long matched(long key, long nowNanos) {
+        int slot = find(key);
+        if (keys[slot] == EMPTY) {
+            unknown++;
+            return -1;
+        }
+        int node = values[slot];
+        long latency = nowNanos - nodeSent[node];
+        remove(slot, node);
+        matchedCount++;
+        matchLatency.record(latency);
+        return latency;
+    }
+
+    @Override
+    public void onVerified(long streamId, long sequence) {
+        matched(key(streamId, sequence), System.nanoTime());
+    }
+
+    /**
+     * drop frames whose deadline is before nowNanos, counting them as timeouts
+     */
+    public synchronized void expire(long nowNanos) {
+        long nowTick = Math.floorDiv(nowNanos, tickNanos);
+        if (tick == Long.MIN_VALUE)
+            tick = nowTick;
+        // visiting more than one round of slots finds nothing new
+        long last = Math.min(nowTick, tick + wheel.length);
+        for (; tick <= last; tick++) {
+            int node = wheel[(int) (tick & (wheel.length - 1))];
+            while (node != NONE) {
+                int following = next[node];
+                if (nodeDeadline[node] - nowNanos <= 0) {
+                    remove(find(nodeKey[node]), node);
+                    timeouts++;
+                }
+                node = following;
+            }
+        }
+        tick = nowTick;
+    }
+
+    private void link(int node) {
+        int slot = (int) (Math.floorDiv(nodeDeadline[node], tickNanos) & (wheel.length - 1));
+        prev[node] = NONE;
+        next[node] = wheel[slot];
+        if (wheel[slot] != NONE)
+            prev[wheel[slot]] = node;
+        wheel[slot] = node;
+    }
+
+    private void remove(int slot, int node) {
+        // unlink from wheel
+        if (prev[node] != NONE) {
+            next[prev[node]] = next[node];
+        } else {
+            int wheelSlot = (int) (Math.floorDiv(nodeDeadline[node], tickNanos) & (wheel.length - 1));
+            wheel[wheelSlot] = next[node];
+        }
+        if (next[node] != NONE)
+            prev[next[node]] = prev[node];
+        next[node] = freeHead;
+        freeHead = node;
+        inFlight--;
+        deleteSlot(slot);
+    }
+
+    private int find(long key) {
+        int slot = (int) SplitMix64.mix(key) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != key)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private void deleteSlot(int slot) {
+        // backward shift: move later entries of the probe run into the hole
+        int hole = slot;
+        int i = (slot + 1) & mask;
+        while (keys[i] != EMPTY) {
+            int home = (int) SplitMix64.mix(keys[i]) & mask;
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                keys[hole] = keys[i];
+                values[hole] = values[i];
+                hole = i;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[hole] = EMPTY;
+    }
+
+    public synchronized int inFlight() {
+        return inFlight;
+    }
+
+    public synchronized long timeouts() {
+        return timeouts;
+    }
+
+    public synchronized long matchedCount() {
+        return matchedCount;
+    }
+
+    public LatencyHistogram matchLatency() {
+        return matchLatency;
+    }
+
+    public synchronized String report() {
+        return "ledger: inFlight=" + inFlight + " matched=" + matchedCount + " timeouts=" + timeouts
+                + " unknown=" + unknown + " overflow=" + overflows + " match " + matchLatency.summary();
+    }
+}
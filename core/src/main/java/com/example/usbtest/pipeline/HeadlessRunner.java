@@ -0,0 +1,177 @@
+package com.example.usbtest.pipeline;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full write/read pipeline against an in-memory link, without Android, for profiling on a
+ * build machine:
+ * <pre>
+ * ./gradlew :core:runHeadless --args="--seconds 30 --baud 0 --batch 8 --framing cobs"
+ * java -XX:StartFlightRecording=duration=60s,filename=pipeline.jfr -cp core/build/libs/core.jar \
+ *      com.example.usbtest.pipeline.HeadlessRunner --seconds 30
+ * </pre>
+ * Each frame is a probe stamp followed by a JSON payload, so the echo yields one latency
+ * sample per frame, and every payload is verified byte for byte on receipt.
+ */
+public class HeadlessRunner {
+
+    private static final int WRITE_TIMEOUT_MILLIS = 2500;
+    private static final int LEDGER_CAPACITY = 8192;
+    private static final int SOAK_SAMPLES = 4096;
+    private static final int SOAK_WINDOW = 30;
+    private static final int STAGE_PROBE = 0;
+    private static final int STAGE_ENCODE = 1;
+    private static final int STAGE_WRITE = 2;
+    private static final int STAGE_RECEIVE = 3;
+    private static final int STARTUP_LINK = 0;
+    private static final int STARTUP_READING = 1;
+    private static final int STARTUP_FIRST_OUT = 2;
+    private static final int STARTUP_FIRST_IN = 3;
+
+    private long seconds = 10;
+    private int baudRate = 0;
+    private int batchSize = 1;
+    private int readBufferSize = 4096;
+    private long soakSampleSeconds = 0;
+    private boolean profileStages;
+    private boolean cobs;
+
+    private volatile long bytesReceived;
+
+    public static void main(String[] args) throws Exception {
+        HeadlessRunner runner = new HeadlessRunner();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--seconds":
+                    runner.seconds = Long.parseLong(value);
+                    break;
+                case "--baud":
+                    runner.baudRate = Integer.parseInt(value);
+                    break;
+                case "--batch":
+                    runner.batchSize = Integer.parseInt(value);
+                    break;
+                case "--read-buffer":
+                    runner.readBufferSize = Integer.parseInt(value);
+                    break;
+                case "--soak":
+                    runner.soakSampleSeconds = Long.parseLong(value);
+                    break;
+                case "--profile":
+                    runner.profileStages = Boolean.parseBoolean(value);
+                    break;
+                case "--framing":
+                    runner.cobs = "cobs".equals(value);
+                    break;
+                default:
+                    System.err.println("unknown option " + args[i]
+                            + ", use --seconds N --baud N (0 = unpaced) --batch N --read-buffer N"
+                            + " --soak N (sample resources every N seconds) --profile true|false"
+                            + " --framing newline|cobs");
+                    System.exit(2);
+            }
+        }
+        System.out.println(runner.run());
+    }
+
+    public String run() throws IOException, InterruptedException {
+        // from JVM start, so class loading and JIT warmup count as they would on a cold launch
+        StartupTimeline startup = new StartupTimeline(System.nanoTime()
+                - (System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime()) * 1_000_000L,
+                "link", "reading", "firstByteOut", "firstByteIn");
+        InMemorySerialLink link = new InMemorySerialLink(baudRate);
+        startup.mark(STARTUP_LINK);
+        LatencyProbe probe = new LatencyProbe();
+        PayloadVerifier verifier = new PayloadVerifier();
+        FrameLedger ledger = new FrameLedger(LEDGER_CAPACITY, WRITE_TIMEOUT_MILLIS);
+        verifier.setListener(ledger);
+        StageProfiler stages = new StageProfiler(profileStages ? new JvmStageMeter() : null,
+                "probe", "encode", "write", "receive");
+        CobsCodec.Decoder decoder = cobs ? new CobsCodec.Decoder(JsonPayloadGenerator.MAX_FRAME_LENGTH, (frame, length) -> {
+            probe.onReceived(frame, length);
+            verifier.onReceived(frame, length);
+        }) : null;
+        BlockingReadStrategy reader = new BlockingReadStrategy(link, readBufferSize);
+        reader.start(new ReadStrategy.Sink() {
+            @Override
+            public void onData(byte[] data, int length) {
+                startup.mark(STARTUP_FIRST_IN);
+                stages.start(STAGE_RECEIVE);
+                if (decoder != null) {
+                    decoder.onReceived(data, length);
+                } else {
+                    probe.onReceived(data, length);
+                    verifier.onReceived(data, length);
+                }
+                stages.end(STAGE_RECEIVE);
+                bytesReceived += length;
+            }
+
+            @Override
+            public void onRunError(Exception e) {
+                System.err.println("read failed: " + e);
+            }
+        });
+
+        startup.mark(STARTUP_READING);
+
+        JsonPayloadGenerator generator = new JsonPayloadGenerator(1);
+        int headroom = cobs ? CobsCodec.HEADROOM : 0;
+        byte[] stamp = new byte[CobsCodec.maxEncodedLength(ProbeFrame.LENGTH)];
+        byte[] payload = new byte[CobsCodec.maxEncodedLength(JsonPayloadGenerator.MAX_FRAME_LENGTH)];
+        long bytesSent = 0;
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        SoakMonitor soak = null;
+        long soakInterval = TimeUnit.SECONDS.toNanos(soakSampleSeconds);
+        long nextSoakSample = start;
+        if (soakSampleSeconds > 0)
+            soak = new SoakMonitor(new JvmRuntimeSampler(), SOAK_SAMPLES, SOAK_WINDOW);
+        while (System.nanoTime() - end < 0) {
+            if (soak != null && System.nanoTime() - nextSoakSample >= 0) {
+                soak.sample(System.nanoTime(), bytesReceived);
+                nextSoakSample += soakInterval;
+            }
+            for (int i = 0; i < batchSize; i++) {
+                stages.start(STAGE_PROBE);
+                int stampLength = probe.nextFrame(stamp, headroom);
+                if (cobs)
+                    stampLength = CobsCodec.encode(stamp, 0, stampLength);
+                link.write(stamp, stampLength, WRITE_TIMEOUT_MILLIS);
+                startup.mark(STARTUP_FIRST_OUT);
+                ledger.sent(FrameLedger.key(generator.streamId(), generator.nextSequence()), System.nanoTime());
+                stages.end(STAGE_PROBE);
+                stages.start(STAGE_ENCODE);
+                int length = generator.encodeNext(payload, headroom);
+                if (cobs)
+                    length = CobsCodec.encode(payload, 0, length);
+                stages.end(STAGE_ENCODE);
+                stages.start(STAGE_WRITE);
+                link.write(payload, length, WRITE_TIMEOUT_MILLIS);
+                stages.end(STAGE_WRITE);
+                bytesSent += stampLength + length;
+            }
+        }
+        long drainEnd = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (bytesReceived < bytesSent && System.nanoTime() - drainEnd < 0)
+            Thread.sleep(1);
+        long elapsed = System.nanoTime() - start;
+        reader.stop();
+        link.close();
+
+        LatencyHistogram latency = probe.idle();
+        double secondsElapsed = elapsed / 1e9;
+        ledger.expire(System.nanoTime());
+        return String.format(Locale.US, "%.2f MB/s, %.0f frames/s, lost %d bytes, latency %s, %s, %s",
+                bytesReceived / secondsElapsed / 1e6, latency.count() / secondsElapsed,
+                bytesSent - bytesReceived, latency.summary(), verifier.report(), ledger.report())
+                + (decoder != null ? ", cobs frames " + decoder.frames() + " errors " + decoder.errors() : "")
+                + "\n" + startup.report()
+                + (soak != null ? "\n" + soak.report() : "")
+                + (stages.isEnabled() ? "\n" + stages.report(bytesSent + bytesReceived) : "");
+    }
+}
@@ -0,0 +1,404 @@
+package com.example.usbtest.pipeline;
+
+import com.example.util.HexDump;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-threaded microbenchmarks of the serial hot path, compared against a baseline:
+ * <pre>
+ * ./gradlew :core:benchmarkCheck [-PbenchmarkTolerance=0.3]
+ * ./gradlew :core:benchmarkBaseline   (accept the current numbers after an intended change)
+ * </pre>
+ * Each benchmark warms up, then runs {@link #ROUNDS} timed rounds; the best round's ops/s
+ * and the lowest allocation per op are kept, which filters most GC and scheduler noise.
+ * Allocation is the calling thread's, see {@link JvmStageMeter}.
+ *
+ * A rise in allocation per op always fails the check. Ops/s also move with the load on the
+ * machine and with what the JIT made of a launch, so a benchmark that came out slower runs
+ * again in a new JVM, up to {@link #RERUNS} times keeping its best, before it fails, and
+ * only fails on the machine the baseline was measured on. The baseline keeps the median
+ * of {@link #BASELINE_LAUNCHES} launches.
+ */
+public class HostBenchmarks {
+
+    private static final long WARMUP_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long ROUND_NANOS = TimeUnit.MILLISECONDS.toNanos(300);
+    private static final int ROUNDS = 10;
+    private static final int RERUNS = 2;
+    private static final int BASELINE_LAUNCHES = 3;
+    private static final int OPS_PER_CLOCK_READ = 64;
+    private static final int FRAMING_BLOCK_FRAMES = 4096;
+    private static final int MERGE_PORTS = 16;
+    private static final int STORE_CHUNK_SAMPLES = 4096;
+    private static final long STORE_BUDGET_BYTES = 16 << 20;
+
+    // results go here so the JIT cannot drop the work that produced them
+    private static Object sink;
+
+    interface Body {
+        void run() throws IOException;
+    }
+
+    static final class Benchmark {
+        final String name;
+        final int bytesPerOp;
+        final Body body;
+
+        Benchmark(String name, int bytesPerOp, Body body) {
+            this.name = name;
+            this.bytesPerOp = bytesPerOp;
+            this.body = body;
+        }
+    }
+
+    public static final class Result {
+        public final String name;
+        public final double opsPerSecond;
+        public final double allocatedBytesPerOp;
+        public final double bytesPerSecond;
+
+        public Result(String name, double opsPerSecond, double allocatedBytesPerOp, double bytesPerSecond) {
+            this.name = name;
+            this.opsPerSecond = opsPerSecond;
+            this.allocatedBytesPerOp = allocatedBytesPerOp;
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%-12s %12.0f ops/s %9.2f MB/s %10.1f B/op",
+                    name, opsPerSecond, bytesPerSecond / 1e6, allocatedBytesPerOp);
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String baseline = null;
+        String write = null;
+        List<String> only = null;
+        double tolerance = BenchmarkBaseline.DEFAULT_TOLERANCE;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--baseline":
+                    baseline = value;
+                    break;
+                case "--tolerance":
+                    tolerance = Double.parseDouble(value);
+                    break;
+                case "--write":
+                    write = value;
+                    break;
+                case "--only":
+                    only = Arrays.asList(value.split(","));
+                    break;
+                default:
+                    System.err.println("unknown option " + args[i]
+                            + ", use --baseline FILE --tolerance 0.3 (fraction) | --write FILE [--only NAME,...]");
+                    System.exit(2);
+            }
+        }
+        List<Result> results = runAll(new JvmStageMeter(), only);
+        if (write != null) {
+            if (only == null) {
+                // ops/s differ more between JVM launches than between rounds, keep the median launch
+                List<List<Result>> launches = new ArrayList<>();
+                launches.add(results);
+                for (int i = 1; i < BASELINE_LAUNCHES; i++)
+                    launches.add(fork(names(results)));
+                results = median(launches);
+            }
+            try (Writer out = new FileWriter(write)) {
+                BenchmarkBaseline.write(results, out);
+            }
+            System.out.println("baseline written to " + write);
+        }
+        if (baseline != null) {
+            BenchmarkBaseline expected;
+            try (Reader in = new FileReader(baseline)) {
+                expected = BenchmarkBaseline.parse(in);
+            }
+            BenchmarkBaseline.Comparison comparison = expected.compare(results, tolerance);
+            for (int i = 0; i < RERUNS && !comparison.slower().isEmpty(); i++) {
+                System.out.println("running again in a new JVM: " + comparison.slower());
+                results = best(results, fork(comparison.slower()));
+                comparison = expected.compare(results, tolerance);
+            }
+            System.out.println(comparison.report());
+            String machine = BenchmarkBaseline.thisMachine();
+            boolean sameMachine = machine.equals(expected.machine());
+            System.out.println("baseline measured on " + expected.machine() + ", this run on " + machine);
+            int failed = sameMachine ? comparison.regressions() : comparison.allocationRegressions();
+            if (!sameMachine && !comparison.slower().isEmpty())
+                System.out.println("throughput not checked on another machine: " + comparison.slower());
+            if (failed > 0) {
+                System.err.println(failed + " benchmark(s) regressed against " + baseline + ", ops/s by more than "
+                        + Math.round(tolerance * 100) + "% or allocation by more than "
+                        + Math.round(BenchmarkBaseline.ALLOCATION_TOLERANCE * 100) + "%");
+                System.exit(1);
+            }
+        }
+    }
+
+    public static List<Result> runAll(StageProfiler.Meter meter) throws IOException {
+        return runAll(meter, null);
+    }
+
+    /**
+     * @param only names of the benchmarks to run, null for all
+     */
+    static List<Result> runAll(StageProfiler.Meter meter, List<String> only) throws IOException {
+        List<Result> results = new ArrayList<>();
+        for (Benchmark benchmark : benchmarks()) {
+            if (only != null && !only.contains(benchmark.name))
+                continue;
+            Result result = run(benchmark, meter);
+            System.out.println(result);
+            results.add(result);
+        }
+        return results;
+    }
+
+    /**
+     * run the named benchmarks in a new JVM on this classpath, with a JIT that starts over
+     */
+    private static List<Result> fork(List<String> names) throws IOException, InterruptedException {
+        File results = File.createTempFile("benchmarks", ".json");
+        try {
+            String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+            Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    HostBenchmarks.class.getName(), "--only", String.join(",", names), "--write", results.getPath())
+                    .inheritIO().start();
+            if (process.waitFor() != 0)
+                throw new IOException("forked benchmarks exited with " + process.exitValue());
+            try (Reader in = new FileReader(results)) {
+                return BenchmarkBaseline.parse(in).results();
+            }
+        } finally {
+            results.delete();
+        }
+    }
+
+    private static List<String> names(List<Result> results) {
+        List<String> names = new ArrayList<>();
+        for (Result r : results)
+            names.add(r.name);
+        return names;
+    }
+
+    /**
+     * per benchmark the better ops/s and allocation of the two runs
+     */
+    static List<Result> best(List<Result> results, List<Result> again) {
+        List<Result> best = new ArrayList<>(results);
+        for (Result a : again) {
+            for (int i = 0; i < best.size(); i++) {
+                Result r = best.get(i);
+                if (r.name.equals(a.name))
+                    best.set(i, new Result(r.name, Math.max(r.opsPerSecond, a.opsPerSecond),
+                            Math.min(r.allocatedBytesPerOp, a.allocatedBytesPerOp),
+                            Math.max(r.bytesPerSecond, a.bytesPerSecond)));
+            }
+        }
+        return best;
+    }
+
+    /**
+     * per benchmark the launch with the median ops/s, and the lowest allocation of all launches
+     */
+    static List<Result> median(List<List<Result>> launches) {
+        List<Result> median = new ArrayList<>();
+        for (Result first : launches.get(0)) {
+            List<Result> runs = new ArrayList<>();
+            double leastAllocated = first.allocatedBytesPerOp;
+            for (List<Result> launch : launches) {
+                for (Result r : launch) {
+                    if (r.name.equals(first.name)) {
+                        runs.add(r);
+                        leastAllocated = Math.min(leastAllocated, r.allocatedBytesPerOp);
+                    }
+                }
+            }
+            runs.sort(Comparator.comparingDouble(r -> r.opsPerSecond));
+            Result middle = runs.get(runs.size() / 2);
+            median.add(new Result(first.name, middle.opsPerSecond, leastAllocated, middle.bytesPerSecond));
+        }
+        return median;
+    }
+
+    static List<Benchmark> benchmarks() {
+        List<Benchmark> benchmarks = new ArrayList<>();
+
+        final byte[] frame = new byte[JsonPayloadGenerator.MAX_FRAME_LENGTH];
+        final int frameLength = new JsonPayloadGenerator(1).encodeNext(frame, 0);
+        // the consumer logs every received chunk like this
+        benchmarks.add(new Benchmark("hexdump", frameLength, () -> sink = HexDump.toHexString(frame, 0, frameLength)));
+
+        final JsonPayloadGenerator encoder = new JsonPayloadGenerator(1);
+        final byte[] encoded = new byte[JsonPayloadGenerator.MAX_FRAME_LENGTH];
+        benchmarks.add(new Benchmark("encode", frameLength, () -> encoder.encodeNext(encoded, 0)));
+
+        final byte[] cobsEncoded = new byte[CobsCodec.maxEncodedLength(JsonPayloadGenerator.MAX_FRAME_LENGTH)];
+        benchmarks.add(new Benchmark("cobs-encode", frameLength, () ->
+                CobsCodec.encode(cobsEncoded, 0, encoder.encodeNext(cobsEncoded, CobsCodec.HEADROOM))));
+
+        benchmarks.add(framing(false));
+        benchmarks.add(framing(true));
+
+        final JsonPayloadGenerator sender = new JsonPayloadGenerator(1);
+        final PayloadVerifier receiver = new PayloadVerifier();
+        final InMemorySerialLink link = new InMemorySerialLink();
+        final byte[] out = new byte[JsonPayloadGenerator.MAX_FRAME_LENGTH];
+        final byte[] in = new byte[JsonPayloadGenerator.MAX_FRAME_LENGTH];
+        // encode, write, read back and verify one frame, without the thread hand-off
+        benchmarks.add(new Benchmark("loopback", frameLength, () -> {
+            int length = sender.encodeNext(out, 0);
+            link.write(out, length, 0);
+            for (int received = 0; received < length; ) {
+                int n = link.read(in, 0);
+                receiver.onReceived(in, n);
+                received += n;
+            }
+        }));
+        benchmarks.add(merge());
+
+        // parse one received frame into a full store, so every append recycles eventually
+        final SampleStore store = new SampleStore(JsonPayloadGenerator.VALUE_COUNT, STORE_CHUNK_SAMPLES, STORE_BUDGET_BYTES);
+        final SensorFrameParser parser = new SensorFrameParser(store.fields(), store::append);
+        benchmarks.add(new Benchmark("store", frameLength, () -> parser.onReceived(frame, frameLength)));
+        benchmarks.add(rollup());
+        return benchmarks;
+    }
+
+    /**
+     * min/max/mean of one field over a random range of a million samples, per op
+     */
+    private static Benchmark rollup() {
+        final int samples = 1 << 20;
+        final SampleStore store = new SampleStore(1, STORE_CHUNK_SAMPLES, samples * 16L + STORE_CHUNK_SAMPLES * 32L);
+        double[] value = new double[1];
+        SplitMix64 random = new SplitMix64(49);
+        for (int i = 0; i < samples; i++) {
+            value[0] = random.nextInt(1000);
+            store.append(i, value);
+        }
+        final SampleStore.Rollup rollup = new SampleStore.Rollup();
+        return new Benchmark("store-rollup", 0, new Body() {
+            private final SplitMix64 ranges = new SplitMix64(7);
+
+            @Override
+            public void run() {
+                int from = ranges.nextInt(samples / 2);
+                store.rollup(from, from + samples / 2, 0, rollup);
+                sink = rollup;
+            }
+        });
+    }
+
+    /**
+     * one frame-sized chunk per op received on the next of {@link #MERGE_PORTS} ports and
+     * merged, the heap stays full so every chunk is delivered on the drain after it
+     */
+    private static Benchmark merge() {
+        final byte[] chunk = new byte[JsonPayloadGenerator.MAX_FRAME_LENGTH];
+        final int length = new JsonPayloadGenerator(1).encodeNext(chunk, 0);
+        final StreamMerger merger = new StreamMerger(StreamMerger.DEFAULT_WINDOW_NANOS, chunk.length, 4,
+                (port, receivedNanos, data, n) -> sink = data);
+        final StreamMerger.Port[] ports = new StreamMerger.Port[MERGE_PORTS];
+        for (int i = 0; i < MERGE_PORTS; i++)
+            ports[i] = merger.addPort("port" + i);
+        return new Benchmark("merge", length, new Body() {
+            private long stamp;
+
+            @Override
+            public void run() {
+                ports[(int) (stamp % MERGE_PORTS)].onReceived(chunk, length, stamp++);
+                merger.drain(stamp);
+            }
+        });
+    }
+
+    /**
+     * find and verify one frame per op in a prebuilt block, a new verifier per pass over it
+     *
+     * @param cobs COBS frames through {@link CobsCodec.Decoder}, else terminated frames
+     */
+    private static Benchmark framing(boolean cobs) {
+        JsonPayloadGenerator generator = new JsonPayloadGenerator(1);
+        int maxFrame = CobsCodec.maxEncodedLength(JsonPayloadGenerator.MAX_FRAME_LENGTH);
+        final byte[] block = new byte[FRAMING_BLOCK_FRAMES * maxFrame];
+        final int[] ends = new int[FRAMING_BLOCK_FRAMES];
+        int length = 0;
+        for (int i = 0; i < FRAMING_BLOCK_FRAMES; i++) {
+            if (cobs)
+                length += CobsCodec.encode(block, length, generator.encodeNext(block, length + CobsCodec.HEADROOM));
+            else
+                length += generator.encodeNext(block, length);
+            ends[i] = length;
+        }
+        final byte[] chunk = new byte[maxFrame];
+        return new Benchmark(cobs ? "cobs-framing" : "framing", length / FRAMING_BLOCK_FRAMES, new Body() {
+            private PayloadVerifier verifier;
+            private CobsCodec.Decoder decoder;
+            private int next = FRAMING_BLOCK_FRAMES;
+
+            @Override
+            public void run() {
+                if (next == FRAMING_BLOCK_FRAMES) {
+                    final PayloadVerifier fresh = new PayloadVerifier();
+                    verifier = fresh;
+                    decoder = cobs ? new CobsCodec.Decoder(JsonPayloadGenerator.MAX_FRAME_LENGTH, fresh::onReceived) : null;
+                    next = 0;
+                }
+                int start = next == 0 ? 0 : ends[next - 1];
+                int n = ends[next++] - start;
+                System.arraycopy(block, start, chunk, 0, n); // onReceived reads from index 0, like a read buffer
+                if (decoder != null)
+                    decoder.onReceived(chunk, n);
+                else
+                    verifier.onReceived(chunk, n);
+            }
+        });
+    }
+
+    static Result run(Benchmark benchmark, StageProfiler.Meter meter) throws IOException {
+        runFor(benchmark.body, WARMUP_NANOS);
+        double bestOps = 0;
+        double leastAllocated = Double.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long allocatedBefore = meter.threadAllocatedBytes();
+            long start = System.nanoTime();
+            long ops = runFor(benchmark.body, ROUND_NANOS);
+            long elapsed = System.nanoTime() - start;
+            long allocatedAfter = meter.threadAllocatedBytes();
+            bestOps = Math.max(bestOps, ops * 1e9 / elapsed);
+            if (allocatedBefore != RuntimeSampler.UNKNOWN)
+                leastAllocated = Math.min(leastAllocated, (double) (allocatedAfter - allocatedBefore) / ops);
+        }
+        if (leastAllocated == Double.MAX_VALUE)
+            leastAllocated = 0;
+        return new Result(benchmark.name, bestOps, leastAllocated, bestOps * benchmark.bytesPerOp);
+    }
+
+    private static long runFor(Body body, long nanos) throws IOException {
+        long end = System.nanoTime() + nanos;
+        long ops = 0;
+        do {
+            for (int i = 0; i < OPS_PER_CLOCK_READ; i++)
+                body.run();
+            ops += OPS_PER_CLOCK_READ;
+        } while (System.nanoTime() - end < 0);
+        return ops;
+    }
+}
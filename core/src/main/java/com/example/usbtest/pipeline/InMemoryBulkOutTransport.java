@@ -0,0 +1,88 @@
+package com.example.usbtest.pipeline;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link BulkOutTransport} emulating a host controller: one worker thread performs the
+ * submitted transfers in order with blocking writes to a {@link SerialLink}.
+ */
+public class InMemoryBulkOutTransport implements BulkOutTransport, Runnable {
+
+    public static final Factory FACTORY = InMemoryBulkOutTransport::new;
+
+    private static final int MAX_SLOTS = 64;
+    private static final int WRITE_TIMEOUT_MILLIS = 2500;
+    private static final int FAILED = -2;
+
+    private final SerialLink link;
+    private final ByteBuffer[] pending = new ByteBuffer[MAX_SLOTS];
+    private final BlockingQueue<Integer> submitted = new ArrayBlockingQueue<>(MAX_SLOTS);
+    private final BlockingQueue<Integer> completed = new ArrayBlockingQueue<>(MAX_SLOTS + 1);
+    private final Thread worker;
+    private volatile boolean running = true;
+    private volatile IOException failure;
+    private byte[] scratch = new byte[0];
+
+    public InMemoryBulkOutTransport(SerialLink link) {
+        this.link = link;
+        worker = new Thread(this, "InMemoryBulkOut");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @Override
+    public void submit(int slot, ByteBuffer buffer) throws IOException {
+        if (!running)
+            throw new IOException("transport closed");
+        pending[slot] = buffer;
+        if (!submitted.offer(slot))
+            throw new IOException("too many outstanding transfers");
+    }
+
+    @Override
+    public int awaitCompletion(int timeoutMillis) throws IOException {
+        Integer slot;
+        try {
+            slot = completed.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted");
+        }
+        if (slot == null)
+            return -1;
+        if (slot == FAILED)
+            throw failure;
+        return slot;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        worker.interrupt();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                int slot = submitted.take();
+                ByteBuffer buffer = pending[slot];
+                int length = buffer.remaining();
+                if (scratch.length < length)
+                    scratch = new byte[length];
+                buffer.get(scratch, 0, length);
+                link.write(scratch, length, WRITE_TIMEOUT_MILLIS);
+                completed.put(slot);
+            }
+        } catch (InterruptedException ignored) {
+        } catch (IOException e) {
+            failure = e;
+            completed.offer(FAILED);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.example.usbtest.pipeline;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-memory echo link: every byte written becomes readable again, like a loopback plug
+ * or a device that echoes its input.
+ *
+ * With a baud rate set, bytes are released at the pace of an 8N1 wire (10 bit times per
+ * byte), so queueing delay caused by our own traffic shows up just like on a real adapter.
+ * Storage is a preallocated ring, nothing is allocated per write or read.
+ */
+public class InMemorySerialLink implements SerialLink {
+
+    private static final int DEFAULT_CAPACITY = 4096; // in the range of adapter FIFOs, bounds what is in flight
+    private static final int MAX_SEGMENTS = 1024;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition readable = lock.newCondition();
+    private final Condition writable = lock.newCondition();
+
+    private final byte[] ring;
+    private long head; // total bytes read
+    private long tail; // total bytes written
+
+    // write segments with the time their last byte leaves the wire
+    private final long[] segmentEnd = new long[MAX_SEGMENTS];
+    private final long[] segmentRelease = new long[MAX_SEGMENTS];
+    private int segmentFirst;
+    private int segmentCount;
+
+    private volatile long nanosPerByte;
+    private long wireFreeAt;
+    private boolean closed;
+
+    public InMemorySerialLink() {
+        this(0, DEFAULT_CAPACITY);
+    }
+
+    public InMemorySerialLink(int baudRate) {
+        this(baudRate, DEFAULT_CAPACITY);
+    }
+
+    public InMemorySerialLink(int baudRate, int capacity) {
+        ring = new byte[capacity];
+        setBaudRate(baudRate);
+    }
+
+    /**
+     * @param baudRate simulated line rate, 0 delivers bytes immediately
+     */
+    public void setBaudRate(int baudRate) {
+        nanosPerByte = baudRate > 0 ? TimeUnit.SECONDS.toNanos(10) / baudRate : 0;
+    }
+
+    @Override
+    public void write(byte[] src, int length, int timeoutMillis) throws IOException {
+        long deadline = deadline(timeoutMillis);
+        int offset = 0;
+        lock.lock();
+        try {
+            while (offset < length) {
+                checkOpen();
+                int free = ring.length - (int) (tail - head);
+                if (free == 0 || segmentCount == MAX_SEGMENTS) {
+                    awaitUntil(writable, deadline, "write timeout");
+                    continue;
+                }
+                int n = Math.min(free, length - offset);
+                int pos = (int) (tail % ring.length);
+                int first = Math.min(n, ring.length - pos);
+                System.arraycopy(src, offset, ring, pos, first);
+                System.arraycopy(src, offset + first, ring, 0, n - first);
+                offset += n;
+                tail += n;
+                appendSegment(n);
+                readable.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int read(byte[] dest, int timeoutMillis) throws IOException {
+        long deadline = deadline(timeoutMillis);
+        lock.lock();
+        try {
+            while (true) {
+                checkOpen();
+                long available = releasedUntil(System.nanoTime()) - head;
+                if (available > 0) {
+                    int n = (int) Math.min(available, dest.length);
+                    int pos = (int) (head % ring.length);
+                    int first = Math.min(n, ring.length - pos);
+                    System.arraycopy(ring, pos, dest, 0, first);
+                    System.arraycopy(ring, 0, dest, first, n - first);
+                    head += n;
+                    dropReleasedSegments();
+                    writable.signalAll();
+                    return n;
+                }
+                long wait = deadline - System.nanoTime();
+                if (segmentCount > 0)
+                    wait = Math.min(wait, segmentRelease[segmentFirst] - System.nanoTime());
+                if (deadline - System.nanoTime() <= 0)
+                    return 0;
+                if (wait > 0)
+                    awaitNanos(readable, wait);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * bytes written but not yet read
+     */
+    public int pending() {
+        lock.lock();
+        try {
+            return (int) (tail - head);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            readable.signalAll();
+            writable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void appendSegment(int n) {
+        long now = System.nanoTime();
+        long start = nanosPerByte > 0 && wireFreeAt - now > 0 ? wireFreeAt : now;
+        wireFreeAt = start + n * nanosPerByte;
+        int last = (segmentFirst + segmentCount - 1) % MAX_SEGMENTS;
+        if (segmentCount > 0 && nanosPerByte == 0) {
+            segmentEnd[last] = tail; // nothing to pace, just extend
+            return;
+        }
+        int idx = (segmentFirst + segmentCount) % MAX_SEGMENTS;
+        segmentEnd[idx] = tail;
+        segmentRelease[idx] = wireFreeAt;
+        segmentCount++;
+    }
+
+    private long releasedUntil(long now) {
+        long released = head;
+        for (int i = 0; i < segmentCount; i++) {
+            int idx = (segmentFirst + i) % MAX_SEGMENTS;
+            if (segmentRelease[idx] - now > 0) {
+                if (nanosPerByte > 0) {
+                    // partially transmitted segment
+                    long start = i == 0 ? head : segmentEnd[(idx + MAX_SEGMENTS - 1) % MAX_SEGMENTS];
+                    long unsent = (segmentRelease[idx] - now) / nanosPerByte;
+                    released = Math.max(released, segmentEnd[idx] - unsent);
+                    released = Math.max(released, start);
+                }
+                break;
+            }
+            released = segmentEnd[idx];
+        }
+        return released;
+    }
+
+    private void dropReleasedSegments() {
+        while (segmentCount > 0 && segmentEnd[segmentFirst] <= head) {
+            segmentFirst = (segmentFirst + 1) % MAX_SEGMENTS;
+            segmentCount--;
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed)
+            throw new IOException("link closed");
+    }
+
+    private static long deadline(int timeoutMillis) {
+        long timeout = timeoutMillis > 0 ? TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : Long.MAX_VALUE / 2;
+        return System.nanoTime() + timeout;
+    }
+
+    private static void awaitUntil(Condition condition, long deadline, String message) throws IOException {
+        long wait = deadline - System.nanoTime();
+        if (wait <= 0)
+            throw new InterruptedIOException(message);
+        awaitNanos(condition, wait);
+    }
+
+    private static void awaitNanos(Condition condition, long nanos) throws IOException {
+        try {
+            condition.awaitNanos(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted");
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.usbtest.pipeline;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Sensor JSON payload as MainActivity sends it, followed by the frame terminator:
+ * <pre>
+ * {"sensor":"temperature","stream":1,"seq":42,"value0":12.34567,...,"value19":99.00001}
+ * </pre>
+ * Values come from {@link SplitMix64} seeded with stream id and sequence number and are
+ * written as fixed point digits straight into a byte array, so a frame is reproducible
+ * from (stream, seq) alone and encoding allocates nothing.
+ */
+public class JsonPayloadGenerator {
+
+    public static final int VALUE_COUNT = 20;
+    public static final String TERMINATOR = "\\n";
+    public static final int MAX_FRAME_LENGTH = 512;
+
+    private static final int DECIMALS = 5;
+    private static final int SCALE = 100_000;
+    private static final int VALUE_BOUND = 100 * SCALE;
+
+    static final byte[] PREFIX = ascii("{\"sensor\":\"temperature\",\"stream\":");
+    private static final byte[] SEQ = ascii(",\"seq\":");
+    private static final byte[][] VALUE_KEYS = new byte[VALUE_COUNT][];
+    static final byte[] TERMINATOR_BYTES = ascii(TERMINATOR);
+
+    static {
+        for (int i = 0; i < VALUE_COUNT; i++)
+            VALUE_KEYS[i] = ascii(",\"value" + i + "\":");
+    }
+
+    private final long streamId;
+    private final SplitMix64 random = new SplitMix64(0);
+    private long sequence;
+
+    public JsonPayloadGenerator(long streamId) {
+        this.streamId = streamId;
+    }
+
+    public long streamId() {
+        return streamId;
+    }
+
+    /**
+     * sequence number {@link #encodeNext} will use
+     */
+    public long nextSequence() {
+        return sequence;
+    }
+
+    /**
+     * encode the next frame of this stream
+     *
+     * @return bytes written, at most {@link #MAX_FRAME_LENGTH}
+     */
+    public int encodeNext(byte[] dst, int offset) {
+        return encode(dst, offset, sequence++);
+    }
+
+    /**
+     * encode frame sequence of this stream, same bytes every time
+     */
+    public int encode(byte[] dst, int offset, long sequence) {
+        random.reseed(SplitMix64.seed(streamId, sequence));
+        int pos = put(dst, offset, PREFIX);
+        pos = putLong(dst, pos, streamId);
+        pos = put(dst, pos, SEQ);
+        pos = putLong(dst, pos, sequence);
+        for (int i = 0; i < VALUE_COUNT; i++) {
+            pos = put(dst, pos, VALUE_KEYS[i]);
+            int value = random.nextInt(VALUE_BOUND);
+            pos = putLong(dst, pos, value / SCALE);
+            dst[pos++] = '.';
+            int fraction = value % SCALE;
+            for (int d = DECIMALS - 1; d >= 0; d--) {
+                dst[pos + d] = (byte) ('0' + fraction % 10);
+                fraction /= 10;
+            }
+            pos += DECIMALS;
+        }
+        dst[pos++] = '}';
+        pos = put(dst, pos, TERMINATOR_BYTES);
+        return pos - offset;
+    }
+
+    public String nextFrame() {
+        byte[] frame = new byte[MAX_FRAME_LENGTH];
+        return new String(frame, 0, encodeNext(frame, 0), StandardCharsets.US_ASCII);
+    }
+
+    private static int put(byte[] dst, int pos, byte[] src) {
+        System.arraycopy(src, 0, dst, pos, src.length);
+        return pos + src.length;
+    }
+
+    static int putLong(byte[] dst, int pos, long value) {
+        if (value < 0) {
+            dst[pos++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long v = value / 10; v != 0; v /= 10)
+            digits++;
+        for (int d = digits - 1; d >= 0; d--) {
+            dst[pos + d] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return pos + digits;
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.usbtest.pipeline;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryPoolMXBean;
+
+/**
+ * {@link RuntimeSampler} from the JVM's management beans, for the headless runner.
+ * Native heap is the non-heap pools (metaspace, code cache), the closest the JVM reports.
+ */
+public class JvmRuntimeSampler implements RuntimeSampler {
+
+    @Override
+    public long heapUsedBytes() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    @Override
+    public long nativeHeapBytes() {
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.NON_HEAP)
+                used += pool.getUsage().getUsed();
+        }
+        return used;
+    }
+
+    @Override
+    public long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            count += Math.max(0, gc.getCollectionCount());
+        return count;
+    }
+
+    @Override
+    public long gcTimeMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            millis += Math.max(0, gc.getCollectionTime());
+        return millis;
+    }
+
+    @Override
+    public int threadCount() {
+        return ManagementFactory.getThreadMXBean().getThreadCount();
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.usbtest.pipeline;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * {@link StageProfiler.Meter} from the JVM's ThreadMXBean, allocation counting needs the
+ * com.sun.management extension HotSpot and OpenJDK provide.
+ */
+public class JvmStageMeter implements StageProfiler.Meter {
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final com.sun.management.ThreadMXBean allocations;
+
+    public JvmStageMeter() {
+        if (threads.isThreadCpuTimeSupported() && !threads.isThreadCpuTimeEnabled())
+            threads.setThreadCpuTimeEnabled(true);
+        com.sun.management.ThreadMXBean extended = null;
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            extended = (com.sun.management.ThreadMXBean) threads;
+            if (extended.isThreadAllocatedMemorySupported())
+                extended.setThreadAllocatedMemoryEnabled(true);
+            else
+                extended = null;
+        }
+        allocations = extended;
+    }
+
+    @Override
+    public long threadCpuNanos() {
+        return threads.isThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : RuntimeSampler.UNKNOWN;
+    }
+
+    @Override
+    public long threadAllocatedBytes() {
+        return allocations != null
+                ? allocations.getThreadAllocatedBytes(Thread.currentThread().getId())
+                : RuntimeSampler.UNKNOWN;
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.usbtest.pipeline;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-linear latency histogram in nanoseconds.
+ *
+ * Values below 128 are counted exactly, above that each power of two is split into 64
+ * buckets, so any reported percentile is within 1.6% of the recorded value. All storage
+ * is allocated up front, recording never allocates.
+ *
+ * Recording and reading take no lock, counts are atomic, so an exporter reading a busy
+ * histogram never holds back the thread recording into it. A read racing a record may
+ * see its bucket but not yet its sum, off by one value at most per racing recorder.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 6;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int LINEAR_COUNT = SUB_COUNT * 2;
+    private static final int BUCKET_COUNT = LINEAR_COUNT + (63 - SUB_BITS - 1) * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+        counts.incrementAndGet(indexOf(nanos));
+        totalCount.incrementAndGet();
+        sum.addAndGet(nanos);
+        updateMax(nanos);
+    }
+
+    private void updateMax(long nanos) {
+        long current;
+        while (nanos > (current = max.get()) && !max.compareAndSet(current, nanos)) {
+        }
+    }
+
+    public long count() {
+        return totalCount.get();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    public long mean() {
+        long n = totalCount.get();
+        return n == 0 ? 0 : sum.get() / n;
+    }
+
+    /**
+     * @param percentile 0..100, e.g. 99.9
+     * @return upper bound of the bucket holding the percentile, 0 when empty
+     */
+    public long percentile(double percentile) {
+        long total = totalCount.get();
+        if (total == 0)
+            return 0;
+        long rank = (long) Math.ceil(percentile / 100.0 * total);
+        if (rank < 1)
+            rank = 1;
+        long seen = 0;
+        long highest = max.get();
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= rank)
+                return Math.min(highestEquivalent(i), highest);
+        }
+        return highest;
+    }
+
+    public long sum() {
+        return sum.get();
+    }
+
+    /**
+     * number of recorded values up to nanos, values in the bucket straddling nanos are left out
+     */
+    public long countAtOrBelow(long nanos) {
+        if (nanos < 0)
+            return 0;
+        int last = indexOf(nanos);
+        long seen = 0;
+        for (int i = 0; i < last; i++)
+            seen += counts.get(i);
+        if (highestEquivalent(last) <= nanos)
+            seen += counts.get(last);
+        return seen;
+    }
+
+    /**
+     * replace target's content with this one, without holding up recorders; target's count
+     * is that of the copied buckets, so the copy is consistent in itself
+     */
+    public void copyTo(LatencyHistogram target) {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long n = counts.get(i);
+            target.counts.set(i, n);
+            total += n;
+        }
+        target.totalCount.set(total);
+        target.max.set(max.get());
+        target.sum.set(sum.get());
+    }
+
+    /**
+     * not atomic with a concurrent record, which may survive in part
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++)
+            counts.set(i, 0);
+        totalCount.set(0);
+        max.set(0);
+        sum.set(0);
+    }
+
+    /**
+     * add all values of other to this histogram
+     */
+    public void add(LatencyHistogram other) {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long n = other.counts.get(i);
+            if (n != 0)
+                counts.addAndGet(i, n);
+            total += n;
+        }
+        totalCount.addAndGet(total);
+        sum.addAndGet(other.sum.get());
+        updateMax(other.max.get());
+    }
+
+    /**
+     * p50/p99/p99.9/max in microseconds
+     */
+    public String summary() {
+        return String.format(java.util.Locale.US, "n=%d p50=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus",
+                count(), percentile(50) / 1e3, percentile(99) / 1e3, percentile(99.9) / 1e3, max() / 1e3);
+    }
+
+    static int indexOf(long value) {
+        if (value < LINEAR_COUNT)
+            return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        int top = (int) (value >>> shift);
+        return LINEAR_COUNT + (shift - 1) * SUB_COUNT + (top - SUB_COUNT);
+    }
+
+    static long highestEquivalent(int index) {
+        if (index < LINEAR_COUNT)
+            return index;
+        int shift = (index - LINEAR_COUNT) / SUB_COUNT + 1;
+        long top = (index - LINEAR_COUNT) % SUB_COUNT + SUB_COUNT;
+        return ((top + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.usbtest.pipeline;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Round trip latency probe over an echo link.
+ *
+ * The writer calls {@link #nextFrame} to stamp a probe, the receive path feeds every
+ * received chunk to {@link #onReceived}. The idle/loaded flag active at send time is
+ * carried in the lowest id bit, so samples land in the right histogram even when the
+ * phase changes while a probe is in flight.
+ */
+public class LatencyProbe implements ProbeFrame.Callback {
+
+    private final LatencyHistogram idle = new LatencyHistogram();
+    private final LatencyHistogram loaded = new LatencyHistogram();
+    private final ProbeFrame.Scanner scanner = new ProbeFrame.Scanner();
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong received = new AtomicLong();
+    private volatile boolean underLoad;
+
+    /**
+     * mark probes sent from now on as sent under background bulk load
+     */
+    public void setUnderLoad(boolean underLoad) {
+        this.underLoad = underLoad;
+    }
+
+    public boolean isUnderLoad() {
+        return underLoad;
+    }
+
+    /**
+     * encode the next probe into dst, at least {@link ProbeFrame#LENGTH} bytes
+     *
+     * @return frame length
+     */
+    public int nextFrame(byte[] dst) {
+        return nextFrame(dst, 0);
+    }
+
+    public int nextFrame(byte[] dst, int offset) {
+        long id = (sequence.incrementAndGet() << 1) | (underLoad ? 1 : 0);
+        return ProbeFrame.encode(dst, offset, id, System.nanoTime());
+    }
+
+    /**
+     * scan received bytes for echoed probes, call from the receive thread only
+     */
+    public void onReceived(byte[] data, int length) {
+        scanner.scan(data, 0, length, this);
+    }
+
+    @Override
+    public void onProbe(long id, long stamp) {
+        long rtt = System.nanoTime() - stamp;
+        received.incrementAndGet();
+        if ((id & 1) != 0)
+            loaded.record(rtt);
+        else
+            idle.record(rtt);
+    }
+
+    public LatencyHistogram idle() {
+        return idle;
+    }
+
+    public LatencyHistogram loaded() {
+        return loaded;
+    }
+
+    public long sent() {
+        return sequence.get();
+    }
+
+    /**
+     * probes not echoed (yet), includes the ones still in flight
+     */
+    public long unanswered() {
+        return sent() - received.get();
+    }
+
+    /**
+     * probe frames with a bad check byte
+     */
+    public long corrupt() {
+        return scanner.corrupt();
+    }
+
+    public String report() {
+        return "latency idle[" + idle.summary() + "] loaded[" + loaded.summary() + "] sent=" + sent()
+                + " unanswered=" + unanswered() + " corrupt=" + scanner.corrupt();
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.usbtest.pipeline;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free queue after Dmitry Vyukov's array queue: every cell carries a sequence
+ * number telling producers and consumers whose turn it is, so offer and poll each cost one
+ * CAS and never block. Safe for any number of producers and consumers, and unlike a linked
+ * stack it has no ABA problem when the same objects are queued again and again.
+ */
+final class LockFreeRing<E> {
+
+    private final AtomicReferenceArray<E> items;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong(); // next offer
+    private final AtomicLong head = new AtomicLong(); // next poll
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    LockFreeRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+        items = new AtomicReferenceArray<>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++)
+            sequences.set(i, i);
+        mask = size - 1;
+    }
+
+    /**
+     * @return false if full
+     */
+    boolean offer(E item) {
+        long pos = tail.get();
+        while (true) {
+            int index = (int) pos & mask;
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    items.lazySet(index, item);
+                    sequences.set(index, pos + 1); // publishes the item
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    /**
+     * @return null if empty
+     */
+    E poll() {
+        long pos = head.get();
+        while (true) {
+            int index = (int) pos & mask;
+            long diff = sequences.get(index) - (pos + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    E item = items.get(index);
+                    items.lazySet(index, null);
+                    sequences.set(index, pos + mask + 1); // free for the offer one lap later
+                    return item;
+                }
+                pos = head.get();
+            } else if (diff < 0) {
+                return null;
+            } else {
+                pos = head.get();
+            }
+        }
+    }
+
+    /**
+     * the item poll() would return without taking it, null if empty; for a single consumer,
+     * with more the item may be gone by the time it is looked at
+     */
+    E peek() {
+        long pos = head.get();
+        int index = (int) pos & mask;
+        return sequences.get(index) == pos + 1 ? items.get(index) : null;
+    }
+
+    /**
+     * approximate under concurrent use
+     */
+    int size() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+}
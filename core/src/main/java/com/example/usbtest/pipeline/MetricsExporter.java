@@ -0,0 +1,115 @@
+package com.example.usbtest.pipeline;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Renders registered metrics in the Prometheus / OpenMetrics text format and writes them
+ * to a file a scraper or node_exporter's textfile collector can pick up.
+ *
+ * Rendering runs on the caller's (export) thread. Values are read lock free, and so are
+ * histograms: their atomic counts are copied into a private snapshot once per export,
+ * without holding back the threads recording into them, so the serial threads never wait
+ * on formatting or file I/O.
+ */
+public class MetricsExporter {
+
+    public interface Value {
+        long get();
+    }
+
+    /** histogram bucket bounds, Prometheus histograms are in seconds */
+    static final long[] BUCKET_BOUNDS_NANOS = {
+            50_000L, 100_000L, 250_000L, 500_000L,
+            1_000_000L, 2_500_000L, 5_000_000L, 10_000_000L, 25_000_000L, 50_000_000L,
+            100_000_000L, 250_000_000L, 1_000_000_000L};
+
+    private static final String COUNTER = "counter";
+    private static final String GAUGE = "gauge";
+
+    private final List<String> names = new ArrayList<>();
+    private final List<String> helps = new ArrayList<>();
+    private final List<String> types = new ArrayList<>();
+    private final List<Value> values = new ArrayList<>();
+    private final List<LatencyHistogram> histograms = new ArrayList<>();
+    private final List<LatencyHistogram> snapshots = new ArrayList<>();
+    private final StringBuilder text = new StringBuilder(8192);
+
+    /**
+     * monotonic value, exported with a _total suffix
+     */
+    public synchronized void addCounter(String name, String help, Value value) {
+        add(name, help, COUNTER, value, null);
+    }
+
+    public synchronized void addGauge(String name, String help, Value value) {
+        add(name, help, GAUGE, value, null);
+    }
+
+    /**
+     * latency in nanoseconds, exported in seconds
+     */
+    public synchronized void addHistogram(String name, String help, LatencyHistogram histogram) {
+        add(name, help, "histogram", null, histogram);
+    }
+
+    private void add(String name, String help, String type, Value value, LatencyHistogram histogram) {
+        names.add(name);
+        helps.add(help);
+        types.add(type);
+        values.add(value);
+        histograms.add(histogram);
+        snapshots.add(histogram != null ? new LatencyHistogram() : null);
+    }
+
+    public synchronized String render() {
+        text.setLength(0);
+        for (int i = 0; i < names.size(); i++) {
+            String name = names.get(i);
+            String type = types.get(i);
+            text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+            text.append("# HELP ").append(name).append(' ').append(helps.get(i)).append('\n');
+            if (histograms.get(i) == null) {
+                text.append(name).append(COUNTER.equals(type) ? "_total " : " ")
+                        .append(values.get(i).get()).append('\n');
+                continue;
+            }
+            LatencyHistogram snapshot = snapshots.get(i);
+            histograms.get(i).copyTo(snapshot);
+            for (long bound : BUCKET_BOUNDS_NANOS) {
+                text.append(name).append("_bucket{le=\"").append(seconds(bound)).append("\"} ")
+                        .append(snapshot.countAtOrBelow(bound)).append('\n');
+            }
+            text.append(name).append("_bucket{le=\"+Inf\"} ").append(snapshot.count()).append('\n');
+            text.append(name).append("_sum ").append(seconds(snapshot.sum())).append('\n');
+            text.append(name).append("_count ").append(snapshot.count()).append('\n');
+        }
+        text.append("# EOF\n");
+        return text.toString();
+    }
+
+    /**
+     * write to a temporary file next to file and rename it over, scrapers never see a partial file
+     */
+    public void writeTo(File file) throws IOException {
+        byte[] bytes = render().getBytes(StandardCharsets.UTF_8);
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(bytes);
+            out.getFD().sync();
+        }
+        if (!tmp.renameTo(file))
+            throw new IOException("cannot rename " + tmp + " to " + file);
+    }
+
+    private static String seconds(long nanos) {
+        if (nanos == 0)
+            return "0";
+        return BigDecimal.valueOf(nanos).movePointLeft(9).stripTrailingZeros().toPlainString();
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.usbtest.pipeline;
+
+/**
+ * Checks echoed {@link JsonPayloadGenerator} frames byte for byte by regenerating them
+ * from their stream id and sequence number, no copy of the sent data is kept.
+ *
+ * Bytes between frames (e.g. latency probes) are skipped, a frame is located by its
+ * prefix when the terminator arrives. Memory is constant: one frame buffer, one scratch
+ * buffer and the expected sequence of up to {@link #MAX_STREAMS} streams.
+ * Feed from one thread only.
+ */
+public class PayloadVerifier {
+
+    public static final int MAX_STREAMS = 16;
+
+    public interface Listener {
+        /**
+         * an intact frame arrived, called on the receive thread
+         */
+        void onVerified(long streamId, long sequence);
+    }
+
+    private final byte[] frame = new byte[JsonPayloadGenerator.MAX_FRAME_LENGTH * 2];
+    private final byte[] expected = new byte[JsonPayloadGenerator.MAX_FRAME_LENGTH];
+    private final byte[] terminator = JsonPayloadGenerator.TERMINATOR_BYTES;
+    private final byte[] prefix = JsonPayloadGenerator.PREFIX;
+    private int fill;
+    private Listener listener;
+
+    private final long[] streamIds = new long[MAX_STREAMS];
+    private final long[] nextSequence = new long[MAX_STREAMS];
+    private final JsonPayloadGenerator[] generators = new JsonPayloadGenerator[MAX_STREAMS];
+    private int streams;
+
+    private long verified;
+    private long corrupt;
+    private long missing;
+    private long reordered;
+    private long skippedBytes;
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void onReceived(byte[] data, int length) {
+        for (int i = 0; i < length; i++) {
+            if (fill == frame.length) {
+                // no terminator within two frames, keep the second half to resync
+                int keep = frame.length / 2;
+                System.arraycopy(frame, frame.length - keep, frame, 0, keep);
+                skippedBytes += frame.length - keep;
+                fill = keep;
+            }
+            frame[fill++] = data[i];
+            if (endsWithTerminator())
+                onFrame();
+        }
+    }
+
+    private boolean endsWithTerminator() {
+        if (fill < terminator.length)
+            return false;
+        for (int i = 0; i < terminator.length; i++)
+            if (frame[fill - terminator.length + i] != terminator[i])
+                return false;
+        return true;
+    }
+
+    private void onFrame() {
+        int start = lastIndexOfPrefix();
+        if (start < 0) {
+            skippedBytes += fill;
+            fill = 0;
+            return;
+        }
+        skippedBytes += start;
+        int length = fill - start;
+        fill = 0;
+
+        int pos = start + prefix.length;
+        long streamId = 0, sequence = 0;
+        int digits = 0;
+        while (pos < start + length && frame[pos] >= '0' && frame[pos] <= '9' && digits++ < 18)
+            streamId = streamId * 10 + (frame[pos++] - '0');
+        pos += 7; // ,"seq":
+        digits = 0;
+        while (pos < start + length && frame[pos] >= '0' && frame[pos] <= '9' && digits++ < 18)
+            sequence = sequence * 10 + (frame[pos++] - '0');
+
+        int stream = stream(streamId);
+        if (stream < 0) {
+            corrupt++;
+            return;
+        }
+        int expectedLength = generators[stream].encode(expected, 0, sequence);
+        boolean same = expectedLength == length;
+        for (int i = 0; same && i < length; i++)
+            same = expected[i] == frame[start + i];
+        if (!same) {
+            corrupt++;
+            return;
+        }
+        verified++;
+        if (listener != null)
+            listener.onVerified(streamId, sequence);
+        long next = nextSequence[stream];
+        if (sequence > next)
+            missing += sequence - next;
+        else if (sequence < next)
+            reordered++;
+        nextSequence[stream] = Math.max(next, sequence + 1);
+    }
+
+    private int lastIndexOfPrefix() {
+        for (int start = fill - prefix.length; start >= 0; start--) {
+            int i = 0;
+            while (i < prefix.length && frame[start + i] == prefix[i])
+                i++;
+            if (i == prefix.length)
+                return start;
+        }
+        return -1;
+    }
+
+    private int stream(long streamId) {
+        for (int i = 0; i < streams; i++)
+            if (streamIds[i] == streamId)
+                return i;
+        if (streams == MAX_STREAMS)
+            return -1;
+        streamIds[streams] = streamId;
+        generators[streams] = new JsonPayloadGenerator(streamId);
+        return streams++;
+    }
+
+    public long verified() {
+        return verified;
+    }
+
+    public long corrupt() {
+        return corrupt;
+    }
+
+    /**
+     * frames never seen, from gaps in the sequence numbers
+     */
+    public long missing() {
+        return missing;
+    }
+
+    public long reordered() {
+        return reordered;
+    }
+
+    public String report() {
+        return "verify: ok=" + verified + " corrupt=" + corrupt + " missing=" + missing
+                + " reordered=" + reordered + " skippedBytes=" + skippedBytes;
+    }
+}
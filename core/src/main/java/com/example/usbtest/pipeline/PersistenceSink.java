@@ -0,0 +1,254 @@
+package com.example.usbtest.pipeline;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes decoded samples to storage in large transactions on a thread of its own.
+ *
+ * The receive thread copies each sample into a row from a fixed pool and queues it,
+ * neither allocates nor touches the disk. The sink thread waits until a batch is full or
+ * its oldest row is about {@code maxDelayNanos} old, then inserts the queued rows in one
+ * transaction. When the disk can't keep up the pool runs empty: an offer then waits up
+ * to {@code blockNanos} for a row to free up, which holds back the receive thread and
+ * with it the device, and after that drops the sample and counts it. A failed
+ * transaction is rolled back and its rows are counted as failed, the sink keeps going.
+ */
+public class PersistenceSink {
+
+    public interface Backend {
+        // all called on the sink thread
+
+        void begin() throws IOException;
+
+        void insert(long timestampNanos, double[] values) throws IOException;
+
+        void commit() throws IOException;
+
+        /**
+         * end the transaction begun without committing it
+         */
+        void abort();
+
+        void close();
+    }
+
+    private static final long OFFER_PARK_NANOS = 50_000;
+
+    private static final class Row {
+        long timestampNanos;
+        long queuedNanos;
+        final double[] values;
+
+        Row(int fields) {
+            values = new double[fields];
+        }
+    }
+
+    private final Backend backend;
+    private final int fields;
+    private final int batchRows;
+    private final long maxDelayNanos;
+    private final long blockNanos;
+    private final LockFreeRing<Row> pool;
+    private final LockFreeRing<Row> queue;
+    private final Thread thread;
+    private volatile boolean running;
+
+    private volatile long offered;
+    private volatile long dropped;
+    private volatile long blockedNanos;
+    private volatile long rows;
+    private volatile long failed;
+    private volatile long commits;
+    private volatile long busyNanos;
+    private volatile long firstOfferNanos;
+    private volatile long lastCommitNanos;
+    private volatile String lastError;
+    private final LatencyHistogram commitLatency = new LatencyHistogram();
+
+    /**
+     * @param capacity      rows that may wait for the disk, a few batches
+     * @param batchRows     rows per transaction when they come in fast enough
+     * @param maxDelayNanos longest a row waits for its batch to fill
+     * @param blockNanos    longest an offer waits for a free row before dropping, 0 drops at once
+     */
+    public PersistenceSink(Backend backend, int fields, int capacity, int batchRows, long maxDelayNanos, long blockNanos) {
+        this.backend = backend;
+        this.fields = fields;
+        this.batchRows = batchRows;
+        this.maxDelayNanos = maxDelayNanos;
+        this.blockNanos = blockNanos;
+        pool = new LockFreeRing<>(capacity);
+        queue = new LockFreeRing<>(capacity);
+        for (int i = 0; i < capacity; i++)
+            pool.offer(new Row(fields));
+        thread = new Thread(this::run, "SerialPersist");
+    }
+
+    public void start() {
+        running = true;
+        thread.start();
+    }
+
+    /**
+     * write what is queued, then close the backend; returns at once, the sink thread
+     * finishes on its own
+     */
+    public void requestStop() {
+        running = false;
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * requestStop() and wait until the backend is closed
+     */
+    public void stop() throws InterruptedException {
+        requestStop();
+        thread.join();
+    }
+
+    /**
+     * queue a copy of the sample, call from one thread
+     *
+     * @return false if it was dropped
+     */
+    public boolean offer(long timestampNanos, double[] values) {
+        if (firstOfferNanos == 0)
+            firstOfferNanos = System.nanoTime();
+        offered++;
+        Row row = pool.poll();
+        if (row == null && blockNanos > 0) {
+            long start = System.nanoTime();
+            LockSupport.unpark(thread);
+            do {
+                LockSupport.parkNanos(this, OFFER_PARK_NANOS);
+                row = pool.poll();
+            } while (row == null && System.nanoTime() - start < blockNanos);
+            blockedNanos += System.nanoTime() - start;
+        }
+        if (row == null) {
+            dropped++;
+            return false;
+        }
+        row.timestampNanos = timestampNanos;
+        System.arraycopy(values, 0, row.values, 0, fields);
+        row.queuedNanos = System.nanoTime();
+        queue.offer(row); // as many cells as rows, never full
+        if (queue.size() >= batchRows)
+            LockSupport.unpark(thread);
+        return true;
+    }
+
+    private void run() {
+        while (running || queue.size() > 0) {
+            int queued = queue.size();
+            // aged from its offer, not from when this thread noticed it
+            Row oldest = queue.peek();
+            long waited = oldest != null ? System.nanoTime() - oldest.queuedNanos : 0;
+            // a short batch goes out early when stopping or when offers wait for rows
+            if (queued == 0 || queued < batchRows && running && pool.size() > 0 && waited < maxDelayNanos) {
+                LockSupport.parkNanos(this, queued == 0 ? maxDelayNanos : maxDelayNanos - waited);
+                continue;
+            }
+            writeBatch(Math.min(queued, batchRows));
+        }
+        backend.close();
+    }
+
+    private void writeBatch(int count) {
+        long start = System.nanoTime();
+        int taken = 0;
+        try {
+            backend.begin();
+            try {
+                while (taken < count) {
+                    Row row = queue.poll();
+                    taken++;
+                    try {
+                        backend.insert(row.timestampNanos, row.values);
+                    } finally {
+                        pool.offer(row);
+                    }
+                }
+                backend.commit();
+            } catch (IOException | RuntimeException e) {
+                backend.abort();
+                throw e;
+            }
+            rows += count;
+            commits++;
+        } catch (IOException | RuntimeException e) {
+            // the rest of the batch is given up too, so the queue keeps draining
+            for (; taken < count; taken++)
+                pool.offer(queue.poll());
+            failed += count;
+            lastError = e.toString();
+        }
+        long end = System.nanoTime();
+        commitLatency.record(end - start);
+        busyNanos += end - start;
+        lastCommitNanos = end;
+    }
+
+    public long rows() {
+        return rows;
+    }
+
+    public long dropped() {
+        return dropped;
+    }
+
+    /**
+     * rows lost to failed transactions
+     */
+    public long failed() {
+        return failed;
+    }
+
+    public long commits() {
+        return commits;
+    }
+
+    /**
+     * time offers waited for a free row
+     */
+    public long blockedNanos() {
+        return blockedNanos;
+    }
+
+    /**
+     * begin to commit of each transaction
+     */
+    public LatencyHistogram commitLatency() {
+        return commitLatency;
+    }
+
+    /**
+     * rows written per second since the first offer
+     */
+    public double rowsPerSecond() {
+        long first = firstOfferNanos;
+        long last = lastCommitNanos;
+        return first == 0 || last - first <= 0 ? 0 : rows * 1e9 / (last - first);
+    }
+
+    /**
+     * rows per second the backend managed while writing, the ceiling for rowsPerSecond()
+     */
+    public double capacityRowsPerSecond() {
+        long busy = busyNanos;
+        return busy == 0 ? 0 : rows * 1e9 / busy;
+    }
+
+    public String report() {
+        String error = lastError;
+        return String.format(Locale.US, "persist: %d of %d rows, %.0f rows/s sustained, %.0f rows/s capacity,"
+                        + " %d commits, %d dropped, %d failed, %.1f ms blocked, commit %s%s",
+                rows, offered, rowsPerSecond(), capacityRowsPerSecond(), commits, dropped, failed,
+                TimeUnit.NANOSECONDS.toMicros(blockedNanos) / 1e3, commitLatency.summary(),
+                error != null ? ", last error " + error : "");
+    }
+}
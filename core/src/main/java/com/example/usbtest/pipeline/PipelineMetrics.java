@@ -0,0 +1,86 @@
+package com.example.usbtest.pipeline;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the serial pipeline.
+ *
+ * Byte and frame counters have a single writer each (the write loop, the receive path)
+ * and are published with lazySet, so counting costs a plain add and a store, without
+ * CAS or locks the exporter could contend on. Errors and connects are rare and atomic.
+ */
+public class PipelineMetrics {
+
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong framesWritten = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong writeErrors = new AtomicLong();
+    private final AtomicLong readErrors = new AtomicLong();
+    private final AtomicLong connects = new AtomicLong();
+
+    /**
+     * write loop only
+     */
+    public void wrote(int bytes, int frames) {
+        bytesWritten.lazySet(bytesWritten.get() + bytes);
+        framesWritten.lazySet(framesWritten.get() + frames);
+    }
+
+    /**
+     * receive path only
+     */
+    public void read(int bytes) {
+        bytesRead.lazySet(bytesRead.get() + bytes);
+    }
+
+    public void writeError() {
+        writeErrors.incrementAndGet();
+    }
+
+    public void readError() {
+        readErrors.incrementAndGet();
+    }
+
+    public void connected() {
+        connects.incrementAndGet();
+    }
+
+    public long bytesWritten() {
+        return bytesWritten.get();
+    }
+
+    public long framesWritten() {
+        return framesWritten.get();
+    }
+
+    public long bytesRead() {
+        return bytesRead.get();
+    }
+
+    public long writeErrors() {
+        return writeErrors.get();
+    }
+
+    public long readErrors() {
+        return readErrors.get();
+    }
+
+    /**
+     * connections opened after the first one
+     */
+    public long reconnects() {
+        return Math.max(0, connects.get() - 1);
+    }
+
+    /**
+     * register all counters with exporter
+     */
+    public void exportTo(MetricsExporter exporter) {
+        exporter.addCounter("serial_written_bytes", "bytes written to the port", this::bytesWritten);
+        exporter.addCounter("serial_written_frames", "payload frames written", this::framesWritten);
+        exporter.addCounter("serial_read_bytes", "bytes received from the port", this::bytesRead);
+        exporter.addCounter("serial_write_errors", "failed writes", this::writeErrors);
+        exporter.addCounter("serial_read_errors", "read loop failures", this::readErrors);
+        exporter.addCounter("serial_reconnects", "connections opened after the first", this::reconnects);
+    }
+}
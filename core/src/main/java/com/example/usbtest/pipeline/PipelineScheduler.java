@@ -0,0 +1,31 @@
+package com.example.usbtest.pipeline;
+
+/**
+ * Where pipeline work (writer loop, receive processing, benchmarks) runs.
+ *
+ * Same shape as the part of android.os.Handler the pipeline used, so the pipeline does
+ * not depend on a Looper and the scheduling model can be swapped and compared.
+ */
+public interface PipelineScheduler {
+
+    String DEDICATED = "dedicated";
+    String POOL = "pool";
+    String VIRTUAL = "virtual";
+
+    interface Factory {
+        /**
+         * @param priority Android nice value, -20 (highest) .. 19
+         * @return null if kind is unknown or not supported here
+         */
+        PipelineScheduler create(String kind, String name, int priority);
+    }
+
+    void post(Runnable task);
+
+    void postDelayed(Runnable task, long delayMillis);
+
+    /**
+     * stop accepting work, pending tasks are dropped
+     */
+    void shutdown();
+}
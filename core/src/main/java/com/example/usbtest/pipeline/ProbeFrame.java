@@ -0,0 +1,102 @@
+package com.example.usbtest.pipeline;
+
+/**
+ * Latency probe frame: magic, id and System.nanoTime() stamp of the sender.
+ *
+ * <pre>
+ * 0xA5 0x5A | id (8 bytes, big endian) | stamp (8 bytes, big endian) | xor of id+stamp
+ * </pre>
+ * The magic bytes never occur in the ASCII JSON payload, so probes can be interleaved
+ * with bulk traffic and found again by {@link Scanner} in the echoed byte stream.
+ */
+public final class ProbeFrame {
+
+    public static final int LENGTH = 19;
+
+    private static final byte MAGIC0 = (byte) 0xA5;
+    private static final byte MAGIC1 = (byte) 0x5A;
+
+    public interface Callback {
+        void onProbe(long id, long stamp);
+    }
+
+    private ProbeFrame() {
+    }
+
+    /**
+     * @return number of bytes written to dst
+     */
+    public static int encode(byte[] dst, int offset, long id, long stamp) {
+        dst[offset] = MAGIC0;
+        dst[offset + 1] = MAGIC1;
+        putLong(dst, offset + 2, id);
+        putLong(dst, offset + 10, stamp);
+        byte check = 0;
+        for (int i = offset + 2; i < offset + 18; i++)
+            check ^= dst[i];
+        dst[offset + 18] = check;
+        return LENGTH;
+    }
+
+    private static void putLong(byte[] dst, int offset, long v) {
+        for (int i = 7; i >= 0; i--) {
+            dst[offset + i] = (byte) v;
+            v >>>= 8;
+        }
+    }
+
+    /**
+     * Incremental probe finder, frames may be split across any number of chunks.
+     * Not thread safe, feed it from the receive thread only.
+     */
+    public static class Scanner {
+        private final byte[] frame = new byte[LENGTH];
+        private int fill;
+        private long corrupt;
+
+        public void scan(byte[] data, int offset, int length, Callback callback) {
+            for (int i = offset; i < offset + length; i++) {
+                byte b = data[i];
+                if (fill == 0) {
+                    if (b == MAGIC0)
+                        frame[fill++] = b;
+                } else if (fill == 1) {
+                    if (b == MAGIC1)
+                        frame[fill++] = b;
+                    else
+                        fill = b == MAGIC0 ? 1 : 0;
+                } else {
+                    frame[fill++] = b;
+                    if (fill == LENGTH) {
+                        fill = 0;
+                        emit(callback);
+                    }
+                }
+            }
+        }
+
+        /**
+         * frames with magic but bad check byte
+         */
+        public long corrupt() {
+            return corrupt;
+        }
+
+        private void emit(Callback callback) {
+            byte check = 0;
+            long id = 0, stamp = 0;
+            for (int i = 2; i < 18; i++) {
+                check ^= frame[i];
+                if (i < 10)
+                    id = (id << 8) | (frame[i] & 0xff);
+                else
+                    stamp = (stamp << 8) | (frame[i] & 0xff);
+            }
+            if (check != frame[18]) {
+                corrupt++;
+                return;
+            }
+            callback.onProbe(id, stamp);
+        }
+    }
+}
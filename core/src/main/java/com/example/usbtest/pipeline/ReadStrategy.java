@@ -0,0 +1,42 @@
+package com.example.usbtest.pipeline;
+
+import java.io.IOException;
+
+/**
+ * How received bytes get from the link to the pipeline.
+ *
+ * Implementations own their read thread(s). The buffer handed to the {@link Sink}
+ * may be reused as soon as the call returns, copy what has to outlive it.
+ */
+public interface ReadStrategy {
+
+    String BLOCKING = "blocking";
+
+    interface Sink {
+        /**
+         * called on the read thread, data is only valid during the call
+         */
+        void onData(byte[] data, int length);
+
+        void onRunError(Exception e);
+    }
+
+    interface Factory {
+        /**
+         * @return null if the strategy is not available for this link
+         */
+        ReadStrategy create(String name, SerialLink link, int bufferSize);
+    }
+
+    /**
+     * knows {@link #BLOCKING} only, usable for any link
+     */
+    Factory DEFAULT_FACTORY = (name, link, bufferSize) ->
+            BLOCKING.equals(name) ? new BlockingReadStrategy(link, bufferSize) : null;
+
+    String name();
+
+    void start(Sink sink) throws IOException;
+
+    void stop();
+}
@@ -0,0 +1,122 @@
+package com.example.usbtest.pipeline;
+
+import java.util.Locale;
+
+/**
+ * Decides when to retry a lost link and accounts downtime per incident.
+ *
+ * Transient I/O errors are retried with exponential backoff and equal jitter (half the
+ * delay fixed, half random) so many devices failing together don't retry in lockstep.
+ * Missing permission is polled at the maximum delay, a detached device is not polled at
+ * all, the caller retries when it is attached again. Not thread safe, use from one thread.
+ */
+public class RecoverySupervisor {
+
+    public static final int TRANSIENT = 0;
+    public static final int PERMISSION = 1;
+    public static final int DETACHED = 2;
+
+    /** {@link #failed} result: don't retry until the device is attached */
+    public static final long WAIT_FOR_DEVICE = -1;
+
+    private static final String[] KIND_NAMES = {"transient", "permission", "detached"};
+
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private final SplitMix64 random;
+    private final long startNanos;
+
+    private boolean down;
+    private long downSinceNanos;
+    private int attempts;
+    private int lastKind = TRANSIENT;
+    private long incidents;
+    private long totalDowntimeNanos;
+    private final long[] incidentsByKind = new long[KIND_NAMES.length];
+    private final LatencyHistogram downtime = new LatencyHistogram();
+
+    public RecoverySupervisor(long initialDelayMillis, long maxDelayMillis, long seed, long nowNanos) {
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        random = new SplitMix64(seed);
+        startNanos = nowNanos;
+    }
+
+    /**
+     * the link failed or an attempt to reopen it did, opens an incident if none is open
+     *
+     * @return millis to wait before the next attempt, or {@link #WAIT_FOR_DEVICE}
+     */
+    public long failed(int kind, long nowNanos) {
+        if (!down) {
+            down = true;
+            downSinceNanos = nowNanos;
+            attempts = 0;
+            incidents++;
+            incidentsByKind[kind]++;
+        }
+        lastKind = kind;
+        if (kind == DETACHED)
+            return WAIT_FOR_DEVICE;
+        if (kind == PERMISSION)
+            return maxDelayMillis;
+        long delay = initialDelayMillis << Math.min(attempts++, 30);
+        if (delay > maxDelayMillis || delay <= 0)
+            delay = maxDelayMillis;
+        long half = delay / 2;
+        return half + (half > 0 ? (random.nextLong() >>> 1) % (half + 1) : 0);
+    }
+
+    /**
+     * the link is up again, closes the open incident
+     *
+     * @return downtime of the incident in nanos, 0 if none was open
+     */
+    public long recovered(long nowNanos) {
+        if (!down)
+            return 0;
+        down = false;
+        long nanos = nowNanos - downSinceNanos;
+        totalDowntimeNanos += nanos;
+        downtime.record(nanos);
+        return nanos;
+    }
+
+    public boolean isDown() {
+        return down;
+    }
+
+    public int lastKind() {
+        return lastKind;
+    }
+
+    public long incidents() {
+        return incidents;
+    }
+
+    public LatencyHistogram downtime() {
+        return downtime;
+    }
+
+    /**
+     * fraction of the time since construction the link was up, counting an open incident
+     */
+    public double availability(long nowNanos) {
+        long elapsed = nowNanos - startNanos;
+        if (elapsed <= 0)
+            return 1;
+        long downNanos = totalDowntimeNanos + (down ? nowNanos - downSinceNanos : 0);
+        return 1 - (double) downNanos / elapsed;
+    }
+
+    public static String kindName(int kind) {
+        return KIND_NAMES[kind];
+    }
+
+    public String report(long nowNanos) {
+        return String.format(Locale.US, "recovery: incidents=%d (transient=%d permission=%d detached=%d)"
+                        + " availability=%.4f%% downtime %s", incidents, incidentsByKind[TRANSIENT],
+                incidentsByKind[PERMISSION], incidentsByKind[DETACHED], availability(nowNanos) * 100,
+                downtime.summary());
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.usbtest.pipeline;
+
+/**
+ * Process resource readings for {@link SoakMonitor}, {@link #UNKNOWN} where the platform
+ * has no such counter.
+ */
+public interface RuntimeSampler {
+
+    long UNKNOWN = -1;
+
+    long heapUsedBytes();
+
+    long nativeHeapBytes();
+
+    /**
+     * collections since process start
+     */
+    long gcCount();
+
+    /**
+     * time spent collecting since process start
+     */
+    long gcTimeMillis();
+
+    int threadCount();
+}
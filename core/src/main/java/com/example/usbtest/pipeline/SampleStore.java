@@ -0,0 +1,293 @@
+package com.example.usbtest.pipeline;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Columnar in-memory time series: a timestamp and a fixed number of double fields per
+ * sample, kept as primitive arrays in chunks of {@code chunkSamples} samples.
+ *
+ * The memory budget fixes the number of chunks; once all are in use the oldest chunk is
+ * recycled for new samples, so a full store allocates nothing and never grows. Each chunk
+ * keeps count, min, max and sum per field, so a rollup reads those for the chunks a range
+ * covers completely and scans only the two chunks at its ends. A missing value is stored
+ * as NaN; summaries and rollups leave it out and count it as missing.
+ *
+ * One thread appends. Any thread may scan and roll up concurrently: readers lock one
+ * chunk at a time, and the writer locks a chunk only to recycle it, so a reader holds
+ * back the writer at most while it visits the oldest chunk. Timestamps must not go
+ * backwards; a sample older than the one before is stored with the previous timestamp
+ * and counted.
+ */
+public class SampleStore {
+
+    public interface Visitor {
+        /**
+         * samples [from, to) of one chunk, the arrays belong to the store: read, don't keep
+         */
+        void visit(long[] timestamps, double[] values, int from, int to);
+    }
+
+    /**
+     * count, min, max and mean of one field over a range, reusable
+     */
+    public static final class Rollup {
+        public long count;
+        public long missing;
+        public double min;
+        public double max;
+        public double sum;
+
+        public Rollup reset() {
+            count = 0;
+            missing = 0;
+            min = Double.POSITIVE_INFINITY;
+            max = Double.NEGATIVE_INFINITY;
+            sum = 0;
+            return this;
+        }
+
+        public double mean() {
+            return count == 0 ? Double.NaN : sum / count;
+        }
+
+        void add(double value) {
+            if (Double.isNaN(value)) {
+                missing++;
+                return;
+            }
+            count++;
+            sum += value;
+            if (value < min)
+                min = value;
+            if (value > max)
+                max = value;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "n=%d min=%.5f mean=%.5f max=%.5f%s", count, min, mean(), max,
+                    missing > 0 ? ", " + missing + " missing" : "");
+        }
+    }
+
+    private static final class Chunk {
+        long firstIndex; // changed only under the chunk's lock
+        final long[] timestamps;
+        final double[][] columns;
+        final int[] count;
+        final double[] min;
+        final double[] max;
+        final double[] sum;
+
+        Chunk(int fields, int samples) {
+            timestamps = new long[samples];
+            columns = new double[fields][samples];
+            count = new int[fields];
+            min = new double[fields];
+            max = new double[fields];
+            sum = new double[fields];
+        }
+
+        void reset(long firstIndex) {
+            this.firstIndex = firstIndex;
+            Arrays.fill(count, 0);
+            Arrays.fill(min, Double.POSITIVE_INFINITY);
+            Arrays.fill(max, Double.NEGATIVE_INFINITY);
+            Arrays.fill(sum, 0);
+        }
+    }
+
+    private final int fields;
+    private final int chunkSamples;
+    private final Chunk[] chunks;
+    private final long chunkBytes;
+    private volatile long start; // oldest retained sample index
+    private volatile long end; // index of the next sample, publishes appended samples
+
+    // written by the appending thread only
+    private Chunk current;
+    private long lastTimestamp = Long.MIN_VALUE;
+    private volatile long clamped;
+    private volatile int allocated;
+
+    /**
+     * @param budgetBytes memory for samples, at least two chunks are kept whatever it says
+     */
+    public SampleStore(int fields, int chunkSamples, long budgetBytes) {
+        this.fields = fields;
+        this.chunkSamples = chunkSamples;
+        chunkBytes = (long) chunkSamples * 8 * (1 + fields) + fields * 28L;
+        chunks = new Chunk[(int) Math.min(Integer.MAX_VALUE, Math.max(2, budgetBytes / chunkBytes))];
+    }
+
+    /**
+     * @param values at least {@code fields} values, copied
+     */
+    public void append(long timestamp, double[] values) {
+        long index = end;
+        int slot = (int) (index % chunkSamples);
+        if (slot == 0)
+            current = chunkFor(index);
+        if (timestamp < lastTimestamp) {
+            timestamp = lastTimestamp;
+            clamped++;
+        }
+        lastTimestamp = timestamp;
+        Chunk chunk = current;
+        chunk.timestamps[slot] = timestamp;
+        for (int f = 0; f < fields; f++) {
+            double value = values[f];
+            chunk.columns[f][slot] = value;
+            if (Double.isNaN(value))
+                continue;
+            chunk.count[f]++;
+            chunk.sum[f] += value;
+            if (value < chunk.min[f])
+                chunk.min[f] = value;
+            if (value > chunk.max[f])
+                chunk.max[f] = value;
+        }
+        end = index + 1;
+    }
+
+    private Chunk chunkFor(long index) {
+        int ring = (int) (index / chunkSamples % chunks.length);
+        Chunk chunk = chunks[ring];
+        if (chunk == null) {
+            chunk = new Chunk(fields, chunkSamples);
+            chunk.reset(index);
+            chunks[ring] = chunk; // published to readers by the write to end
+            allocated++;
+            return chunk;
+        }
+        synchronized (chunk) {
+            start = index - (long) (chunks.length - 1) * chunkSamples;
+            chunk.reset(index);
+        }
+        return chunk;
+    }
+
+    public int fields() {
+        return fields;
+    }
+
+    /**
+     * index of the oldest sample still stored
+     */
+    public long startIndex() {
+        return start;
+    }
+
+    /**
+     * index the next sample will get, i.e. samples ever appended
+     */
+    public long endIndex() {
+        return end;
+    }
+
+    public long size() {
+        return end - start;
+    }
+
+    /**
+     * @return timestamp of a stored sample, Long.MIN_VALUE if it was evicted
+     */
+    public long timestampAt(long index) {
+        Chunk chunk = chunks[(int) (index / chunkSamples % chunks.length)];
+        long first = index - index % chunkSamples;
+        synchronized (chunk) {
+            return chunk.firstIndex == first ? chunk.timestamps[(int) (index - first)] : Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * @return index of the first stored sample at or after timestamp, endIndex() if none
+     */
+    public long indexAt(long timestamp) {
+        long high = end;
+        long low = start;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (timestampAt(mid) < timestamp)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * visit field's samples with from &lt;= timestamp &lt; to, oldest first, chunk by chunk
+     *
+     * @return samples visited
+     */
+    public long scan(long from, long to, int field, Visitor visitor) {
+        return visit(indexAt(from), indexAt(to), field, visitor, null);
+    }
+
+    /**
+     * fold field's samples with from &lt;= timestamp &lt; to into rollup, which is reset first
+     */
+    public Rollup rollup(long from, long to, int field, Rollup rollup) {
+        rollup.reset();
+        visit(indexAt(from), indexAt(to), field, null, rollup);
+        return rollup;
+    }
+
+    private long visit(long from, long to, int field, Visitor visitor, Rollup rollup) {
+        long visited = 0;
+        long index = Math.max(from, start);
+        while (index < to) {
+            long first = index - index % chunkSamples;
+            Chunk chunk = chunks[(int) (first / chunkSamples % chunks.length)];
+            int lo = (int) (index - first);
+            int hi = (int) (Math.min(to, first + chunkSamples) - first);
+            synchronized (chunk) {
+                if (chunk.firstIndex == first) {
+                    if (visitor != null) {
+                        visitor.visit(chunk.timestamps, chunk.columns[field], lo, hi);
+                    } else if (lo == 0 && hi == chunkSamples) {
+                        // complete chunk, its summary is final
+                        rollup.count += chunk.count[field];
+                        rollup.missing += chunkSamples - chunk.count[field];
+                        rollup.sum += chunk.sum[field];
+                        rollup.min = Math.min(rollup.min, chunk.min[field]);
+                        rollup.max = Math.max(rollup.max, chunk.max[field]);
+                    } else {
+                        double[] column = chunk.columns[field];
+                        for (int i = lo; i < hi; i++)
+                            rollup.add(column[i]);
+                    }
+                    visited += hi - lo;
+                }
+                // else recycled while we got here, its samples are gone
+            }
+            index = first + hi;
+        }
+        return visited;
+    }
+
+    /**
+     * samples stored with the previous timestamp because theirs went backwards
+     */
+    public long clamped() {
+        return clamped;
+    }
+
+    /**
+     * bytes of the chunks allocated so far
+     */
+    public long memoryBytes() {
+        return allocated * chunkBytes;
+    }
+
+    public long budgetBytes() {
+        return chunks.length * chunkBytes;
+    }
+
+    public String report() {
+        return String.format(Locale.US, "store: %d samples of %d fields, %.1f of %.1f MB, %d evicted, %d clamped",
+                size(), fields, memoryBytes() / 1e6, budgetBytes() / 1e6, start, clamped);
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.usbtest.pipeline;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scheduler kinds available on any JVM, and a lateness probe to compare them
+ */
+public final class Schedulers {
+
+    private static final int POOL_THREADS = 2;
+
+    private Schedulers() {
+    }
+
+    public static PipelineScheduler.Factory factory(ThreadTuner tuner) {
+        return (kind, name, priority) -> {
+            if (PipelineScheduler.DEDICATED.equals(kind))
+                return ExecutorScheduler.dedicated(name, priority, tuner);
+            if (PipelineScheduler.POOL.equals(kind))
+                return ExecutorScheduler.pool(name, POOL_THREADS, priority, tuner);
+            if (PipelineScheduler.VIRTUAL.equals(kind))
+                return VirtualThreadScheduler.createIfSupported(name);
+            return null;
+        };
+    }
+
+    /**
+     * Schedule count tasks delayMillis apart, one after the other like the writer loop does,
+     * and record how late each one ran. The tail of this histogram is the scheduling
+     * model's contribution to pipeline tail latency.
+     */
+    public static LatencyHistogram measureLateness(PipelineScheduler scheduler, int count, long delayMillis)
+            throws InterruptedException {
+        LatencyHistogram lateness = new LatencyHistogram();
+        CountDownLatch done = new CountDownLatch(1);
+        long delayNanos = TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        scheduler.postDelayed(new Runnable() {
+            long due = System.nanoTime() + delayNanos;
+            int remaining = count;
+
+            @Override
+            public void run() {
+                long now = System.nanoTime();
+                lateness.record(now - due);
+                if (--remaining == 0) {
+                    done.countDown();
+                    return;
+                }
+                due = now + delayNanos;
+                scheduler.postDelayed(this, delayMillis);
+            }
+        }, delayMillis);
+        done.await(count * (delayMillis + 100) + 1000, TimeUnit.MILLISECONDS);
+        return lateness;
+    }
+}
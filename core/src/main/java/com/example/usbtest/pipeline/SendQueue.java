@@ -0,0 +1,376 @@
+package com.example.usbtest.pipeline;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Many producers, one writer thread that owns the link.
+ *
+ * Each {@link Producer} is a SerialLink whose write() copies into a pooled buffer and
+ * queues it on a lock-free ring, so producers never wait on each other or on the port,
+ * only on an empty pool (backpressure). The writer drains the ring, coalescing whole
+ * buffers into one link write where they fit, and returns the buffers to the pool.
+ * Writes are never split, a frame written by one producer is never interleaved with
+ * another's.
+ *
+ * Producers write to a lane. The {@link #CONTROL} lane preempts {@link #BULK} at write
+ * boundaries: the writer takes control writes first, but after controlWeight of them in a
+ * row with bulk waiting it takes one bulk write, so bulk keeps a share under any control
+ * load. Each lane has its own buffer pool, bulk filling up cannot hold control back, and
+ * coalescing stops at maxCoalesce bytes so a control write waits for at most one such
+ * link write.
+ *
+ * Per producer the time to get a write queued (enqueue latency, includes waiting for a
+ * buffer) and the time it then waited for the port are metered, per lane the queueing
+ * latency and queue depth. close() stops the writer, the link stays open for whoever
+ * opened it.
+ *
+ * A link write that fails drops the buffers it carried and is counted. Its error goes to
+ * each producer whose data it carried, {@link Producer#takeFailure()} hands it out once;
+ * writes keep going out as usual, a producer's write() is never refused for an earlier
+ * failure, its own or another's.
+ */
+public class SendQueue implements Runnable {
+
+    public static final int CONTROL = 0;
+    public static final int BULK = 1;
+    private static final String[] LANE_NAMES = {"control", "bulk"};
+    public static final int DEFAULT_CONTROL_WEIGHT = 4;
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long POOL_WAIT_PARK_NANOS = 20_000;
+
+    static final class Buffer {
+        final byte[] data;
+        int length;
+        int timeoutMillis;
+        long enqueuedNanos;
+        Producer producer;
+
+        Buffer(int size) {
+            data = new byte[size];
+        }
+    }
+
+    private static final class Lane {
+        final LockFreeRing<Buffer> pool;
+        final LockFreeRing<Buffer> queue;
+        final AtomicInteger depth = new AtomicInteger();
+        final AtomicInteger maxDepth = new AtomicInteger();
+        final LatencyHistogram queueLatency = new LatencyHistogram();
+
+        Lane(int buffers, int bufferSize) {
+            pool = new LockFreeRing<>(buffers);
+            queue = new LockFreeRing<>(buffers);
+            for (int i = 0; i < buffers; i++)
+                pool.offer(new Buffer(bufferSize));
+        }
+    }
+
+    private final SerialLink link;
+    private final int bufferSize;
+    private final Lane[] lanes;
+    private final Thread writer;
+    private final byte[] gather;
+    private final Buffer[] batch;
+    private volatile int controlWeight = DEFAULT_CONTROL_WEIGHT;
+    private volatile int maxCoalesce;
+    private int controlStreak;
+    private volatile boolean running = true;
+    private volatile boolean writerParked;
+
+    private final AtomicLong linkWrites = new AtomicLong();
+    private final AtomicLong buffersWritten = new AtomicLong();
+    private final AtomicLong poolWaits = new AtomicLong();
+    private final AtomicLong failedWrites = new AtomicLong();
+    private final AtomicLong failedBuffers = new AtomicLong();
+    private final CopyOnWriteArrayList<Producer> producers = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param buffers    pooled bulk buffers, the most bulk writes queued at once, the control
+     *                   lane gets a quarter of that
+     * @param bufferSize largest single write a producer may make
+     */
+    public SendQueue(SerialLink link, int buffers, int bufferSize) {
+        this.link = link;
+        this.bufferSize = bufferSize;
+        lanes = new Lane[]{new Lane(Math.max(2, buffers / 4), bufferSize), new Lane(buffers, bufferSize)};
+        gather = new byte[bufferSize];
+        maxCoalesce = bufferSize;
+        batch = new Buffer[lanes[CONTROL].queue.capacity() + lanes[BULK].queue.capacity()];
+        writer = new Thread(this, "SerialPortWriter");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * a new producer writing through the bulk lane, reads go straight to the link
+     */
+    public Producer producer(String name) {
+        return producer(name, BULK);
+    }
+
+    public Producer producer(String name, int lane) {
+        Producer producer = new Producer(name, lanes[lane]);
+        producers.add(producer);
+        return producer;
+    }
+
+    /**
+     * control writes taken in a row before one waiting bulk write, at least 1
+     */
+    public void setControlWeight(int controlWeight) {
+        this.controlWeight = Math.max(1, controlWeight);
+    }
+
+    /**
+     * most bytes the writer gathers into one link write, bounds how long control waits
+     * behind bulk; a single larger write still goes out whole
+     */
+    public void setMaxCoalesce(int bytes) {
+        maxCoalesce = Math.max(1, Math.min(bytes, gather.length));
+    }
+
+    public class Producer implements SerialLink {
+
+        private final String name;
+        private final Lane lane;
+        private final LatencyHistogram enqueueLatency = new LatencyHistogram();
+        private final LatencyHistogram queueLatency = new LatencyHistogram();
+        private final AtomicReference<IOException> failure = new AtomicReference<>();
+
+        Producer(String name, Lane lane) {
+            this.name = name;
+            this.lane = lane;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        /**
+         * write() call until queued
+         */
+        public LatencyHistogram enqueueLatency() {
+            return enqueueLatency;
+        }
+
+        /**
+         * queued until written to the link
+         */
+        public LatencyHistogram queueLatency() {
+            return queueLatency;
+        }
+
+        /**
+         * error of the last failed link write that carried data of this producer, once, null
+         * if none failed since the last call
+         */
+        public IOException takeFailure() {
+            return failure.getAndSet(null);
+        }
+
+        @Override
+        public void write(byte[] src, int length, int timeoutMillis) throws IOException {
+            long start = System.nanoTime();
+            if (length > bufferSize)
+                throw new IOException("write of " + length + " bytes exceeds send buffer of " + bufferSize);
+            Buffer buffer = acquire(lane.pool, start, timeoutMillis);
+            System.arraycopy(src, 0, buffer.data, 0, length);
+            buffer.length = length;
+            buffer.timeoutMillis = timeoutMillis;
+            buffer.producer = this;
+            long now = System.nanoTime();
+            buffer.enqueuedNanos = now;
+            int queued = lane.depth.incrementAndGet();
+            if (queued > lane.maxDepth.get())
+                lane.maxDepth.set(queued); // racy max, fine for a report
+            lane.queue.offer(buffer); // cannot fail, the ring holds every pooled buffer
+            if (writerParked)
+                LockSupport.unpark(writer);
+            enqueueLatency.record(now - start);
+        }
+
+        @Override
+        public int read(byte[] dest, int timeoutMillis) throws IOException {
+            return link.read(dest, timeoutMillis);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private Buffer acquire(LockFreeRing<Buffer> pool, long start, int timeoutMillis) throws IOException {
+        Buffer buffer = pool.poll();
+        if (buffer != null)
+            return buffer;
+        poolWaits.incrementAndGet();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis > 0 ? timeoutMillis : Integer.MAX_VALUE);
+        while ((buffer = pool.poll()) == null) {
+            if (!running)
+                throw new IOException("send queue closed");
+            if (System.nanoTime() - deadline > 0)
+                throw new InterruptedIOException("write timeout, " + pool.capacity() + " writes queued");
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted");
+            }
+            LockSupport.parkNanos(POOL_WAIT_PARK_NANOS);
+        }
+        return buffer;
+    }
+
+    /**
+     * next write by lane priority and weight, null if all lanes are empty
+     */
+    private Buffer next() {
+        Buffer control = null;
+        if (controlStreak < controlWeight || lanes[BULK].queue.size() == 0)
+            control = lanes[CONTROL].queue.poll();
+        if (control != null) {
+            controlStreak++;
+            return control;
+        }
+        controlStreak = 0;
+        Buffer bulk = lanes[BULK].queue.poll();
+        return bulk != null ? bulk : lanes[CONTROL].queue.poll();
+    }
+
+    @Override
+    public void run() {
+        Buffer carry = null;
+        while (running) {
+            Buffer first = carry != null ? carry : next();
+            carry = null;
+            if (first == null) {
+                writerParked = true;
+                if (lanes[CONTROL].queue.size() == 0 && lanes[BULK].queue.size() == 0 && running)
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                writerParked = false;
+                continue;
+            }
+            // coalesce whole buffers behind the first one into a single link write
+            batch[0] = first;
+            int count = 1;
+            byte[] data = first.data;
+            int length = first.length;
+            int limit = maxCoalesce;
+            Buffer next;
+            while (count < batch.length && length < limit && (next = next()) != null) {
+                if (length + next.length > limit) {
+                    carry = next;
+                    break;
+                }
+                if (count == 1)
+                    System.arraycopy(first.data, 0, gather, 0, first.length);
+                System.arraycopy(next.data, 0, gather, length, next.length);
+                length += next.length;
+                batch[count++] = next;
+                data = gather;
+            }
+            try {
+                link.write(data, length, first.timeoutMillis);
+            } catch (IOException e) {
+                failed(count, e);
+            } catch (RuntimeException e) {
+                // a driver bug must not end the writer, producers would then wait on the pool forever
+                failed(count, new IOException("write failed", e));
+            }
+            long now = System.nanoTime();
+            linkWrites.incrementAndGet();
+            buffersWritten.addAndGet(count);
+            for (int i = 0; i < count; i++) {
+                Buffer done = batch[i];
+                batch[i] = null;
+                Lane lane = done.producer.lane;
+                done.producer.queueLatency.record(now - done.enqueuedNanos);
+                lane.queueLatency.record(now - done.enqueuedNanos);
+                done.producer = null;
+                lane.depth.decrementAndGet();
+                lane.pool.offer(done);
+            }
+        }
+    }
+
+    /**
+     * the first count buffers of batch are lost, their producers get the error
+     */
+    private void failed(int count, IOException e) {
+        failedWrites.incrementAndGet();
+        failedBuffers.addAndGet(count);
+        for (int i = 0; i < count; i++)
+            batch[i].producer.failure.set(e);
+    }
+
+    /**
+     * writes queued and not yet written
+     */
+    public int depth() {
+        return lanes[CONTROL].depth.get() + lanes[BULK].depth.get();
+    }
+
+    /**
+     * link writes that failed, their buffers were dropped
+     */
+    public long failedWrites() {
+        return failedWrites.get();
+    }
+
+    /**
+     * queued until written, for all producers of lane
+     */
+    public LatencyHistogram queueLatency(int lane) {
+        return lanes[lane].queueLatency;
+    }
+
+    /**
+     * wait until the queue is empty, failed writes included
+     *
+     * @return false on timeout
+     */
+    public boolean flush(int timeoutMillis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (depth() > 0) {
+            if (System.nanoTime() - deadline > 0)
+                return false;
+            LockSupport.parkNanos(POOL_WAIT_PARK_NANOS);
+        }
+        return true;
+    }
+
+    public void close() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public String stats() {
+        StringBuilder sb = new StringBuilder(String.format(Locale.US,
+                "send queue: %d link writes for %d buffers, %d failed dropping %d buffers, pool waits=%d,"
+                        + " control weight %d",
+                linkWrites.get(), buffersWritten.get(), failedWrites.get(), failedBuffers.get(), poolWaits.get(),
+                controlWeight));
+        for (int i = 0; i < lanes.length; i++) {
+            sb.append("\n  ").append(LANE_NAMES[i]).append(" lane: depth=").append(lanes[i].depth.get())
+                    .append(" max=").append(lanes[i].maxDepth.get())
+                    .append(", queued ").append(lanes[i].queueLatency.summary());
+        }
+        for (Producer producer : producers) {
+            sb.append("\n  ").append(producer.name).append(": enqueue ").append(producer.enqueueLatency.summary())
+                    .append(", queued ").append(producer.queueLatency.summary());
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,189 @@
+package com.example.usbtest.pipeline;
+
+/**
+ * Pulls value0 .. value19 out of received sensor JSON frames, e.g. into a
+ * {@link SampleStore} or a {@link PersistenceSink}, stamped with the time the frame's
+ * terminator arrived.
+ *
+ * Frames end at {@link JsonPayloadGenerator#TERMINATOR}; a COBS decoder hands over whole
+ * frames, which works the same. Numbers are parsed from the bytes in place, plain decimal
+ * with an optional exponent, and a missing value is stored as NaN. Nothing allocates per
+ * frame. Feed from one thread only.
+ */
+public class SensorFrameParser {
+
+    public interface Listener {
+        /**
+         * values of one frame, NaN where missing; the array is reused once this returns
+         */
+        void onSample(long timestampNanos, double[] values);
+    }
+
+    private static final byte[] KEY = {'"', 'v', 'a', 'l', 'u', 'e'};
+    private static final int MAX_DIGITS = 18;
+    private static final double[] POW10 = new double[23];
+
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++)
+            POW10[i] = POW10[i - 1] * 10;
+    }
+
+    private final Listener listener;
+    private final byte[] frame = new byte[JsonPayloadGenerator.MAX_FRAME_LENGTH * 2];
+    private final byte[] terminator = JsonPayloadGenerator.TERMINATOR_BYTES;
+    private final double[] values;
+    private int fill;
+    private long frames;
+    private long incomplete;
+
+    public SensorFrameParser(int fields, Listener listener) {
+        this.listener = listener;
+        values = new double[fields];
+    }
+
+    public void onReceived(byte[] data, int length) {
+        long now = 0;
+        for (int i = 0; i < length; i++) {
+            if (fill == frame.length)
+                fill = 0; // no terminator within two frames, not ours
+            byte b = data[i];
+            frame[fill++] = b;
+            if (b == terminator[terminator.length - 1] && endsWithTerminator()) {
+                if (now == 0)
+                    now = System.nanoTime();
+                onFrame(now);
+            }
+        }
+    }
+
+    private boolean endsWithTerminator() {
+        if (fill < terminator.length)
+            return false;
+        for (int i = 0; i < terminator.length; i++)
+            if (frame[fill - terminator.length + i] != terminator[i])
+                return false;
+        return true;
+    }
+
+    private void onFrame(long timestamp) {
+        int end = fill - terminator.length;
+        fill = 0;
+        int found = parse(frame, 0, end, values);
+        if (found == 0)
+            return;
+        if (found < values.length)
+            incomplete++;
+        frames++;
+        listener.onSample(timestamp, values);
+    }
+
+    /**
+     * parse "valueN":number pairs of one frame into values[N], the others become NaN
+     *
+     * @return values found
+     */
+    static int parse(byte[] data, int offset, int end, double[] values) {
+        for (int i = 0; i < values.length; i++)
+            values[i] = Double.NaN;
+        int found = 0;
+        int pos = offset;
+        while ((pos = indexOfKey(data, pos, end)) >= 0) {
+            pos += KEY.length;
+            int field = 0;
+            int digits = 0;
+            while (pos < end && data[pos] >= '0' && data[pos] <= '9' && digits++ < 3)
+                field = field * 10 + (data[pos++] - '0');
+            if (digits == 0 || pos + 1 >= end || data[pos] != '"' || data[pos + 1] != ':')
+                continue;
+            pos += 2;
+            if (field >= values.length)
+                continue;
+            int numberEnd = parseNumber(data, pos, end, values, field);
+            if (numberEnd > pos) {
+                found++;
+                pos = numberEnd;
+            }
+        }
+        return found;
+    }
+
+    private static int indexOfKey(byte[] data, int from, int end) {
+        outer:
+        for (int i = from; i <= end - KEY.length; i++) {
+            for (int k = 0; k < KEY.length; k++)
+                if (data[i + k] != KEY[k])
+                    continue outer;
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return position after the number, pos if there is none
+     */
+    private static int parseNumber(byte[] data, int pos, int end, double[] values, int field) {
+        int start = pos;
+        boolean negative = pos < end && data[pos] == '-';
+        if (negative)
+            pos++;
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        while (pos < end && data[pos] >= '0' && data[pos] <= '9') {
+            if (digits++ < MAX_DIGITS)
+                mantissa = mantissa * 10 + (data[pos] - '0');
+            else
+                scale--;
+            pos++;
+        }
+        if (pos < end && data[pos] == '.') {
+            pos++;
+            while (pos < end && data[pos] >= '0' && data[pos] <= '9') {
+                if (digits++ < MAX_DIGITS) {
+                    mantissa = mantissa * 10 + (data[pos] - '0');
+                    scale++;
+                }
+                pos++;
+            }
+        }
+        if (digits == 0)
+            return start;
+        if (pos < end && (data[pos] == 'e' || data[pos] == 'E')) {
+            int p = pos + 1;
+            boolean negativeExponent = p < end && data[p] == '-';
+            if (p < end && (data[p] == '-' || data[p] == '+'))
+                p++;
+            int exponent = 0;
+            int expDigits = 0;
+            while (p < end && data[p] >= '0' && data[p] <= '9' && expDigits++ < 4)
+                exponent = exponent * 10 + (data[p++] - '0');
+            if (expDigits > 0) {
+                scale += negativeExponent ? exponent : -exponent;
+                pos = p;
+            }
+        }
+        double value = mantissa;
+        // exact for the short decimals devices send, within an ulp or two otherwise
+        if (scale > 0)
+            value = scale < POW10.length ? value / POW10[scale] : value / Math.pow(10, scale);
+        else if (scale < 0)
+            value = -scale < POW10.length ? value * POW10[-scale] : value * Math.pow(10, -scale);
+        values[field] = negative ? -value : value;
+        return pos;
+    }
+
+    /**
+     * frames passed on
+     */
+    public long frames() {
+        return frames;
+    }
+
+    /**
+     * frames passed on with some of the values missing
+     */
+    public long incomplete() {
+        return incomplete;
+    }
+}
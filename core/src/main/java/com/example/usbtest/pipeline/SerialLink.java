@@ -0,0 +1,25 @@
+package com.example.usbtest.pipeline;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Minimal byte link the pipeline writes to and reads from.
+ *
+ * Mirrors the blocking part of UsbSerialPort, so the same pipeline code runs against
+ * a real adapter or against {@link InMemorySerialLink} without any Android classes.
+ */
+public interface SerialLink extends Closeable {
+
+    /**
+     * write length bytes from src, blocking up to timeoutMillis (0 = forever)
+     */
+    void write(byte[] src, int length, int timeoutMillis) throws IOException;
+
+    /**
+     * read into dest, blocking up to timeoutMillis (0 = forever)
+     *
+     * @return number of bytes read, 0 on timeout
+     */
+    int read(byte[] dest, int timeoutMillis) throws IOException;
+}
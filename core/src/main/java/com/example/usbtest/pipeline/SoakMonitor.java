@@ -0,0 +1,188 @@
+package com.example.usbtest.pipeline;
+
+import java.util.Locale;
+
+/**
+ * Samples process resources and throughput over a long run and flags slow degradation.
+ *
+ * Call {@link #sample} on a fixed interval. Storage is preallocated, when it fills up
+ * every other sample is dropped and sampling halves its rate, so a run of any length
+ * fits. Samples are grouped into windows; a level (heap, native heap, threads) whose
+ * per-window minimum never drops across at least {@link #MIN_WINDOWS} windows and ends
+ * more than {@link #MIN_GROWTH} above where it started is flagged as growing. Using the
+ * minimum looks through GC sawtooth at what stays live.
+ */
+public class SoakMonitor {
+
+    static final int MIN_WINDOWS = 4;
+    static final double MIN_GROWTH = 0.05;
+
+    private static final int HEAP = 0;
+    private static final int NATIVE_HEAP = 1;
+    private static final int THREADS = 2;
+    private static final int GC_COUNT = 3;
+    private static final int GC_TIME = 4;
+    private static final int BYTES = 5;
+    private static final String[] LEVEL_NAMES = {"heap", "native heap", "threads"};
+
+    private final RuntimeSampler sampler;
+    private final int samplesPerWindow;
+    private final long[] times;
+    private final long[][] values = new long[6][];
+    private int count;
+    private int stride = 1;
+    private long calls;
+
+    /**
+     * @param maxSamples       samples kept before halving
+     * @param samplesPerWindow samples per window for growth and drift
+     */
+    public SoakMonitor(RuntimeSampler sampler, int maxSamples, int samplesPerWindow) {
+        this.sampler = sampler;
+        this.samplesPerWindow = Math.max(1, samplesPerWindow);
+        int capacity = Math.max(2, maxSamples) & ~1;
+        times = new long[capacity];
+        for (int i = 0; i < values.length; i++)
+            values[i] = new long[capacity];
+    }
+
+    /**
+     * @param bytesTransferred total bytes moved so far, for throughput drift
+     */
+    public synchronized void sample(long nowNanos, long bytesTransferred) {
+        if (calls++ % stride != 0)
+            return;
+        if (count == times.length)
+            halve();
+        times[count] = nowNanos;
+        values[HEAP][count] = sampler.heapUsedBytes();
+        values[NATIVE_HEAP][count] = sampler.nativeHeapBytes();
+        values[THREADS][count] = sampler.threadCount();
+        values[GC_COUNT][count] = sampler.gcCount();
+        values[GC_TIME][count] = sampler.gcTimeMillis();
+        values[BYTES][count] = bytesTransferred;
+        count++;
+    }
+
+    private void halve() {
+        count /= 2;
+        for (int i = 0; i < count; i++) {
+            times[i] = times[2 * i];
+            for (long[] series : values)
+                series[i] = series[2 * i];
+        }
+        stride *= 2;
+    }
+
+    public synchronized int sampleCount() {
+        return count;
+    }
+
+    private int windows() {
+        return count / samplesPerWindow;
+    }
+
+    private long windowMin(long[] series, int window) {
+        long min = Long.MAX_VALUE;
+        for (int i = window * samplesPerWindow; i < (window + 1) * samplesPerWindow; i++)
+            min = Math.min(min, series[i]);
+        return min;
+    }
+
+    /**
+     * change of a cumulative series per second, from the end of the previous window
+     */
+    private double windowRate(long[] series, int window) {
+        int first = Math.max(0, window * samplesPerWindow - 1);
+        int last = (window + 1) * samplesPerWindow - 1;
+        long nanos = times[last] - times[first];
+        return nanos <= 0 ? 0 : (series[last] - series[first]) * 1e9 / nanos;
+    }
+
+    private boolean growing(long[] series) {
+        int windows = windows();
+        if (windows < MIN_WINDOWS)
+            return false;
+        long previous = windowMin(series, 0);
+        if (previous == RuntimeSampler.UNKNOWN)
+            return false;
+        long first = previous;
+        for (int w = 1; w < windows; w++) {
+            long min = windowMin(series, w);
+            if (min < previous)
+                return false;
+            previous = min;
+        }
+        return previous > first * (1 + MIN_GROWTH);
+    }
+
+    /**
+     * some level grew through the whole run
+     */
+    public synchronized boolean growthDetected() {
+        for (int level = HEAP; level <= THREADS; level++) {
+            if (growing(values[level]))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * least squares slope of per-window throughput, in percent of the mean per hour
+     */
+    private double driftPercentPerHour() {
+        int windows = windows();
+        double n = 0, sumX = 0, sumY = 0, sumXY = 0, sumXX = 0;
+        for (int w = 0; w < windows; w++) {
+            double x = (times[(w + 1) * samplesPerWindow - 1] - times[0]) / 3.6e12; // hours
+            double y = windowRate(values[BYTES], w);
+            n++;
+            sumX += x;
+            sumY += y;
+            sumXY += x * y;
+            sumXX += x * x;
+        }
+        double denominator = n * sumXX - sumX * sumX;
+        if (n < 2 || denominator == 0 || sumY == 0)
+            return 0;
+        double slope = (n * sumXY - sumX * sumY) / denominator;
+        return slope / (sumY / n) * 100;
+    }
+
+    public synchronized String report() {
+        if (count < 2)
+            return "soak: not enough samples";
+        StringBuilder sb = new StringBuilder();
+        long nanos = times[count - 1] - times[0];
+        sb.append(String.format(Locale.US, "soak: %.1f min, %d samples, %d windows",
+                nanos / 6e10, count, windows()));
+        for (int level = HEAP; level <= THREADS; level++) {
+            long[] series = values[level];
+            if (series[0] == RuntimeSampler.UNKNOWN)
+                continue;
+            double scale = level == THREADS ? 1 : 1 << 20;
+            String format = level == THREADS ? "%.0f" : "%.1f";
+            sb.append(String.format(Locale.US, "\n  %s%s: " + format + " -> " + format, LEVEL_NAMES[level],
+                    level == THREADS ? "" : " MB", series[0] / scale, series[count - 1] / scale));
+            if (windows() > 0) {
+                sb.append(String.format(Locale.US, ", window min " + format + " -> " + format,
+                        windowMin(series, 0) / scale, windowMin(series, windows() - 1) / scale));
+            }
+            sb.append(growing(series) ? "  GROWING" : "");
+        }
+        if (windows() > 0) {
+            int last = windows() - 1;
+            if (values[GC_COUNT][0] != RuntimeSampler.UNKNOWN) {
+                sb.append(String.format(Locale.US, "\n  gc: %.2f -> %.2f per min, pause %.1f -> %.1f ms per min",
+                        windowRate(values[GC_COUNT], 0) * 60, windowRate(values[GC_COUNT], last) * 60,
+                        windowRate(values[GC_TIME], 0) * 60, windowRate(values[GC_TIME], last) * 60));
+            }
+            double first = windowRate(values[BYTES], 0);
+            double latest = windowRate(values[BYTES], last);
+            sb.append(String.format(Locale.US, "\n  throughput: %.1f -> %.1f kB/s, %+.1f%%, drift %+.2f%% per hour",
+                    first / 1e3, latest / 1e3, first == 0 ? 0 : (latest - first) / first * 100,
+                    driftPercentPerHour()));
+        }
+        return sb.toString();
+    }
+}
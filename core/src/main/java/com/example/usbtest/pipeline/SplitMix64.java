@@ -0,0 +1,47 @@
+package com.example.usbtest.pipeline;
+
+/**
+ * SplitMix64 (Steele, Lea, Flood), a fast PRNG whose whole state is one long.
+ *
+ * Seeding from (stream, sequence) gives every frame its own independent sequence, so a
+ * receiver can regenerate any frame from those two numbers without shared state.
+ */
+public final class SplitMix64 {
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private long state;
+
+    public SplitMix64(long seed) {
+        state = seed;
+    }
+
+    /**
+     * generator for one frame of one stream
+     */
+    public static long seed(long streamId, long sequence) {
+        return mix(mix(streamId * GOLDEN_GAMMA) + sequence);
+    }
+
+    public void reseed(long seed) {
+        state = seed;
+    }
+
+    public long nextLong() {
+        return mix(state += GOLDEN_GAMMA);
+    }
+
+    /**
+     * @return uniform in [0, bound), bound must be positive
+     */
+    public int nextInt(int bound) {
+        // Lemire's multiply-shift, the tiny bias is irrelevant for test payloads
+        return (int) (((nextLong() >>> 32) * bound) >>> 32);
+    }
+
+    public static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
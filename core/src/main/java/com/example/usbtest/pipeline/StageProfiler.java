@@ -0,0 +1,98 @@
+package com.example.usbtest.pipeline;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread CPU time and allocated bytes per pipeline stage, reported per MB transferred.
+ *
+ * Wrap a stage in {@link #start} / {@link #end} on the same thread; the start readings
+ * live in a per-thread array, so nesting different stages works and nothing allocates
+ * after a thread's first call. Totals accumulate until {@link #report} prints the
+ * window and starts a new one. When disabled both calls return at once.
+ */
+public class StageProfiler {
+
+    public interface Meter {
+        /**
+         * CPU time of the calling thread, {@link RuntimeSampler#UNKNOWN} if unsupported
+         */
+        long threadCpuNanos();
+
+        /**
+         * bytes allocated by the calling thread so far, {@link RuntimeSampler#UNKNOWN} if unsupported
+         */
+        long threadAllocatedBytes();
+    }
+
+    private final Meter meter;
+    private final String[] stages;
+    private final boolean enabled;
+    private final AtomicLongArray calls;
+    private final AtomicLongArray cpuNanos;
+    private final AtomicLongArray allocatedBytes;
+    private final ThreadLocal<long[]> starts;
+
+    /**
+     * @param meter null disables profiling
+     */
+    public StageProfiler(Meter meter, String... stages) {
+        this.meter = meter;
+        this.stages = stages;
+        enabled = meter != null;
+        calls = new AtomicLongArray(stages.length);
+        cpuNanos = new AtomicLongArray(stages.length);
+        allocatedBytes = new AtomicLongArray(stages.length);
+        final int size = stages.length * 2;
+        starts = new ThreadLocal<long[]>() {
+            @Override
+            protected long[] initialValue() {
+                return new long[size];
+            }
+        };
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void start(int stage) {
+        if (!enabled)
+            return;
+        long[] start = starts.get();
+        start[2 * stage] = meter.threadCpuNanos();
+        start[2 * stage + 1] = meter.threadAllocatedBytes();
+    }
+
+    public void end(int stage) {
+        if (!enabled)
+            return;
+        // allocation first, so reading the CPU clock is not counted against the stage
+        long allocated = meter.threadAllocatedBytes();
+        long cpu = meter.threadCpuNanos();
+        long[] start = starts.get();
+        calls.incrementAndGet(stage);
+        if (cpu != RuntimeSampler.UNKNOWN)
+            cpuNanos.addAndGet(stage, cpu - start[2 * stage]);
+        if (allocated != RuntimeSampler.UNKNOWN)
+            allocatedBytes.addAndGet(stage, allocated - start[2 * stage + 1]);
+    }
+
+    /**
+     * one line per stage with ns CPU and bytes allocated per MB, then start a new window
+     *
+     * @param bytesTransferred bytes moved during this window
+     */
+    public String report(long bytesTransferred) {
+        double megabytes = Math.max(bytesTransferred, 1) / 1e6;
+        StringBuilder sb = new StringBuilder(String.format(Locale.US, "stages over %.2f MB:", bytesTransferred / 1e6));
+        for (int i = 0; i < stages.length; i++) {
+            long n = calls.getAndSet(i, 0);
+            long cpu = cpuNanos.getAndSet(i, 0);
+            long allocated = allocatedBytes.getAndSet(i, 0);
+            sb.append(String.format(Locale.US, "\n  %-8s %9d calls, %12.0f ns cpu/MB, %12.0f B alloc/MB, %7.1f B/call",
+                    stages[i], n, cpu / megabytes, allocated / megabytes, n == 0 ? 0 : (double) allocated / n));
+        }
+        return sb.toString();
+    }
+}
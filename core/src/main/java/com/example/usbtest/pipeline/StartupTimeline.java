@@ -0,0 +1,79 @@
+package com.example.usbtest.pipeline;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * When each startup milestone was first reached, relative to an origin such as process
+ * start, e.g. to report time to the first byte written.
+ *
+ * Only the first {@link #mark} of a milestone counts, later ones cost a volatile read
+ * and no clock read, so marks can stay on the write and read paths. Marks may come from
+ * any thread.
+ */
+public class StartupTimeline {
+
+    private static final long UNSET = Long.MIN_VALUE;
+
+    private final long originNanos;
+    private final String[] milestones;
+    private final AtomicLongArray reached;
+
+    public StartupTimeline(long originNanos, String... milestones) {
+        this.originNanos = originNanos;
+        this.milestones = milestones;
+        reached = new AtomicLongArray(milestones.length);
+        for (int i = 0; i < milestones.length; i++)
+            reached.set(i, UNSET);
+    }
+
+    public void mark(int milestone) {
+        if (reached.get(milestone) == UNSET)
+            reached.compareAndSet(milestone, UNSET, System.nanoTime());
+    }
+
+    public void mark(int milestone, long nanos) {
+        reached.compareAndSet(milestone, UNSET, nanos);
+    }
+
+    public boolean isReached(int milestone) {
+        return reached.get(milestone) != UNSET;
+    }
+
+    /**
+     * @return nanos from the origin, -1 if not reached yet
+     */
+    public long sinceOrigin(int milestone) {
+        long nanos = reached.get(milestone);
+        return nanos == UNSET ? -1 : nanos - originNanos;
+    }
+
+    /**
+     * reached milestones in time order, with ms from the origin and from the one before
+     */
+    public String report() {
+        int n = milestones.length;
+        long[] since = new long[n];
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            since[i] = sinceOrigin(i);
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(since[a], since[b]));
+        StringBuilder sb = new StringBuilder("startup:");
+        long previous = 0;
+        for (int i : order) {
+            if (since[i] < 0)
+                continue;
+            sb.append(String.format(Locale.US, " %s %.1f ms (+%.1f),", milestones[i], since[i] / 1e6,
+                    (since[i] - previous) / 1e6));
+            previous = since[i];
+        }
+        if (sb.charAt(sb.length() - 1) == ',')
+            sb.setLength(sb.length() - 1);
+        else
+            sb.append(" nothing reached");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,323 @@
+package com.example.usbtest.pipeline;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Merges the receive streams of several ports into one stream ordered by receive time,
+ * for a single consumer.
+ *
+ * Each port's receive thread stamps a chunk on arrival and copies it into a buffer from
+ * the port's own pool, then queues it on the port's own {@link LockFreeRing}; ports share
+ * nothing, so adding one does not slow the others. The consumer keeps the oldest chunk of
+ * every port in a binary heap and delivers the heap's minimum once every port has a chunk
+ * queued, since no port can then still deliver an older one, or once the chunk is older
+ * than the reorder window, so a silent port delays the others by at most the window.
+ * A chunk arriving after a newer one was delivered, i.e. more than a window late, is
+ * delivered anyway and counted as late.
+ *
+ * A port whose pool can't hold a whole read, the consumer being behind, drops the read and
+ * counts it rather than stall its receive thread; a read is never delivered in part. Receiving for a port must come from one thread,
+ * merging from another single thread; ports are added at any time.
+ */
+public class StreamMerger {
+
+    public static final long DEFAULT_WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    public interface Listener {
+        /**
+         * the next chunk in receive order, data is reused once this returns
+         */
+        void onChunk(Port port, long receivedNanos, byte[] data, int length);
+    }
+
+    private static final class Chunk {
+        final byte[] data;
+        int length;
+        long receivedNanos;
+
+        Chunk(int size) {
+            data = new byte[size];
+        }
+    }
+
+    public final class Port {
+        private final int index;
+        private final String name;
+        private final LockFreeRing<Chunk> pool;
+        private final LockFreeRing<Chunk> queue;
+        private final Chunk[] taking; // receiving thread only
+        private Chunk head; // merging thread only
+        private volatile long received;
+        private volatile long dropped;
+
+        private Port(int index, String name) {
+            this.index = index;
+            this.name = name;
+            pool = new LockFreeRing<>(chunksPerPort);
+            queue = new LockFreeRing<>(chunksPerPort);
+            taking = new Chunk[chunksPerPort];
+            for (int i = 0; i < chunksPerPort; i++)
+                pool.offer(new Chunk(chunkSize));
+        }
+
+        public boolean onReceived(byte[] data, int length) {
+            return onReceived(data, length, System.nanoTime());
+        }
+
+        /**
+         * queue a copy of the data, split into chunks of the same stamp if larger than one
+         *
+         * @return false if it was dropped, all of it
+         */
+        public boolean onReceived(byte[] data, int length, long receivedNanos) {
+            int needed = (length + chunkSize - 1) / chunkSize;
+            // take every chunk before queueing any, so the consumer never sees part of a read
+            int taken = 0;
+            while (taken < needed && taken < taking.length && (taking[taken] = pool.poll()) != null)
+                taken++;
+            if (taken < needed) {
+                while (taken > 0)
+                    pool.offer(taking[--taken]);
+                dropped += length;
+                wakeConsumer();
+                return false;
+            }
+            for (int i = 0, offset = 0; i < needed; i++) {
+                Chunk chunk = taking[i];
+                taking[i] = null;
+                int n = Math.min(chunkSize, length - offset);
+                System.arraycopy(data, offset, chunk.data, 0, n);
+                chunk.length = n;
+                chunk.receivedNanos = receivedNanos;
+                queue.offer(chunk); // as many cells as chunks, never full
+                offset += n;
+            }
+            received += length;
+            wakeConsumer();
+            return true;
+        }
+
+        public int index() {
+            return index;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public long receivedBytes() {
+            return received;
+        }
+
+        public long droppedBytes() {
+            return dropped;
+        }
+    }
+
+    private final long windowNanos;
+    private final int chunkSize;
+    private final int chunksPerPort;
+    private final Listener listener;
+    private volatile Port[] ports = new Port[0];
+    private volatile Thread consumer;
+
+    // merging thread only
+    private Port[] heap = new Port[0];
+    private int heapSize;
+    private long lastDelivered = Long.MIN_VALUE;
+    private boolean anyDelivered;
+    private long chunks;
+    private long late;
+    private final LatencyHistogram hold = new LatencyHistogram();
+
+    /**
+     * @param windowNanos   longest a chunk waits for older chunks of silent ports
+     * @param chunkSize     bytes per buffer, a read larger than this takes several
+     * @param chunksPerPort buffers each port may have queued
+     */
+    public StreamMerger(long windowNanos, int chunkSize, int chunksPerPort, Listener listener) {
+        this.windowNanos = windowNanos;
+        this.chunkSize = chunkSize;
+        this.chunksPerPort = chunksPerPort;
+        this.listener = listener;
+    }
+
+    /**
+     * Registering is the only synchronized step, receiving and merging never lock.
+     */
+    public synchronized Port addPort(String name) {
+        Port[] current = ports;
+        Port port = new Port(current.length, name);
+        Port[] next = Arrays.copyOf(current, current.length + 1);
+        next[current.length] = port;
+        ports = next;
+        return port;
+    }
+
+    public Port[] ports() {
+        return ports.clone();
+    }
+
+    /**
+     * deliver what the window allows, call from the merging thread
+     *
+     * @return chunks delivered
+     */
+    public int drain(long nowNanos) {
+        return drain(nowNanos, false);
+    }
+
+    /**
+     * Deliver what the window allows, else park until a port receives something or the
+     * oldest held chunk leaves the window, at most maxWaitNanos, and try again.
+     */
+    public int drainOrWait(long maxWaitNanos) {
+        int delivered = drain(System.nanoTime(), false);
+        if (delivered > 0)
+            return delivered;
+        long wait = maxWaitNanos;
+        if (heapSize > 0)
+            wait = Math.min(wait, heap[0].head.receivedNanos + windowNanos - System.nanoTime());
+        if (wait > 0) {
+            consumer = Thread.currentThread();
+            if (!anyQueued())
+                LockSupport.parkNanos(this, wait);
+            consumer = null;
+        }
+        return drain(System.nanoTime(), false);
+    }
+
+    /**
+     * deliver everything queued in order, regardless of the window, e.g. when stopping
+     */
+    public int flush() {
+        return drain(System.nanoTime(), true);
+    }
+
+    private int drain(long nowNanos, boolean all) {
+        Port[] current = ports;
+        if (heap.length < current.length)
+            heap = Arrays.copyOf(heap, current.length);
+        for (Port port : current) {
+            if (port.head == null && (port.head = port.queue.poll()) != null)
+                push(port);
+        }
+        int delivered = 0;
+        while (heapSize > 0) {
+            Port port = heap[0];
+            Chunk chunk = port.head;
+            // with every port present the minimum is final, else it waits out the window
+            if (!all && heapSize < current.length && nowNanos - chunk.receivedNanos < windowNanos)
+                break;
+            if (anyDelivered && chunk.receivedNanos - lastDelivered < 0) {
+                late++;
+            } else {
+                lastDelivered = chunk.receivedNanos;
+                anyDelivered = true;
+            }
+            listener.onChunk(port, chunk.receivedNanos, chunk.data, chunk.length);
+            hold.record(nowNanos - chunk.receivedNanos);
+            chunks++;
+            delivered++;
+            port.pool.offer(chunk);
+            port.head = port.queue.poll();
+            if (port.head != null)
+                siftDown(0);
+            else
+                removeTop();
+        }
+        return delivered;
+    }
+
+    private boolean anyQueued() {
+        for (Port port : ports) {
+            if (port.queue.size() > 0)
+                return true;
+        }
+        return false;
+    }
+
+    private void wakeConsumer() {
+        Thread waiting = consumer;
+        if (waiting != null)
+            LockSupport.unpark(waiting);
+    }
+
+    private static boolean older(Port a, Port b) {
+        long d = a.head.receivedNanos - b.head.receivedNanos;
+        return d < 0 || d == 0 && a.index < b.index;
+    }
+
+    private void push(Port port) {
+        int i = heapSize++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!older(port, heap[parent]))
+                break;
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = port;
+    }
+
+    private void removeTop() {
+        Port last = heap[--heapSize];
+        heap[heapSize] = null;
+        if (heapSize > 0) {
+            heap[0] = last;
+            siftDown(0);
+        }
+    }
+
+    private void siftDown(int i) {
+        Port port = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize)
+                break;
+            if (child + 1 < heapSize && older(heap[child + 1], heap[child]))
+                child++;
+            if (!older(heap[child], port))
+                break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = port;
+    }
+
+    /**
+     * chunks delivered
+     */
+    public long chunks() {
+        return chunks;
+    }
+
+    /**
+     * chunks delivered after a newer one, more than a window late
+     */
+    public long late() {
+        return late;
+    }
+
+    /**
+     * time from receive to delivery, the cost of ordering
+     */
+    public LatencyHistogram hold() {
+        return hold;
+    }
+
+    public long droppedBytes() {
+        long dropped = 0;
+        for (Port port : ports)
+            dropped += port.dropped;
+        return dropped;
+    }
+
+    public String report() {
+        return String.format(Locale.US, "merged %d chunks from %d ports, %d late, %d bytes dropped, window %.1f ms, hold %s",
+                chunks, ports.length, late, droppedBytes(), windowNanos / 1e6, hold.summary());
+    }
+}
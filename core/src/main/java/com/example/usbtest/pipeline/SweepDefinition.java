@@ -0,0 +1,82 @@
+package com.example.usbtest.pipeline;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Parameter sweep for {@link BenchmarkRunner}, every combination of the listed values is run.
+ *
+ * Properties format, lists are comma separated:
+ * <pre>
+ * baud=115200,460800
+ * payload=64,256
+ * batch=1,8
+ * readBuffer=4096
+ * priority=0,-20
+ * read=blocking,iomanager,queued
+ * asyncDepth=0,4
+ * durationMillis=5000
+ * </pre>
+ * Missing keys fall back to the values MainActivity uses.
+ */
+public class SweepDefinition {
+
+    public int[] baudRates = {115200};
+    public int[] payloadSizes = {512};
+    public int[] batchSizes = {1};
+    public int[] readBufferSizes = {4096};
+    public int[] threadPriorities = {0};
+    public String[] readStrategies = {ReadStrategy.BLOCKING};
+    public int[] asyncDepths = {0};
+    public long durationMillis = 5000;
+
+    public static SweepDefinition parse(Reader reader) throws IOException {
+        Properties properties = new Properties();
+        properties.load(reader);
+        SweepDefinition sweep = new SweepDefinition();
+        sweep.baudRates = ints(properties, "baud", sweep.baudRates);
+        sweep.payloadSizes = ints(properties, "payload", sweep.payloadSizes);
+        sweep.batchSizes = ints(properties, "batch", sweep.batchSizes);
+        sweep.readBufferSizes = ints(properties, "readBuffer", sweep.readBufferSizes);
+        sweep.threadPriorities = ints(properties, "priority", sweep.threadPriorities);
+        sweep.asyncDepths = ints(properties, "asyncDepth", sweep.asyncDepths);
+        String read = properties.getProperty("read");
+        if (read != null && !read.trim().isEmpty()) {
+            sweep.readStrategies = read.split(",");
+            for (int i = 0; i < sweep.readStrategies.length; i++)
+                sweep.readStrategies[i] = sweep.readStrategies[i].trim();
+        }
+        String duration = properties.getProperty("durationMillis");
+        if (duration != null)
+            sweep.durationMillis = Long.parseLong(duration.trim());
+        return sweep;
+    }
+
+    public List<BenchmarkConfig> combinations() {
+        List<BenchmarkConfig> configs = new ArrayList<>();
+        for (int baud : baudRates)
+            for (int payload : payloadSizes)
+                for (int batch : batchSizes)
+                    for (int readBuffer : readBufferSizes)
+                        for (int priority : threadPriorities)
+                            for (String read : readStrategies)
+                                for (int asyncDepth : asyncDepths)
+                                    configs.add(new BenchmarkConfig(baud, payload, batch, readBuffer, priority,
+                                            durationMillis, read, asyncDepth));
+        return configs;
+    }
+
+    private static int[] ints(Properties properties, String key, int[] defaults) {
+        String value = properties.getProperty(key);
+        if (value == null || value.trim().isEmpty())
+            return defaults;
+        String[] parts = value.split(",");
+        int[] result = new int[parts.length];
+        for (int i = 0; i < parts.length; i++)
+            result[i] = Integer.parseInt(parts[i].trim());
+        return result;
+    }
+}
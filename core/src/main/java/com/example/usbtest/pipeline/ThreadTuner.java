@@ -0,0 +1,14 @@
+package com.example.usbtest.pipeline;
+
+/**
+ * Applies scheduler hints to the calling thread, called once on each thread a scheduler starts.
+ */
+public interface ThreadTuner {
+
+    void tune(int priority);
+
+    /**
+     * maps nice -20..19 onto Thread priorities 10..1
+     */
+    ThreadTuner JAVA = BenchmarkRunner.JAVA_PRIORITY::apply;
+}
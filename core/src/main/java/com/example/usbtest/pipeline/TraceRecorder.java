@@ -0,0 +1,179 @@
+package com.example.usbtest.pipeline;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Timed spans per thread, exported as Chrome trace-event JSON for Perfetto or chrome://tracing.
+ *
+ * Span names are registered up front and recorded by id. Each thread writes into its own
+ * preallocated ring, oldest spans are overwritten, so recording takes no lock and does not
+ * allocate after a thread's first span. A thread that ended leaves its ring to the next
+ * thread of the same name, so threads restarted on every reconnect don't pile up rings
+ * and the trace shows them on one track. Spans nest up to {@link #MAX_DEPTH}. An optional
+ * {@link Hook} mirrors every span into a platform tracer, android.os.Trace on device.
+ * Export while recording may show a span torn by a concurrent overwrite; that costs one
+ * event, not correctness of the pipeline.
+ */
+public class TraceRecorder {
+
+    public static final int MAX_DEPTH = 16;
+
+    public interface Hook {
+        void begin(String name);
+
+        void end();
+    }
+
+    private static final class Ring {
+        final String threadName;
+        final long threadId;
+        WeakReference<Thread> owner;
+        final int[] names;
+        final long[] starts;
+        final long[] ends;
+        final int[] stack = new int[MAX_DEPTH];
+        int depth;
+        volatile long next; // spans begun, the slot of span n is n % capacity
+
+        Ring(int capacity) {
+            Thread thread = Thread.currentThread();
+            threadName = thread.getName();
+            threadId = thread.getId();
+            owner = new WeakReference<>(thread);
+            names = new int[capacity];
+            starts = new long[capacity];
+            ends = new long[capacity];
+        }
+    }
+
+    private final boolean enabled;
+    private final int capacity;
+    private final List<String> spanNames = new CopyOnWriteArrayList<>();
+    private final List<Ring> rings = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<Ring> ring = new ThreadLocal<Ring>() {
+        @Override
+        protected Ring initialValue() {
+            Thread thread = Thread.currentThread();
+            synchronized (rings) {
+                for (Ring r : rings) {
+                    Thread previous = r.owner.get();
+                    if ((previous == null || !previous.isAlive()) && r.threadName.equals(thread.getName())) {
+                        r.owner = new WeakReference<>(thread);
+                        r.depth = 0; // spans left open by the old thread stay unexported
+                        return r;
+                    }
+                }
+                Ring created = new Ring(capacity);
+                rings.add(created);
+                return created;
+            }
+        }
+    };
+    private volatile Hook hook;
+
+    /**
+     * @param spansPerThread ring size of each thread, 0 disables recording
+     */
+    public TraceRecorder(int spansPerThread) {
+        enabled = spansPerThread > 0;
+        capacity = Math.max(1, spansPerThread);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setHook(Hook hook) {
+        this.hook = hook;
+    }
+
+    /**
+     * @return id for {@link #begin}
+     */
+    public int register(String name) {
+        synchronized (spanNames) {
+            spanNames.add(name);
+            return spanNames.size() - 1;
+        }
+    }
+
+    public void begin(int span) {
+        if (!enabled)
+            return;
+        Hook h = hook;
+        if (h != null)
+            h.begin(spanNames.get(span));
+        Ring r = ring.get();
+        long n = r.next;
+        int slot = (int) (n % capacity);
+        r.names[slot] = span;
+        r.starts[slot] = System.nanoTime();
+        r.ends[slot] = 0;
+        if (r.depth < MAX_DEPTH)
+            r.stack[r.depth] = slot;
+        r.depth++;
+        r.next = n + 1;
+    }
+
+    /**
+     * ends the innermost open span of the calling thread
+     */
+    public void end() {
+        if (!enabled)
+            return;
+        Ring r = ring.get();
+        if (r.depth == 0)
+            return;
+        r.depth--;
+        if (r.depth < MAX_DEPTH)
+            r.ends[r.stack[r.depth]] = System.nanoTime();
+        Hook h = hook;
+        if (h != null)
+            h.end();
+    }
+
+    /**
+     * completed spans of all threads as a trace-event JSON object, times in microseconds
+     */
+    public void writeChromeJson(Writer out) throws IOException {
+        List<String> names = new ArrayList<>(spanNames);
+        long origin = Long.MAX_VALUE;
+        for (Ring r : rings) {
+            for (long i = Math.max(0, r.next - capacity); i < r.next; i++)
+                origin = Math.min(origin, r.starts[(int) (i % capacity)]);
+        }
+        out.write("{\"displayTimeUnit\":\"ns\",\"traceEvents\":[");
+        boolean first = true;
+        for (Ring r : rings) {
+            if (!first)
+                out.write(',');
+            first = false;
+            out.write("\n{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":" + r.threadId
+                    + ",\"args\":{\"name\":\"" + escape(r.threadName) + "\"}}");
+            long next = r.next;
+            for (long i = Math.max(0, next - capacity); i < next; i++) {
+                int slot = (int) (i % capacity);
+                long start = r.starts[slot];
+                long end = r.ends[slot];
+                if (end < start || end == 0)
+                    continue; // still open or torn
+                out.write(",\n{\"name\":\"" + escape(names.get(r.names[slot])) + "\",\"ph\":\"X\",\"pid\":1,\"tid\":"
+                        + r.threadId + ",\"ts\":" + micros(start - origin) + ",\"dur\":" + micros(end - start) + "}");
+            }
+        }
+        out.write("\n]}\n");
+    }
+
+    private static String micros(long nanos) {
+        return nanos / 1000 + "." + String.format(java.util.Locale.US, "%03d", nanos % 1000);
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.usbtest.pipeline;
+
+import java.io.IOException;
+
+/**
+ * Records a span around every write to link, reads pass through untraced since a read
+ * mostly waits for data.
+ */
+public class TracingSerialLink implements SerialLink {
+
+    private final SerialLink link;
+    private final TraceRecorder tracer;
+    private final int writeSpan;
+
+    public TracingSerialLink(SerialLink link, TraceRecorder tracer, int writeSpan) {
+        this.link = link;
+        this.tracer = tracer;
+        this.writeSpan = writeSpan;
+    }
+
+    @Override
+    public void write(byte[] src, int length, int timeoutMillis) throws IOException {
+        tracer.begin(writeSpan);
+        try {
+            link.write(src, length, timeoutMillis);
+        } finally {
+            tracer.end();
+        }
+    }
+
+    @Override
+    public int read(byte[] dest, int timeoutMillis) throws IOException {
+        return link.read(dest, timeoutMillis);
+    }
+
+    @Override
+    public void close() throws IOException {
+        link.close();
+    }
+}
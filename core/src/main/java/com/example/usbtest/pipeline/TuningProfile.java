@@ -0,0 +1,58 @@
+package com.example.usbtest.pipeline;
+
+import java.util.Locale;
+
+/**
+ * Best loss-free settings found by {@link AutoTuner} for one adapter
+ */
+public class TuningProfile {
+
+    public final int baudRate;
+    public final int readBufferSize;
+    public final int batchSize;
+    public final double bytesPerSecond;
+
+    public TuningProfile(int baudRate, int readBufferSize, int batchSize, double bytesPerSecond) {
+        this.baudRate = baudRate;
+        this.readBufferSize = readBufferSize;
+        this.batchSize = batchSize;
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * storage key for an adapter, e.g. "1a86:5523"
+     */
+    public static String key(int vendorId, int productId) {
+        return String.format(Locale.US, "%04x:%04x", vendorId, productId);
+    }
+
+    /**
+     * compact form for preferences, read back with {@link #parse}
+     */
+    public String serialize() {
+        return baudRate + "," + readBufferSize + "," + batchSize + "," + Math.round(bytesPerSecond);
+    }
+
+    /**
+     * @return null if value is null or malformed
+     */
+    public static TuningProfile parse(String value) {
+        if (value == null)
+            return null;
+        String[] parts = value.split(",");
+        if (parts.length != 4)
+            return null;
+        try {
+            return new TuningProfile(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]),
+                    Integer.parseInt(parts[2]), Double.parseDouble(parts[3]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "baud=%d readBuffer=%d batch=%d (%.1f kB/s)",
+                baudRate, readBufferSize, batchSize, bytesPerSecond / 1e3);
+    }
+}
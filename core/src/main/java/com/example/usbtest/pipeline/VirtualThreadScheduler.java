@@ -0,0 +1,64 @@
+package com.example.usbtest.pipeline;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One virtual thread per task, for the host JVM harness (Java 21+).
+ *
+ * Looked up reflectively so the sources still build for Android. Delayed tasks wait on a
+ * single platform timer thread and are then handed to a fresh virtual thread. Priority
+ * does not apply to virtual threads.
+ */
+public class VirtualThreadScheduler implements PipelineScheduler {
+
+    private final ExecutorService executor;
+    private final ScheduledThreadPoolExecutor timer;
+
+    /**
+     * @return null if the running JVM has no virtual threads
+     */
+    public static VirtualThreadScheduler createIfSupported(String name) {
+        try {
+            Method factory = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return new VirtualThreadScheduler(name, (ExecutorService) factory.invoke(null));
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private VirtualThreadScheduler(String name, ExecutorService executor) {
+        this.executor = executor;
+        this.timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, name + "-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    @Override
+    public void post(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException ignored) {
+        }
+    }
+
+    @Override
+    public void postDelayed(Runnable task, long delayMillis) {
+        try {
+            timer.schedule(() -> post(task), delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ignored) {
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        timer.shutdownNow();
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.usbtest.pipeline;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class AsyncWriteEngineTest {
+
+    @Test
+    public void pipelinedWritesArriveCompleteAndInOrder() throws Exception {
+        InMemorySerialLink link = new InMemorySerialLink(0, 1 << 20);
+        AsyncWriteEngine engine = new AsyncWriteEngine(link, new InMemoryBulkOutTransport(link), 4, 100);
+        byte[] chunk = new byte[250]; // spans three transfer buffers
+        for (int round = 0; round < 40; round++) {
+            for (int i = 0; i < chunk.length; i++)
+                chunk[i] = (byte) (round * chunk.length + i);
+            engine.write(chunk, chunk.length, 1000);
+        }
+        engine.flush(1000);
+        assertEquals(0, engine.outstanding());
+
+        byte[] received = new byte[40 * 250];
+        int total = 0;
+        while (total < received.length) {
+            byte[] buffer = new byte[4096];
+            int len = engine.read(buffer, 1000);
+            System.arraycopy(buffer, 0, received, total, len);
+            total += len;
+        }
+        for (int i = 0; i < received.length; i++)
+            assertEquals("byte " + i, (byte) i, received[i]);
+        engine.close();
+        link.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void writeFailsAfterClose() throws Exception {
+        InMemorySerialLink link = new InMemorySerialLink();
+        AsyncWriteEngine engine = new AsyncWriteEngine(link, new InMemoryBulkOutTransport(link), 2, 64);
+        engine.close();
+        engine.write(new byte[10], 10, 100);
+    }
+
+    @Test
+    public void aRejectedSubmitGivesItsBufferBack() throws Exception {
+        InMemorySerialLink link = new InMemorySerialLink(0, 1 << 20);
+        final int[] rejections = {3};
+        BulkOutTransport transport = new InMemoryBulkOutTransport(link) {
+            @Override
+            public void submit(int slot, ByteBuffer buffer) throws IOException {
+                if (rejections[0]-- > 0)
+                    throw new IOException("queue rejected");
+                super.submit(slot, buffer);
+            }
+        };
+        AsyncWriteEngine engine = new AsyncWriteEngine(link, transport, 2, 64);
+        byte[] frame = new byte[10];
+        for (int i = 0; i < 3; i++) {
+            try {
+                engine.write(frame, frame.length, 100);
+                fail("rejected");
+            } catch (IOException expected) {
+            }
+            assertEquals(0, engine.outstanding());
+        }
+        engine.write(frame, frame.length, 100);
+        engine.flush(1000);
+        assertEquals(10, link.pending());
+        engine.close();
+        link.close();
+    }
+
+    @Test
+    public void benchmarkRunsSyncAndAsyncSideBySide() throws Exception {
+        BenchmarkRunner runner = new BenchmarkRunner(new BenchmarkRunner.LinkFactory() {
+            @Override
+            public SerialLink open(BenchmarkConfig config) {
+                return new InMemorySerialLink(config.baudRate);
+            }
+
+            @Override
+            public void release(SerialLink link) throws IOException {
+                link.close();
+            }
+        }, BenchmarkRunner.JAVA_PRIORITY);
+        for (int depth : new int[]{0, 4}) {
+            BenchmarkResult result = runner.run(new BenchmarkConfig(0, 128, 4, 4096, 0, 150, ReadStrategy.BLOCKING, depth));
+            assertEquals("depth " + depth, 0, result.errors);
+            assertEquals("depth " + depth, result.bytesSent, result.bytesReceived);
+        }
+    }
+}
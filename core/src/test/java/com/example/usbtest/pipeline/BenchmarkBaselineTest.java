@@ -0,0 +1,78 @@
+package com.example.usbtest.pipeline;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BenchmarkBaselineTest {
+
+    private static HostBenchmarks.Result result(String name, double ops, double allocated) {
+        return new HostBenchmarks.Result(name, ops, allocated, ops * 100);
+    }
+
+    private static BenchmarkBaseline roundTrip(List<HostBenchmarks.Result> results) throws Exception {
+        StringWriter json = new StringWriter();
+        BenchmarkBaseline.write(results, json);
+        return BenchmarkBaseline.parse(new StringReader(json.toString()));
+    }
+
+    @Test
+    public void flagsThroughputDropsAndAllocationRisesBeyondTolerance() throws Exception {
+        BenchmarkBaseline baseline = roundTrip(Arrays.asList(
+                result("hexdump", 600_000, 2544), result("encode", 1_500_000, 0), result("loopback", 200_000, 0)));
+        assertEquals(3, baseline.size());
+
+        BenchmarkBaseline.Comparison same = baseline.compare(Arrays.asList(
+                result("hexdump", 560_000, 2600), result("encode", 1_800_000, 4), result("loopback", 181_000, 0)), 0.1);
+        assertEquals(same.report(), 0, same.regressions());
+        assertTrue(same.report(), same.report().contains("+20.0%"));
+
+        BenchmarkBaseline.Comparison worse = baseline.compare(Arrays.asList(
+                result("hexdump", 500_000, 2544), result("encode", 1_500_000, 64), result("loopback", 179_000, 0)), 0.1);
+        assertEquals(worse.report(), 3, worse.regressions());
+        assertEquals(1, worse.allocationRegressions());
+        assertEquals(Arrays.asList("hexdump", "loopback"), worse.slower());
+        assertTrue(worse.report(), worse.report().matches("(?s).*hexdump .* -16\\.7% .* SLOWER\n.*"));
+        assertTrue(worse.report(), worse.report().matches("(?s).*encode .* new +ALLOCATES MORE\n.*"));
+    }
+
+    @Test
+    public void recordsTheMachineItWasMeasuredOn() throws Exception {
+        BenchmarkBaseline baseline = roundTrip(Arrays.asList(result("encode", 1_500_000, 0)));
+        assertEquals(BenchmarkBaseline.thisMachine(), baseline.machine());
+        assertTrue(baseline.machine(), baseline.machine().contains(Runtime.getRuntime().availableProcessors() + " cpus"));
+        assertEquals(1, baseline.size());
+        assertNull(BenchmarkBaseline.parse(new StringReader("{\"encode\": {\"opsPerSecond\": 1, \"allocatedBytesPerOp\": 0}}")).machine());
+    }
+
+    @Test
+    public void rerunsKeepTheBestAndBaselinesTheMedianLaunch() throws Exception {
+        List<HostBenchmarks.Result> first = Arrays.asList(result("encode", 1_000_000, 8), result("store", 400_000, 0));
+        List<HostBenchmarks.Result> best = HostBenchmarks.best(first, Arrays.asList(result("store", 500_000, 16)));
+        assertEquals(1_000_000, best.get(0).opsPerSecond, 0);
+        assertEquals(500_000, best.get(1).opsPerSecond, 0);
+        assertEquals(0, best.get(1).allocatedBytesPerOp, 0);
+
+        List<HostBenchmarks.Result> median = HostBenchmarks.median(Arrays.asList(first,
+                Arrays.asList(result("encode", 1_400_000, 0), result("store", 600_000, 0)),
+                Arrays.asList(result("encode", 1_200_000, 4), result("store", 300_000, 0))));
+        assertEquals(1_200_000, median.get(0).opsPerSecond, 0);
+        assertEquals(0, median.get(0).allocatedBytesPerOp, 0);
+        assertEquals(400_000, median.get(1).opsPerSecond, 0);
+        assertEquals(2, roundTrip(median).results().size());
+    }
+
+    @Test
+    public void benchmarksMissingFromTheBaselineDoNotFail() throws Exception {
+        BenchmarkBaseline baseline = roundTrip(Arrays.asList(result("encode", 1_500_000, 0)));
+        BenchmarkBaseline.Comparison comparison = baseline.compare(Arrays.asList(
+                result("encode", 1_500_000, 0), result("cobs", 900_000, 0)), 0.2);
+        assertEquals(0, comparison.regressions());
+        assertTrue(comparison.report(), comparison.report().contains("not in baseline"));
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.usbtest.pipeline;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BenchmarkRunnerTest {
+
+    private static final BenchmarkRunner.LinkFactory FAKE = new BenchmarkRunner.LinkFactory() {
+        @Override
+        public SerialLink open(BenchmarkConfig config) {
+            return new InMemorySerialLink(config.baudRate);
+        }
+
+        @Override
+        public void release(SerialLink link) throws IOException {
+            link.close();
+        }
+    };
+
+    @Test
+    public void sweepExpandsAllCombinations() throws Exception {
+        SweepDefinition sweep = SweepDefinition.parse(new StringReader(
+                "baud=9600, 115200\npayload=64,256,1024\nbatch=1\npriority=0,-20\nread=blocking, queued\n"
+                        + "durationMillis=100\n"));
+        List<BenchmarkConfig> configs = sweep.combinations();
+        assertEquals(2 * 3 * 2 * 2, configs.size());
+        assertEquals("queued", configs.get(1).readStrategy);
+        assertEquals(9600, configs.get(0).baudRate);
+        assertEquals(4096, configs.get(0).readBufferSize);
+        assertEquals(100, configs.get(0).durationMillis);
+    }
+
+    @Test
+    public void runAgainstFakeIsLossFree() throws Exception {
+        BenchmarkConfig config = new BenchmarkConfig(0, 128, 4, 4096, 0, 200);
+        BenchmarkResult result = new BenchmarkRunner(FAKE, BenchmarkRunner.JAVA_PRIORITY).run(config);
+        assertTrue(result.bytesSent > 0);
+        assertEquals(result.bytesSent, result.bytesReceived);
+        assertEquals(result.bytesSent / 128, result.framesReceived);
+        assertEquals(0, result.errors);
+
+        BenchmarkConfig unknown = new BenchmarkConfig(0, 128, 4, 4096, 0, 50, "queued");
+        assertEquals(1, new BenchmarkRunner(FAKE, BenchmarkRunner.JAVA_PRIORITY).run(unknown).errors);
+
+        StringWriter csv = new StringWriter();
+        BenchmarkReport.writeCsv(Collections.singletonList(result), csv);
+        assertTrue(csv.toString().startsWith("baud,payload,batch"));
+        assertEquals(2, csv.toString().split("\n").length);
+    }
+
+    @Test
+    public void autoTunerPicksFastestLossFreeSettings() throws Exception {
+        AutoTuner tuner = new AutoTuner(new BenchmarkRunner(FAKE, BenchmarkRunner.JAVA_PRIORITY))
+                .setCandidates(new int[]{115200, 460800}, new int[]{1, 4}, new int[]{512, 4096})
+                .setTiming(100, 20_000);
+        TuningProfile profile = tuner.tune(null);
+        assertNotNull(profile);
+        assertEquals(460800, profile.baudRate);
+        assertEquals(profile.serialize(), TuningProfile.parse(profile.serialize()).serialize());
+    }
+}
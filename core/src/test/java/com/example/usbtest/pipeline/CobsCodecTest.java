@@ -0,0 +1,93 @@
+package com.example.usbtest.pipeline;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CobsCodecTest {
+
+    private static byte[] encode(byte[] payload) {
+        byte[] buf = new byte[CobsCodec.maxEncodedLength(payload.length)];
+        System.arraycopy(payload, 0, buf, CobsCodec.HEADROOM, payload.length);
+        return Arrays.copyOf(buf, CobsCodec.encode(buf, 0, payload.length));
+    }
+
+    @Test
+    public void encodesKnownVectors() {
+        assertArrayEquals(new byte[]{1, 0}, encode(new byte[0]));
+        assertArrayEquals(new byte[]{1, 1, 0}, encode(new byte[]{0}));
+        assertArrayEquals(new byte[]{3, 0x11, 0x22, 2, 0x33, 0}, encode(new byte[]{0x11, 0x22, 0, 0x33}));
+        byte[] run = new byte[254];
+        Arrays.fill(run, (byte) 'x');
+        byte[] encoded = encode(run);
+        assertEquals(256, encoded.length);
+        assertEquals((byte) 0xFF, encoded[0]);
+        byte[] runThenZero = Arrays.copyOf(run, 255);
+        encoded = encode(runThenZero);
+        assertEquals((byte) 0xFF, encoded[0]);
+        assertArrayEquals(new byte[]{1, 1, 0}, Arrays.copyOfRange(encoded, 255, 258));
+    }
+
+    @Test
+    public void roundTripsBinaryPayloadsWithinTheOverheadBound() {
+        Random random = new Random(45);
+        for (int length = 0; length < 1200; length += 1 + random.nextInt(7)) {
+            byte[] payload = new byte[length];
+            for (int i = 0; i < length; i++)
+                payload[i] = random.nextInt(4) == 0 ? 0 : (byte) (1 + random.nextInt(255));
+            if (length > 600)
+                Arrays.fill(payload, 100, 600, (byte) 7); // long runs without zero
+            byte[] encoded = encode(payload);
+            assertTrue(encoded.length <= length + length / 254 + 2);
+            for (int i = 0; i < encoded.length - 1; i++)
+                assertNotEquals(0, encoded[i]);
+            assertEquals(0, encoded[encoded.length - 1]);
+            int decoded = CobsCodec.decode(encoded, 0, encoded.length - 1);
+            assertArrayEquals(payload, Arrays.copyOf(encoded, decoded));
+        }
+    }
+
+    @Test
+    public void streamDecoderSplitsAnywhereAndResyncsAfterCorruption() {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        JsonPayloadGenerator generator = new JsonPayloadGenerator(1);
+        byte[] buf = new byte[CobsCodec.maxEncodedLength(JsonPayloadGenerator.MAX_FRAME_LENGTH)];
+        int corruptAt = -1;
+        for (int i = 0; i < 20; i++) {
+            int length = CobsCodec.encode(buf, 0, generator.encodeNext(buf, CobsCodec.HEADROOM));
+            if (i == 7)
+                corruptAt = stream.size() + 40;
+            stream.write(buf, 0, length);
+        }
+        byte[] clean = stream.toByteArray();
+        byte[] bytes = clean.clone();
+        bytes[corruptAt] = 0; // a lost byte boundary in the middle of frame 7
+
+        final PayloadVerifier verifier = new PayloadVerifier();
+        final List<Integer> lengths = new ArrayList<>();
+        CobsCodec.Decoder decoder = new CobsCodec.Decoder(JsonPayloadGenerator.MAX_FRAME_LENGTH, (frame, length) -> {
+            lengths.add(length);
+            verifier.onReceived(frame, length);
+        });
+        Random random = new Random(7);
+        for (int offset = 0; offset < bytes.length; ) {
+            int n = Math.min(bytes.length - offset, 1 + random.nextInt(100));
+            decoder.onReceived(Arrays.copyOfRange(bytes, offset, offset + n), n);
+            offset += n;
+        }
+        assertEquals(19, verifier.verified());
+        assertEquals(1, verifier.missing());
+        assertTrue(decoder.errors() + verifier.corrupt() >= 1);
+        assertTrue(lengths.toString(), lengths.get(0) > 300);
+
+        CobsCodec.Decoder small = new CobsCodec.Decoder(16, (frame, length) -> fail("frame larger than the buffer"));
+        small.onReceived(clean, clean.length);
+        assertEquals(20, small.errors());
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.usbtest.pipeline;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class FlowControlLinkTest {
+
+    @Test
+    public void xoffPausesTheWriterUntilXon() throws Exception {
+        InMemorySerialLink echo = new InMemorySerialLink();
+        FlowControlLink flow = FlowControlLink.software(echo);
+        byte[] received = "ab\u0013cd".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(4, flow.onReceived(received, received.length));
+        assertEquals("abcd", new String(received, 0, 4, StandardCharsets.US_ASCII));
+
+        final AtomicLong writtenAt = new AtomicLong();
+        final byte[] frame = new byte[100];
+        Thread writer = new Thread(() -> {
+            try {
+                flow.write(frame, frame.length, 5000);
+                writtenAt.set(System.nanoTime());
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+        });
+        writer.start();
+        Thread.sleep(50);
+        assertEquals("held back while paused", 0, echo.pending());
+        long resumedAt = System.nanoTime();
+        byte[] xon = {'x', FlowControlLink.XON};
+        assertEquals(1, flow.onReceived(xon, xon.length));
+        writer.join(2000);
+        assertEquals(100, echo.pending());
+        assertTrue(writtenAt.get() - resumedAt >= 0);
+
+        assertEquals(1, flow.pauses().count());
+        assertEquals(100, flow.heldBackBytes());
+        assertTrue(flow.pausedNanos() >= 40_000_000L);
+        assertTrue(flow.report(), flow.report().contains("1 pauses"));
+        assertTrue(flow.report(), flow.report().contains("xoff=1 xon=1"));
+
+        flow.write(frame, frame.length, 100);
+        assertEquals("not paused, not counted", 1, flow.pauses().count());
+    }
+
+    @Test
+    public void ctsLowHoldsWritesAndTimesOut() throws Exception {
+        InMemorySerialLink echo = new InMemorySerialLink();
+        final boolean[] clear = {true};
+        final AtomicLong polls = new AtomicLong();
+        FlowControlLink flow = FlowControlLink.hardware(echo, () -> {
+            polls.incrementAndGet();
+            return clear[0];
+        });
+        byte[] frame = new byte[64];
+        flow.write(frame, frame.length, 100);
+        flow.write(frame, frame.length, 100); // within the poll interval, CTS is not read again
+        assertTrue(polls.get() <= 2);
+        assertEquals(128, echo.pending());
+
+        byte[] xoff = {FlowControlLink.XOFF};
+        assertEquals("hardware mode leaves data alone", 1, flow.onReceived(xoff, 1));
+
+        clear[0] = false;
+        Thread.sleep(2);
+        try {
+            flow.write(frame, frame.length, 30);
+            fail("CTS never came back");
+        } catch (InterruptedIOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("rtscts"));
+        }
+        assertEquals(128, echo.pending());
+        assertEquals(64, flow.heldBackBytes());
+        assertTrue(flow.pausedNanos() >= 30_000_000L);
+    }
+
+    @Test
+    public void aPauseStopsALargeWriteWithinOneChunk() throws Exception {
+        final InMemorySerialLink echo = new InMemorySerialLink();
+        final FlowControlLink[] flow = new FlowControlLink[1];
+        // the device asks for a pause as soon as the first chunk arrives
+        flow[0] = FlowControlLink.software(new SerialLink() {
+            @Override
+            public void write(byte[] src, int length, int timeoutMillis) throws IOException {
+                echo.write(src, length, timeoutMillis);
+                if (echo.pending() == length) {
+                    byte[] xoff = {FlowControlLink.XOFF};
+                    flow[0].onReceived(xoff, 1);
+                }
+            }
+
+            @Override
+            public int read(byte[] dest, int timeoutMillis) {
+                return 0;
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        flow[0].setMaxChunk(100);
+        final byte[] batch = new byte[450];
+        for (int i = 0; i < batch.length; i++)
+            batch[i] = (byte) ('a' + i % 26);
+        Thread writer = new Thread(() -> {
+            try {
+                flow[0].write(batch, batch.length, 5000);
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        });
+        writer.start();
+        Thread.sleep(50);
+        assertEquals("one chunk out, the rest held back", 100, echo.pending());
+        assertEquals(350, flow[0].heldBackBytes());
+        byte[] xon = {FlowControlLink.XON};
+        flow[0].onReceived(xon, 1);
+        writer.join(2000);
+        assertEquals(450, echo.pending());
+        byte[] written = new byte[450];
+        assertEquals(450, echo.read(written, 100));
+        assertArrayEquals("pieces in order", batch, written);
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.usbtest.pipeline;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FrameLedgerTest {
+
+    private static final long MS = 1_000_000L;
+
+    @Test
+    public void matchesRecordLatencyAndUnansweredFramesTimeOut() {
+        FrameLedger ledger = new FrameLedger(64, 100);
+        long t = 5_000 * MS;
+        for (int seq = 0; seq < 50; seq++)
+            assertTrue(ledger.sent(FrameLedger.key(1, seq), t + seq * MS));
+        assertFalse("already in flight", ledger.sent(FrameLedger.key(1, 3), t));
+        assertEquals(50, ledger.inFlight());
+
+        for (int seq = 0; seq < 50; seq += 2)
+            assertEquals(10 * MS, ledger.matched(FrameLedger.key(1, seq), t + seq * MS + 10 * MS));
+        assertEquals(-1, ledger.matched(FrameLedger.key(1, 0), t + 20 * MS));
+        assertEquals(25, ledger.inFlight());
+        assertEquals(25, ledger.matchLatency().count());
+
+        ledger.expire(t + 120 * MS);
+        assertEquals("sent before t+20ms", 10, ledger.timeouts());
+        ledger.expire(t + 200 * MS);
+        assertEquals(25, ledger.timeouts());
+        assertEquals(0, ledger.inFlight());
+    }
+
+    @Test
+    public void survivesManyRoundsWithoutLeakingSlots() {
+        FrameLedger ledger = new FrameLedger(16, 10, 8);
+        long t = 0;
+        long seq = 0;
+        for (int round = 0; round < 10_000; round++) {
+            t += MS;
+            for (int i = 0; i < 4; i++)
+                assertTrue(ledger.sent(FrameLedger.key(2, seq++), t));
+            // answer all but one, which later times out
+            for (long s = seq - 4; s < seq - 1; s++)
+                assertTrue(ledger.matched(FrameLedger.key(2, s), t) >= 0);
+            assertTrue(ledger.inFlight() <= 16);
+        }
+        ledger.expire(t + 100 * MS);
+        assertEquals(0, ledger.inFlight());
+        assertEquals(30_000, ledger.matchedCount());
+        assertEquals(10_000, ledger.timeouts());
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.usbtest.pipeline;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyProbeTest {
+
+    @Test
+    public void histogramPercentilesWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++)
+            histogram.record(i * 1000L);
+        assertEquals(1000, histogram.count());
+        assertEquals(1_000_000, histogram.max());
+        assertEquals(500_000, histogram.percentile(50), 500_000 * 0.016);
+        assertEquals(990_000, histogram.percentile(99), 990_000 * 0.016);
+        assertEquals(1_000_000, histogram.percentile(100));
+    }
+
+    @Test
+    public void scannerFindsProbesSplitAcrossChunks() {
+        byte[] stream = new byte[3 * ProbeFrame.LENGTH + 10];
+        int len = 0;
+        stream[len++] = '{';
+        len += ProbeFrame.encode(stream, len, 1, 100);
+        stream[len++] = (byte) 0xA5; // stray magic byte
+        len += ProbeFrame.encode(stream, len, 2, 200);
+        final long[] seen = new long[2];
+        ProbeFrame.Scanner scanner = new ProbeFrame.Scanner();
+        for (int i = 0; i < len; i += 5)
+            scanner.scan(stream, i, Math.min(5, len - i), (id, stamp) -> seen[(int) id - 1] = stamp);
+        assertEquals(100, seen[0]);
+        assertEquals(200, seen[1]);
+        assertEquals(0, scanner.corrupt());
+    }
+
+    @Test
+    public void roundTripOverInMemoryLink() throws Exception {
+        InMemorySerialLink link = new InMemorySerialLink();
+        LatencyProbe probe = new LatencyProbe();
+        byte[] frame = new byte[ProbeFrame.LENGTH];
+        byte[] buffer = new byte[256];
+        for (int i = 0; i < 10; i++) {
+            probe.setUnderLoad(i >= 5);
+            link.write(frame, probe.nextFrame(frame), 100);
+            int len = link.read(buffer, 100);
+            probe.onReceived(buffer, len);
+        }
+        assertEquals(5, probe.idle().count());
+        assertEquals(5, probe.loaded().count());
+        assertEquals(0, probe.unanswered());
+        link.close();
+    }
+
+    @Test
+    public void pacedLinkDelaysBytesByWireTime() throws Exception {
+        InMemorySerialLink link = new InMemorySerialLink(115200);
+        byte[] payload = new byte[1152]; // 100 ms at 115200 baud
+        long start = System.nanoTime();
+        link.write(payload, payload.length, 0);
+        byte[] buffer = new byte[2048];
+        int total = 0;
+        while (total < payload.length)
+            total += link.read(buffer, 1000);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        assertTrue("elapsed " + elapsedMillis, elapsedMillis >= 90);
+        link.close();
+    }
+}
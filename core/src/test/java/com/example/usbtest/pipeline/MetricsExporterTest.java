@@ -0,0 +1,95 @@
+package com.example.usbtest.pipeline;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class MetricsExporterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void rendersCountersGaugesAndCumulativeHistogramBuckets() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        metrics.wrote(1000, 2);
+        metrics.wrote(24, 0);
+        metrics.connected();
+        metrics.connected();
+        LatencyHistogram latency = new LatencyHistogram();
+        latency.record(40_000);
+        latency.record(90_000);
+        latency.record(3_000_000_000L);
+
+        MetricsExporter exporter = new MetricsExporter();
+        metrics.exportTo(exporter);
+        exporter.addGauge("serial_frames_in_flight", "in flight", () -> 7);
+        exporter.addHistogram("serial_frame_latency_seconds", "round trip", latency);
+        String text = exporter.render();
+
+        assertTrue(text, text.contains("# TYPE serial_written_bytes counter\n"));
+        assertTrue(text, text.contains("\nserial_written_bytes_total 1024\n"));
+        assertTrue(text, text.contains("\nserial_written_frames_total 2\n"));
+        assertTrue(text, text.contains("\nserial_reconnects_total 1\n"));
+        assertTrue(text, text.contains("\nserial_frames_in_flight 7\n"));
+        assertTrue(text, text.contains("\nserial_frame_latency_seconds_bucket{le=\"0.00005\"} 1\n"));
+        assertTrue(text, text.contains("\nserial_frame_latency_seconds_bucket{le=\"0.0001\"} 2\n"));
+        assertTrue(text, text.contains("\nserial_frame_latency_seconds_bucket{le=\"1\"} 2\n"));
+        assertTrue(text, text.contains("\nserial_frame_latency_seconds_bucket{le=\"+Inf\"} 3\n"));
+        assertTrue(text, text.contains("\nserial_frame_latency_seconds_sum 3.00013\n"));
+        assertTrue(text, text.contains("\nserial_frame_latency_seconds_count 3\n"));
+        assertTrue(text, text.endsWith("# EOF\n"));
+    }
+
+    @Test
+    public void replacesFileWithoutLeavingTemporaryFiles() throws Exception {
+        PipelineMetrics metrics = new PipelineMetrics();
+        MetricsExporter exporter = new MetricsExporter();
+        metrics.exportTo(exporter);
+        File file = new File(folder.getRoot(), "metrics.prom");
+        exporter.writeTo(file);
+        metrics.read(512);
+        exporter.writeTo(file);
+
+        String text = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        assertTrue(text, text.contains("\nserial_read_bytes_total 512\n"));
+        assertArrayEquals(new String[]{"metrics.prom"}, folder.getRoot().list());
+    }
+
+    @Test
+    public void exportsHistogramsWhileTheyAreRecordedInto() throws Exception {
+        final LatencyHistogram latency = new LatencyHistogram();
+        MetricsExporter exporter = new MetricsExporter();
+        exporter.addHistogram("serial_frame_latency_seconds", "round trip", latency);
+        Thread[] recorders = new Thread[2];
+        for (int t = 0; t < recorders.length; t++) {
+            recorders[t] = new Thread(() -> {
+                for (int i = 0; i < 500_000; i++)
+                    latency.record(i % 1000 * 1000L);
+            });
+            recorders[t].start();
+        }
+        Pattern inf = Pattern.compile("_bucket\\{le=\"\\+Inf\"\\} (\\d+)\n");
+        Pattern count = Pattern.compile("_count (\\d+)\n");
+        while (recorders[0].isAlive() || recorders[1].isAlive()) {
+            String text = exporter.render();
+            Matcher m = inf.matcher(text);
+            Matcher c = count.matcher(text);
+            assertTrue(text, m.find() && c.find());
+            assertEquals("a snapshot agrees with itself", m.group(1), c.group(1));
+        }
+        for (Thread recorder : recorders)
+            recorder.join();
+        assertEquals(1_000_000, latency.count());
+        assertEquals(999_000, latency.max());
+        assertEquals(1_000_000L * 499_500, latency.sum());
+    }
+}
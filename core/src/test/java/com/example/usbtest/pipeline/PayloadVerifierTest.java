@@ -0,0 +1,54 @@
+package com.example.usbtest.pipeline;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class PayloadVerifierTest {
+
+    @Test
+    public void framesAreReproducibleFromStreamAndSequence() {
+        byte[] a = new byte[JsonPayloadGenerator.MAX_FRAME_LENGTH];
+        byte[] b = new byte[JsonPayloadGenerator.MAX_FRAME_LENGTH];
+        JsonPayloadGenerator generator = new JsonPayloadGenerator(7);
+        int length = generator.encode(a, 0, 123456789L);
+        assertEquals(length, new JsonPayloadGenerator(7).encode(b, 0, 123456789L));
+        assertArrayEquals(a, b);
+        assertNotEquals(new String(a, 0, length, StandardCharsets.US_ASCII),
+                new String(b, 0, generator.encode(b, 0, 123456790L), StandardCharsets.US_ASCII));
+        String frame = new String(a, 0, length, StandardCharsets.US_ASCII);
+        assertTrue(frame, frame.matches("\\{\"sensor\":\"temperature\",\"stream\":7,\"seq\":123456789"
+                + "(,\"value\\d+\":\\d{1,2}\\.\\d{5}){20}}\\\\n"));
+    }
+
+    @Test
+    public void detectsCorruptionLossAndSkipsProbesInBetween() {
+        JsonPayloadGenerator one = new JsonPayloadGenerator(1);
+        JsonPayloadGenerator two = new JsonPayloadGenerator(2);
+        byte[] stream = new byte[16 * 1024];
+        int len = 0;
+        for (int i = 0; i < 10; i++) {
+            len += ProbeFrame.encode(stream, len, i, System.nanoTime());
+            len += one.encodeNext(stream, len);
+            len += two.encodeNext(stream, len);
+        }
+        one.encodeNext(new byte[JsonPayloadGenerator.MAX_FRAME_LENGTH], 0); // frame 10 of stream 1 never sent
+        int corruptAt = len + 80;
+        len += one.encodeNext(stream, len);
+        stream[corruptAt] ^= 0x01;
+        len += one.encodeNext(stream, len);
+
+        PayloadVerifier verifier = new PayloadVerifier();
+        for (int off = 0; off < len; off += 100) {
+            byte[] chunk = new byte[100];
+            int n = Math.min(100, len - off);
+            System.arraycopy(stream, off, chunk, 0, n);
+            verifier.onReceived(chunk, n);
+        }
+        assertEquals(verifier.report(), 21, verifier.verified());
+        assertEquals(1, verifier.corrupt());
+        assertEquals(2, verifier.missing()); // the unsent frame and the corrupt one
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.usbtest.pipeline;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class PersistenceSinkTest {
+
+    /**
+     * commits take commitMillis, the transaction with the given number fails
+     */
+    private static final class SlowBackend implements PersistenceSink.Backend {
+        final List<Integer> batches = new ArrayList<>();
+        final List<Long> timestamps = new ArrayList<>();
+        final long commitMillis;
+        final int failingTransaction;
+        int transactions;
+        int pending;
+        boolean closed;
+
+        SlowBackend(long commitMillis, int failingTransaction) {
+            this.commitMillis = commitMillis;
+            this.failingTransaction = failingTransaction;
+        }
+
+        @Override
+        public void begin() {
+            transactions++;
+            pending = 0;
+        }
+
+        @Override
+        public void insert(long timestampNanos, double[] values) throws IOException {
+            if (transactions == failingTransaction)
+                throw new IOException("disk full");
+            assertEquals(timestampNanos, values[0], 0);
+            timestamps.add(timestampNanos);
+            pending++;
+        }
+
+        @Override
+        public void commit() {
+            try {
+                Thread.sleep(commitMillis);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+            batches.add(pending);
+        }
+
+        @Override
+        public void abort() {
+            timestamps.subList(timestamps.size() - pending, timestamps.size()).clear();
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    private static void offer(PersistenceSink sink, int rows) {
+        double[] values = new double[2];
+        for (int i = 0; i < rows; i++) {
+            values[0] = i;
+            sink.offer(i, values);
+        }
+    }
+
+    @Test
+    public void batchesRowsIntoLargeTransactions() throws Exception {
+        SlowBackend backend = new SlowBackend(1, 0);
+        PersistenceSink sink = new PersistenceSink(backend, 2, 4096, 500, TimeUnit.MILLISECONDS.toNanos(50),
+                TimeUnit.SECONDS.toNanos(5));
+        sink.start();
+        offer(sink, 10_000);
+        sink.stop();
+
+        assertTrue(backend.closed);
+        assertEquals(10_000, sink.rows());
+        assertEquals(0, sink.dropped());
+        assertEquals(10_000, backend.timestamps.size());
+        for (int i = 0; i < 10_000; i++)
+            assertEquals(i, (long) backend.timestamps.get(i));
+        assertTrue(backend.batches.toString(), sink.commits() <= 10_000 / 500 + 2);
+        assertEquals(sink.commits(), sink.commitLatency().count());
+        assertTrue(sink.report(), sink.rowsPerSecond() > 0);
+        assertTrue(sink.report(), sink.capacityRowsPerSecond() >= sink.rowsPerSecond());
+    }
+
+    @Test
+    public void aLoneRowWaitsAtMostTheMaxDelay() throws Exception {
+        SlowBackend backend = new SlowBackend(0, 0);
+        long maxDelay = TimeUnit.MILLISECONDS.toNanos(200);
+        PersistenceSink sink = new PersistenceSink(backend, 2, 64, 10, maxDelay, 0);
+        sink.start();
+        Thread.sleep(50); // the sink is parked on an empty queue
+        long start = System.nanoTime();
+        offer(sink, 1);
+        while (sink.rows() == 0)
+            Thread.sleep(1);
+        long waited = System.nanoTime() - start;
+        sink.stop();
+        assertTrue(waited / 1_000_000 + " ms", waited < maxDelay * 3 / 2);
+    }
+
+    @Test
+    public void dropsAndCountsWhenTheDiskFallsBehind() throws Exception {
+        SlowBackend backend = new SlowBackend(200, 0);
+        PersistenceSink sink = new PersistenceSink(backend, 2, 100, 50, TimeUnit.MILLISECONDS.toNanos(1), 0);
+        sink.start();
+        offer(sink, 1000);
+        sink.stop();
+
+        assertTrue(sink.dropped() > 0);
+        assertEquals(1000, sink.rows() + sink.dropped());
+        assertEquals(0, sink.blockedNanos());
+        assertTrue(sink.report(), sink.report().contains(sink.dropped() + " dropped"));
+    }
+
+    @Test
+    public void aFailedTransactionIsCountedAndTheSinkKeepsGoing() throws Exception {
+        SlowBackend backend = new SlowBackend(0, 2);
+        PersistenceSink sink = new PersistenceSink(backend, 2, 64, 10, TimeUnit.MILLISECONDS.toNanos(1),
+                TimeUnit.SECONDS.toNanos(5));
+        sink.start();
+        offer(sink, 200);
+        sink.stop();
+
+        assertTrue(sink.failed() > 0);
+        assertEquals(200, sink.rows() + sink.failed());
+        assertEquals(sink.rows(), backend.timestamps.size());
+        assertTrue(sink.report(), sink.report().contains("disk full"));
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.usbtest.pipeline;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RecoverySupervisorTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    public void backsOffExponentiallyWithJitterUpToTheMaximum() {
+        RecoverySupervisor supervisor = new RecoverySupervisor(100, 5_000, 42, 0);
+        long base = 100;
+        for (int attempt = 0; attempt < 10; attempt++) {
+            long delay = supervisor.failed(RecoverySupervisor.TRANSIENT, SECOND);
+            long expected = Math.min(base, 5_000);
+            assertTrue(attempt + ": " + delay, delay >= expected / 2 && delay <= expected);
+            base *= 2;
+        }
+        assertEquals("one incident however many attempts", 1, supervisor.incidents());
+        assertEquals(5_000, supervisor.failed(RecoverySupervisor.PERMISSION, SECOND));
+        assertEquals(RecoverySupervisor.WAIT_FOR_DEVICE, supervisor.failed(RecoverySupervisor.DETACHED, SECOND));
+    }
+
+    @Test
+    public void recordsDowntimePerIncidentAndAvailability() {
+        RecoverySupervisor supervisor = new RecoverySupervisor(100, 5_000, 1, 0);
+        assertEquals(0, supervisor.recovered(SECOND));
+
+        supervisor.failed(RecoverySupervisor.TRANSIENT, 10 * SECOND);
+        supervisor.failed(RecoverySupervisor.TRANSIENT, 11 * SECOND);
+        assertTrue(supervisor.isDown());
+        assertEquals(0.5, supervisor.availability(20 * SECOND), 1e-9);
+        assertEquals(12 * SECOND, supervisor.recovered(22 * SECOND));
+
+        supervisor.failed(RecoverySupervisor.DETACHED, 50 * SECOND);
+        assertEquals(3 * SECOND, supervisor.recovered(53 * SECOND));
+        assertEquals(2, supervisor.incidents());
+        assertEquals(2, supervisor.downtime().count());
+        assertEquals(0.85, supervisor.availability(100 * SECOND), 1e-9);
+        assertTrue(supervisor.report(100 * SECOND), supervisor.report(100 * SECOND).contains("transient=1"));
+    }
+}
@@ -0,0 +1,182 @@
+package com.example.usbtest.pipeline;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class SampleStoreTest {
+
+    private static final int CHUNK = 64;
+
+    /**
+     * fields 0 and 1: sample i is at timestamp 10 * i with values i and a random one
+     */
+    private static SampleStore filled(int samples, long budget, double[] random) {
+        SampleStore store = new SampleStore(2, CHUNK, budget);
+        Random r = new Random(49);
+        double[] values = new double[2];
+        for (int i = 0; i < samples; i++) {
+            values[0] = i;
+            values[1] = random[i] = r.nextGaussian();
+            store.append(10L * i, values);
+        }
+        return store;
+    }
+
+    @Test
+    public void rollupsAndScansMatchABruteForcePass() {
+        int samples = 1000;
+        double[] random = new double[samples];
+        SampleStore store = filled(samples, 1 << 20, random);
+        assertEquals(samples, store.size());
+        assertEquals(0, store.startIndex());
+
+        Random r = new Random(7);
+        SampleStore.Rollup rollup = new SampleStore.Rollup();
+        for (int run = 0; run < 200; run++) {
+            int from = r.nextInt(samples);
+            int to = from + r.nextInt(samples - from + 1);
+            SampleStore.Rollup expected = new SampleStore.Rollup().reset();
+            for (int i = from; i < to; i++)
+                expected.add(random[i]);
+            // timestamps between samples round up to the next one
+            store.rollup(10L * from - 9, 10L * to - 9, 1, rollup);
+            assertEquals(expected.count, rollup.count);
+            assertEquals(expected.min, rollup.min, 0);
+            assertEquals(expected.max, rollup.max, 0);
+            assertEquals(expected.sum, rollup.sum, 1e-9);
+
+            final long[] next = {from};
+            long visited = store.scan(10L * from, 10L * to, 0, (timestamps, values, lo, hi) -> {
+                for (int i = lo; i < hi; i++) {
+                    assertEquals(10 * next[0], timestamps[i]);
+                    assertEquals(next[0]++, values[i], 0);
+                }
+            });
+            assertEquals(to - from, visited);
+        }
+        assertTrue(Double.isNaN(store.rollup(5, 5, 0, rollup).mean()));
+    }
+
+    @Test
+    public void evictsTheOldestChunkWithinTheBudget() {
+        long chunkBytes = CHUNK * 8 * 3 + 2 * 28;
+        SampleStore store = filled(10 * CHUNK + 5, 4 * chunkBytes, new double[10 * CHUNK + 5]);
+        assertEquals(4 * chunkBytes, store.budgetBytes());
+        assertEquals(store.budgetBytes(), store.memoryBytes());
+        assertEquals(7 * CHUNK, store.startIndex());
+        assertEquals(3 * CHUNK + 5, store.size());
+        assertEquals(Long.MIN_VALUE, store.timestampAt(7 * CHUNK - 1));
+        assertEquals(store.startIndex(), store.indexAt(0));
+
+        SampleStore.Rollup all = store.rollup(Long.MIN_VALUE, Long.MAX_VALUE, 0, new SampleStore.Rollup());
+        assertEquals(store.size(), all.count);
+        assertEquals(7 * CHUNK, all.min, 0);
+        assertEquals(10 * CHUNK + 4, all.max, 0);
+
+        store.append(0, new double[]{1, 2}); // went backwards
+        assertEquals(1, store.clamped());
+        assertEquals(10L * (10 * CHUNK + 4), store.timestampAt(store.endIndex() - 1));
+        assertTrue(store.report(), store.report().contains("1 clamped"));
+    }
+
+    @Test
+    public void missingValuesAreLeftOutOfSummariesAndCounted() {
+        SampleStore store = new SampleStore(1, CHUNK, 1 << 20);
+        double[] value = new double[1];
+        for (int i = 0; i < 3 * CHUNK; i++) {
+            value[0] = i % 4 == 0 ? Double.NaN : 2;
+            store.append(i, value);
+        }
+        // complete chunks from their summaries, the partial ends by scanning
+        SampleStore.Rollup all = store.rollup(0, Long.MAX_VALUE, 0, new SampleStore.Rollup());
+        SampleStore.Rollup part = store.rollup(5, 3 * CHUNK - 5, 0, new SampleStore.Rollup());
+        for (SampleStore.Rollup rollup : new SampleStore.Rollup[]{all, part}) {
+            assertEquals(2, rollup.mean(), 0);
+            assertEquals(2, rollup.min, 0);
+            assertEquals(2, rollup.max, 0);
+        }
+        assertEquals(3 * CHUNK / 4, all.missing);
+        assertEquals(3 * CHUNK - 3 * CHUNK / 4, all.count);
+        assertEquals(3 * CHUNK - 10, part.count + part.missing);
+        assertTrue(all.toString(), all.toString().endsWith(", " + all.missing + " missing"));
+    }
+
+    @Test
+    public void readersNeverSeeRecycledSamples() throws Exception {
+        final SampleStore store = new SampleStore(1, CHUNK, 8 * (CHUNK * 16 + 28));
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        Thread writer = new Thread(() -> {
+            double[] value = new double[1];
+            for (int i = 0; i < 2_000_000; i++) {
+                value[0] = i;
+                store.append(i, value);
+            }
+            writing.set(false);
+        });
+        writer.start();
+        SampleStore.Rollup rollup = new SampleStore.Rollup();
+        final long[] torn = new long[1];
+        long checks = 0;
+        while (writing.get() || checks == 0) {
+            final long end = store.endIndex();
+            final long from = end - 3 * CHUNK;
+            // whatever was evicted meanwhile is skipped, what is visited is the sample asked for
+            long visited = store.scan(from, end, 0, (timestamps, values, lo, hi) -> {
+                for (int i = lo; i < hi; i++) {
+                    if (values[i] != timestamps[i] || timestamps[i] < from || timestamps[i] >= end)
+                        torn[0]++;
+                }
+            });
+            assertTrue(visited <= 3 * CHUNK);
+            store.rollup(from, end, 0, rollup);
+            assertTrue(rollup.count == 0 || rollup.min >= from && rollup.max < end);
+            checks++;
+        }
+        writer.join();
+        assertEquals(0, torn[0]);
+    }
+
+    @Test
+    public void parsesValuesFromFramesSplitAnywhere() {
+        SampleStore store = new SampleStore(JsonPayloadGenerator.VALUE_COUNT, CHUNK, 1 << 20);
+        SensorFrameParser parser = new SensorFrameParser(store.fields(), store::append);
+        JsonPayloadGenerator generator = new JsonPayloadGenerator(3);
+        byte[] stream = new byte[JsonPayloadGenerator.MAX_FRAME_LENGTH * 10];
+        int length = 0;
+        for (int i = 0; i < 10; i++)
+            length += generator.encodeNext(stream, length);
+        for (int offset = 0; offset < length; offset += 37)
+            parser.onReceived(Arrays.copyOfRange(stream, offset, Math.min(length, offset + 37)),
+                    Math.min(37, length - offset));
+        assertEquals(10, parser.frames());
+        assertEquals(0, parser.incomplete());
+
+        // value7 of the last frame, as written
+        String frame = lastFrame(stream, length);
+        int key = frame.indexOf("\"value7\":") + 9;
+        double expected = Double.parseDouble(frame.substring(key, frame.indexOf(',', key)));
+        final double[] seen = new double[1];
+        store.scan(Long.MIN_VALUE, Long.MAX_VALUE, 7, (timestamps, values, lo, hi) -> seen[0] = values[hi - 1]);
+        assertEquals(expected, seen[0], 0);
+
+        double[] values = new double[4];
+        byte[] odd = "{\"value0\":-1.5e3,\"value2\":7,\"value3\":\"x\",\"value9\":1}".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(2, SensorFrameParser.parse(odd, 0, odd.length, values));
+        assertEquals(-1500, values[0], 0);
+        assertTrue(Double.isNaN(values[1]));
+        assertEquals(7, values[2], 0);
+        assertTrue(Double.isNaN(values[3]));
+    }
+
+    private static String lastFrame(byte[] stream, int length) {
+        String text = new String(stream, 0, length, StandardCharsets.US_ASCII);
+        String[] frames = text.split("\\\\n");
+        return frames[frames.length - 1];
+    }
+}
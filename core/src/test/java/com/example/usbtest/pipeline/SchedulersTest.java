@@ -0,0 +1,43 @@
+package com.example.usbtest.pipeline;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SchedulersTest {
+
+    private final PipelineScheduler.Factory factory = Schedulers.factory(ThreadTuner.JAVA);
+
+    @Test
+    public void executorKindsRunPostedAndDelayedTasks() throws Exception {
+        for (String kind : new String[]{PipelineScheduler.DEDICATED, PipelineScheduler.POOL}) {
+            PipelineScheduler scheduler = factory.create(kind, "test", -8);
+            CountDownLatch latch = new CountDownLatch(2);
+            scheduler.post(latch::countDown);
+            scheduler.postDelayed(latch::countDown, 5);
+            assertTrue(kind, latch.await(1, TimeUnit.SECONDS));
+
+            LatencyHistogram lateness = Schedulers.measureLateness(scheduler, 20, 1);
+            assertEquals(kind, 20, lateness.count());
+            scheduler.shutdown();
+            scheduler.post(() -> fail("ran after shutdown"));
+        }
+    }
+
+    @Test
+    public void unknownKindIsNotCreated() {
+        assertNull(factory.create("looper", "test", 0));
+    }
+
+    @Test
+    public void virtualThreadsWhenAvailable() throws Exception {
+        PipelineScheduler scheduler = factory.create(PipelineScheduler.VIRTUAL, "test", 0);
+        if (scheduler == null)
+            return; // JVM before 21
+        assertEquals(10, Schedulers.measureLateness(scheduler, 10, 1).count());
+        scheduler.shutdown();
+    }
+}
@@ -0,0 +1,205 @@
+package com.example.usbtest.pipeline;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class SendQueueTest {
+
+    private static final int FRAME = 12;
+
+    /**
+     * collects what the writer thread writes, optionally blocking until released
+     */
+    private static class RecordingLink implements SerialLink {
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        final CountDownLatch release;
+        volatile Thread writer;
+        int writes;
+
+        RecordingLink(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public void write(byte[] src, int length, int timeoutMillis) throws IOException {
+            writer = Thread.currentThread();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            synchronized (written) {
+                written.write(src, 0, length);
+                writes++;
+            }
+        }
+
+        @Override
+        public int read(byte[] dest, int timeoutMillis) {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void framesOfConcurrentProducersArriveWholeAndInOrder() throws Exception {
+        RecordingLink link = new RecordingLink(new CountDownLatch(0));
+        SendQueue queue = new SendQueue(link, 16, 1024);
+        int producers = 4;
+        int frames = 5000;
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            SerialLink producer = queue.producer("p" + p);
+            int id = p;
+            threads[p] = new Thread(() -> {
+                ByteBuffer frame = ByteBuffer.allocate(FRAME);
+                try {
+                    for (int seq = 0; seq < frames; seq++) {
+                        frame.clear();
+                        frame.putInt(id).putInt(seq).putInt(id ^ seq);
+                        producer.write(frame.array(), FRAME, 1000);
+                    }
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            });
+            threads[p].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        assertTrue(queue.flush(1000));
+        queue.close();
+
+        ByteBuffer written;
+        synchronized (link.written) {
+            written = ByteBuffer.wrap(link.written.toByteArray());
+        }
+        assertEquals(producers * frames * FRAME, written.remaining());
+        int[] next = new int[producers];
+        while (written.hasRemaining()) {
+            int id = written.getInt();
+            int seq = written.getInt();
+            assertEquals("frame not interleaved", id ^ seq, written.getInt());
+            assertEquals(next[id]++, seq);
+        }
+        assertTrue("coalesced, " + link.writes + " writes", link.writes <= producers * frames);
+        assertEquals(0, queue.depth());
+        assertTrue(queue.stats(), queue.stats().contains("p3: enqueue n=" + frames));
+    }
+
+    @Test
+    public void producersBlockThenTimeOutWhenThePoolIsExhausted() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingLink link = new RecordingLink(release);
+        SendQueue queue = new SendQueue(link, 2, 64);
+        SerialLink producer = queue.producer("bulk");
+        byte[] frame = new byte[FRAME];
+        producer.write(frame, FRAME, 100); // taken by the writer, which blocks in the link
+        while (link.writer == null)
+            Thread.sleep(1);
+        producer.write(frame, FRAME, 100);
+        long start = System.nanoTime();
+        try {
+            producer.write(frame, FRAME, 50);
+            fail("pool is empty");
+        } catch (InterruptedIOException expected) {
+            assertTrue(System.nanoTime() - start >= 50_000_000L);
+        }
+        try {
+            producer.write(new byte[65], 65, 50);
+            fail("larger than a buffer");
+        } catch (IOException expected) {
+        }
+        release.countDown();
+        assertTrue(queue.flush(1000));
+        queue.close();
+        assertEquals(2 * FRAME, link.written.size());
+    }
+
+    @Test
+    public void aFailedWriteIsReportedToItsProducerOnlyAndLaterWritesGoOut() throws Exception {
+        RecordingLink link = new RecordingLink(new CountDownLatch(0)) {
+            @Override
+            public void write(byte[] src, int length, int timeoutMillis) throws IOException {
+                if (src[0] == 't')
+                    throw new InterruptedIOException("timeout");
+                if (src[0] == 'r')
+                    throw new IllegalStateException("driver bug");
+                super.write(src, length, timeoutMillis);
+            }
+        };
+        SendQueue queue = new SendQueue(link, 4, 64);
+        queue.setMaxCoalesce(FRAME);
+        SendQueue.Producer failing = queue.producer("failing");
+        SendQueue.Producer other = queue.producer("other");
+        byte[] frame = new byte[FRAME];
+        frame[0] = 't';
+        failing.write(frame, FRAME, 100);
+        while (queue.failedWrites() == 0)
+            Thread.sleep(1);
+        frame[0] = 'o';
+        other.write(frame, FRAME, 100);
+        failing.write(frame, FRAME, 100);
+        frame[0] = 'r';
+        other.write(frame, FRAME, 100);
+        frame[0] = 'o';
+        other.write(frame, FRAME, 100);
+        assertTrue(queue.flush(1000));
+        queue.close();
+
+        byte[] written = link.written.toByteArray();
+        assertEquals("both writes after the timeout and the one after the exception", 3 * FRAME, written.length);
+        assertEquals('o', written[2 * FRAME]);
+        IOException timeout = failing.takeFailure();
+        assertNotNull(timeout);
+        assertTrue(timeout.getMessage(), timeout.getMessage().contains("timeout"));
+        assertNull("reported once", failing.takeFailure());
+        IOException bug = other.takeFailure();
+        assertNotNull(bug);
+        assertTrue(bug.getCause() instanceof IllegalStateException);
+        assertTrue(queue.stats(), queue.stats().contains("2 failed dropping 2 buffers"));
+    }
+
+    @Test
+    public void controlLanePreemptsBulkButBulkKeepsItsShare() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingLink link = new RecordingLink(release);
+        SendQueue queue = new SendQueue(link, 16, 64);
+        queue.setControlWeight(2);
+        queue.setMaxCoalesce(FRAME); // one write per link write, to see the order
+        SerialLink bulk = queue.producer("bulk", SendQueue.BULK);
+        SerialLink control = queue.producer("control", SendQueue.CONTROL);
+        byte[] frame = new byte[FRAME];
+        frame[0] = 'b';
+        bulk.write(frame, FRAME, 100);
+        while (link.writer == null)
+            Thread.sleep(1);
+        for (int i = 0; i < 6; i++)
+            bulk.write(frame, FRAME, 100);
+        frame[0] = 'c';
+        for (int i = 0; i < 4; i++)
+            control.write(frame, FRAME, 100);
+        release.countDown();
+        assertTrue(queue.flush(1000));
+        queue.close();
+
+        byte[] written = link.written.toByteArray();
+        StringBuilder order = new StringBuilder();
+        for (int i = 0; i < written.length; i += FRAME)
+            order.append((char) written[i]);
+        assertEquals("bccbccbbbbb", order.toString());
+        assertEquals(4, queue.queueLatency(SendQueue.CONTROL).count());
+        assertEquals(7, queue.queueLatency(SendQueue.BULK).count());
+        assertTrue(queue.stats(), queue.stats().contains("control lane: depth=0 max=4"));
+    }
+}
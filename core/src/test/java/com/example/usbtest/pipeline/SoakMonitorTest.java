@@ -0,0 +1,82 @@
+package com.example.usbtest.pipeline;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SoakMonitorTest {
+
+    private static final long MINUTE = 60_000_000_000L;
+
+    private static class FakeSampler implements RuntimeSampler {
+        long heap;
+        int threads = 20;
+        long gcs;
+
+        @Override
+        public long heapUsedBytes() {
+            return heap;
+        }
+
+        @Override
+        public long nativeHeapBytes() {
+            return UNKNOWN;
+        }
+
+        @Override
+        public long gcCount() {
+            return gcs;
+        }
+
+        @Override
+        public long gcTimeMillis() {
+            return gcs * 5;
+        }
+
+        @Override
+        public int threadCount() {
+            return threads;
+        }
+    }
+
+    @Test
+    public void sawtoothHeapIsFineARisingFloorIsFlagged() {
+        FakeSampler sampler = new FakeSampler();
+        SoakMonitor flat = new SoakMonitor(sampler, 1000, 10);
+        SoakMonitor leaking = new SoakMonitor(sampler, 1000, 10);
+        long bytes = 0;
+        for (int i = 0; i < 100; i++) {
+            long sawtooth = (i % 5) * (8L << 20);
+            sampler.gcs = i / 5;
+            sampler.heap = (32L << 20) + sawtooth;
+            flat.sample(i * MINUTE, bytes);
+            sampler.heap = (32L << 20) + sawtooth + i * (256L << 10);
+            leaking.sample(i * MINUTE, bytes);
+            bytes += 60_000 * 10; // 10 kB/s
+        }
+        assertFalse(flat.report(), flat.growthDetected());
+        assertTrue(leaking.report(), leaking.growthDetected());
+        assertTrue(leaking.report(), leaking.report().contains("heap MB: 32.0 -> 88.8"));
+        assertTrue(leaking.report(), leaking.report().contains("GROWING"));
+        assertTrue(flat.report(), flat.report().contains("-> 0.20 per min, pause 0.6 -> 1.0 ms per min"));
+        assertTrue(flat.report(), flat.report().contains("throughput: 10.0 -> 10.0 kB/s, +0.0%, drift +0.00% per hour"));
+        assertFalse("native heap unknown", flat.report().contains("native"));
+    }
+
+    @Test
+    public void reportsThroughputDriftAndThreadGrowth() {
+        FakeSampler sampler = new FakeSampler();
+        SoakMonitor monitor = new SoakMonitor(sampler, 32, 4);
+        long bytes = 0;
+        for (int i = 0; i < 120; i++) {
+            sampler.threads = 20 + i / 10;
+            monitor.sample(i * MINUTE, bytes);
+            bytes += (long) (60 * (20_000 - i * 100)); // slowing down
+        }
+        assertTrue("halved to fit", monitor.sampleCount() <= 32);
+        String report = monitor.report();
+        assertTrue(report, report.contains("threads: 20 -> 31"));
+        assertTrue(report, monitor.growthDetected());
+        assertTrue(report, report.matches("(?s).*throughput: 1\\d\\.\\d -> \\d+\\.\\d kB/s, -\\d+\\.\\d%, drift -\\d+\\.\\d+% per hour.*"));
+    }
+}
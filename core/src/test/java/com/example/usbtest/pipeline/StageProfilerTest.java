@@ -0,0 +1,61 @@
+package com.example.usbtest.pipeline;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StageProfilerTest {
+
+    private static class FakeMeter implements StageProfiler.Meter {
+        long cpu;
+        long allocated;
+
+        @Override
+        public long threadCpuNanos() {
+            return cpu;
+        }
+
+        @Override
+        public long threadAllocatedBytes() {
+            return allocated;
+        }
+    }
+
+    @Test
+    public void chargesNestedStagesPerMegabyteAndResetsTheWindow() {
+        FakeMeter meter = new FakeMeter();
+        StageProfiler profiler = new StageProfiler(meter, "encode", "write");
+        for (int i = 0; i < 4; i++) {
+            profiler.start(1);
+            profiler.start(0);
+            meter.cpu += 1000;
+            meter.allocated += 64;
+            profiler.end(0);
+            meter.cpu += 500;
+            profiler.end(1);
+        }
+        String report = profiler.report(2_000_000);
+        assertTrue(report, report.contains("encode           4 calls,         2000 ns cpu/MB,          128 B alloc/MB,    64.0 B/call"));
+        assertTrue(report, report.contains("write            4 calls,         3000 ns cpu/MB,          128 B alloc/MB,    64.0 B/call"));
+        assertTrue(profiler.report(1), profiler.report(1).contains("encode           0 calls"));
+    }
+
+    @Test
+    public void measuresRealAllocationsOnTheJvm() {
+        StageProfiler profiler = new StageProfiler(new JvmStageMeter(), "allocating", "idle");
+        byte[][] keep = new byte[16][];
+        for (int i = 0; i < 16; i++) {
+            profiler.start(0);
+            keep[i] = new byte[64 * 1024];
+            profiler.end(0);
+            profiler.start(1);
+            profiler.end(1);
+        }
+        String report = profiler.report(1_000_000);
+        assertEquals(16, keep.length);
+        // 16 * 64 KiB = 1 MiB allocated against 1 MB moved
+        assertTrue(report, report.matches("(?s).*allocating\\s+16 calls,\\s+\\d+ ns cpu/MB,\\s+10[45]\\d{4} B alloc/MB.*"));
+        assertTrue(report, report.matches("(?s).*idle\\s+16 calls,\\s+\\d+ ns cpu/MB,\\s+\\d{1,3} B alloc/MB.*"));
+        assertFalse(new StageProfiler(null, "x").isEnabled());
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.usbtest.pipeline;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StartupTimelineTest {
+
+    @Test
+    public void keepsTheFirstMarkAndReportsInTimeOrder() {
+        StartupTimeline timeline = new StartupTimeline(1_000_000, "open", "visible", "firstByteOut");
+        assertEquals("startup: nothing reached", timeline.report());
+        timeline.mark(1, 3_000_000);
+        timeline.mark(0, 8_500_000);
+        timeline.mark(1, 9_000_000); // later marks don't count
+        assertFalse(timeline.isReached(2));
+        assertEquals(-1, timeline.sinceOrigin(2));
+        assertEquals(2_000_000, timeline.sinceOrigin(1));
+        assertEquals("startup: visible 2.0 ms (+2.0), open 7.5 ms (+5.5)", timeline.report());
+
+        timeline.mark(2);
+        assertTrue(timeline.isReached(2));
+        assertTrue(timeline.report().endsWith(")"));
+        assertTrue(timeline.report().contains("firstByteOut"));
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.usbtest.pipeline;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class StreamMergerTest {
+
+    private static final long WINDOW = 100;
+
+    @Test
+    public void deliversInReceiveOrderAndWaitsOutSilentPorts() {
+        final List<String> merged = new ArrayList<>();
+        StreamMerger merger = new StreamMerger(WINDOW, 4, 8, (port, receivedNanos, data, length) ->
+                merged.add(port.name() + receivedNanos + ":" + new String(data, 0, length)));
+        StreamMerger.Port a = merger.addPort("a");
+        StreamMerger.Port b = merger.addPort("b");
+        a.onReceived("a1".getBytes(), 2, 10);
+        a.onReceived("a2".getBytes(), 2, 30);
+        b.onReceived("b1b1b1".getBytes(), 6, 20); // split, same stamp
+        b.onReceived("b2".getBytes(), 2, 40);
+
+        assertEquals(4, merger.drain(35));
+        assertEquals("[a10:a1, b20:b1b1, b20:b1, a30:a2]", merged.toString());
+        assertEquals("b40 waits for a, which may still have something older", 0, merger.drain(40 + WINDOW - 1));
+        assertEquals(1, merger.drain(40 + WINDOW));
+
+        b.onReceived("b3".getBytes(), 2, 25); // stamped long before it was queued
+        assertEquals(1, merger.flush());
+        assertEquals("b25:b3", merged.get(merged.size() - 1));
+        assertEquals(1, merger.late());
+        assertEquals(6, merger.chunks());
+    }
+
+    @Test
+    public void dropsWhenThePortPoolIsExhausted() {
+        StreamMerger merger = new StreamMerger(WINDOW, 4, 2, (port, receivedNanos, data, length) -> {
+        });
+        StreamMerger.Port port = merger.addPort("slow consumer");
+        assertTrue(port.onReceived(new byte[8], 8, 1));
+        assertFalse(port.onReceived(new byte[3], 3, 2));
+        assertEquals(3, merger.droppedBytes());
+        assertEquals(2, merger.flush());
+        assertTrue(port.onReceived(new byte[3], 3, 3));
+        assertTrue(merger.report(), merger.report().contains("3 bytes dropped"));
+
+        // one chunk left, a read that needs two is dropped whole
+        assertFalse(port.onReceived(new byte[5], 5, 4));
+        assertEquals(8, merger.droppedBytes());
+        assertEquals(1, merger.flush());
+        assertFalse("more than the pool holds", port.onReceived(new byte[12], 12, 5));
+        assertEquals(0, merger.flush());
+        assertTrue(port.onReceived(new byte[8], 8, 6));
+        assertEquals(2, merger.flush());
+    }
+
+    @Test
+    public void mergesConcurrentPortsWithoutLosingOrder() throws Exception {
+        final int ports = 16;
+        final int chunksPerPort = 2000;
+        final long[] nextSequence = new long[ports];
+        final long[] lastStamp = {Long.MIN_VALUE};
+        final int[] errors = new int[1];
+        final StreamMerger merger = new StreamMerger(TimeUnit.MILLISECONDS.toNanos(50), 8, chunksPerPort,
+                (port, receivedNanos, data, length) -> {
+                    long sequence = 0;
+                    for (int i = 0; i < 8; i++)
+                        sequence = sequence << 8 | data[i] & 0xFF;
+                    if (sequence != nextSequence[port.index()]++ || receivedNanos < lastStamp[0])
+                        errors[0]++;
+                    lastStamp[0] = receivedNanos;
+                });
+        List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < ports; p++) {
+            final StreamMerger.Port port = merger.addPort("port" + p);
+            producers.add(new Thread(() -> {
+                byte[] chunk = new byte[8];
+                for (long sequence = 0; sequence < chunksPerPort; sequence++) {
+                    for (int i = 0; i < 8; i++)
+                        chunk[i] = (byte) (sequence >>> (56 - 8 * i));
+                    assertTrue(port.onReceived(chunk, 8));
+                    if (sequence % 64 == 0)
+                        Thread.yield();
+                }
+            }));
+        }
+        final AtomicBoolean producing = new AtomicBoolean(true);
+        Thread consumer = new Thread(() -> {
+            while (producing.get())
+                merger.drainOrWait(TimeUnit.MILLISECONDS.toNanos(10));
+            merger.flush();
+        });
+        consumer.start();
+        for (Thread producer : producers)
+            producer.start();
+        for (Thread producer : producers)
+            producer.join();
+        producing.set(false);
+        consumer.join(5000);
+
+        assertEquals(ports * chunksPerPort, merger.chunks());
+        assertEquals(merger.report(), 0, merger.late());
+        assertEquals(0, errors[0]);
+        assertEquals(0, merger.droppedBytes());
+    }
+}
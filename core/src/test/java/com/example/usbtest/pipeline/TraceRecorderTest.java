@@ -0,0 +1,133 @@
+package com.example.usbtest.pipeline;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class TraceRecorderTest {
+
+    @Test
+    public void exportsNestedSpansPerThreadAsTraceEvents() throws Exception {
+        TraceRecorder tracer = new TraceRecorder(64);
+        int loop = tracer.register("writeLoop");
+        int write = tracer.register("port.write");
+        List<String> hooked = new ArrayList<>();
+        tracer.setHook(new TraceRecorder.Hook() {
+            @Override
+            public void begin(String name) {
+                hooked.add(name);
+            }
+
+            @Override
+            public void end() {
+                hooked.add("end");
+            }
+        });
+        tracer.begin(loop);
+        tracer.begin(write);
+        Thread.sleep(2);
+        tracer.end();
+        tracer.end();
+        Thread reader = new Thread(() -> {
+            tracer.begin(write);
+            tracer.end();
+            tracer.begin(loop); // never ended, not exported
+        }, "SerialRead\"Thread");
+        reader.start();
+        reader.join();
+
+        StringWriter json = new StringWriter();
+        tracer.writeChromeJson(json);
+        String text = json.toString();
+        assertTrue(text, text.startsWith("{\"displayTimeUnit\":\"ns\",\"traceEvents\":["));
+        assertTrue(text, text.contains("\"args\":{\"name\":\"SerialRead\\\"Thread\"}"));
+        assertEquals(text, 3, count(text, "\"ph\":\"X\""));
+        assertEquals(text, 2, count(text, "\"name\":\"port.write\""));
+        Matcher outer = Pattern.compile("\"name\":\"writeLoop\",\"ph\":\"X\",\"pid\":1,\"tid\":\\d+,\"ts\":([\\d.]+),\"dur\":([\\d.]+)").matcher(text);
+        Matcher inner = Pattern.compile("\"name\":\"port.write\",\"ph\":\"X\",\"pid\":1,\"tid\":\\d+,\"ts\":([\\d.]+),\"dur\":([\\d.]+)").matcher(text);
+        assertTrue(outer.find());
+        assertTrue(inner.find());
+        double outerStart = Double.parseDouble(outer.group(1)), outerDur = Double.parseDouble(outer.group(2));
+        double innerStart = Double.parseDouble(inner.group(1)), innerDur = Double.parseDouble(inner.group(2));
+        assertEquals(0, outerStart, 0);
+        assertTrue(innerDur >= 2000);
+        assertTrue("nested", innerStart >= outerStart && innerStart + innerDur <= outerStart + outerDur);
+        assertEquals("[writeLoop, port.write, end, end, port.write, end, writeLoop]", hooked.toString());
+    }
+
+    @Test
+    public void ringKeepsTheNewestSpans() throws Exception {
+        TraceRecorder tracer = new TraceRecorder(8);
+        int span = tracer.register("s");
+        for (int i = 0; i < 100; i++) {
+            tracer.begin(span);
+            tracer.end();
+        }
+        StringWriter json = new StringWriter();
+        tracer.writeChromeJson(json);
+        assertEquals(8, count(json.toString(), "\"ph\":\"X\""));
+
+        TraceRecorder off = new TraceRecorder(0);
+        off.begin(off.register("s"));
+        off.end();
+        json = new StringWriter();
+        off.writeChromeJson(json);
+        assertEquals(0, count(json.toString(), "\"ph\""));
+    }
+
+    @Test
+    public void aRestartedThreadReusesTheRingOfItsPredecessor() throws Exception {
+        TraceRecorder tracer = new TraceRecorder(8);
+        int span = tracer.register("read");
+        for (int connect = 0; connect < 5; connect++) {
+            Thread reader = new Thread(() -> {
+                tracer.begin(span);
+                tracer.end();
+            }, "SerialRead");
+            reader.start();
+            reader.join();
+        }
+        CountDownLatch recorded = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        Thread other = new Thread(() -> {
+            tracer.begin(span);
+            tracer.end();
+            recorded.countDown();
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }, "SerialRead");
+        other.start();
+        recorded.await();
+        Thread live = new Thread(() -> {
+            // same name, but the ring's owner is still running
+            tracer.begin(span);
+            tracer.end();
+        }, "SerialRead");
+        live.start();
+        live.join();
+        done.countDown();
+        other.join();
+
+        StringWriter json = new StringWriter();
+        tracer.writeChromeJson(json);
+        assertEquals(2, count(json.toString(), "\"ph\":\"M\""));
+        assertEquals(7, count(json.toString(), "\"ph\":\"X\""));
+    }
+
+    private static int count(String text, String part) {
+        int n = 0;
+        for (int i = text.indexOf(part); i >= 0; i = text.indexOf(part, i + 1))
+            n++;
+        return n;
+    }
+}